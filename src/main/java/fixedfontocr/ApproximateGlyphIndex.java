@@ -0,0 +1,93 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds the glyph closest to the pixels of a LineBand at some x, in number of mismatched pixels
+ * (the Hamming distance between the column masks of the glyph and those of the band). It is used
+ * where no glyph matches exactly, for example because of a stray pixel of a cursor or of the edge
+ * of a selection (see {@code SearchTreeOCR.setMaxMismatchedPixels}).
+ *
+ * <p> The glyphs are stored as column masks (see {@code Glyph.getColumnMasks}), so the distance of
+ * a column is one {@code Long.bitCount}. A glyph is skipped without reading its columns when its
+ * number of pixels differs from that of the band under it by more than the allowed distance, and
+ * the distance of a glyph stops being summed as soon as it is too large.
+ */
+public class ApproximateGlyphIndex {
+
+   protected List<FontGlyph> glyphs;
+   protected long[][] columnMasks;
+   protected int[] pixelCounts;
+
+   public ApproximateGlyphIndex(Collection<FontGlyph> glyphs) {
+      this.glyphs = new ArrayList<>();
+      for (FontGlyph glyph : glyphs)
+         if (glyph.getDimension().width > 0)
+            this.glyphs.add(glyph);
+      Collections.sort(this.glyphs, new Comparator<FontGlyph>() {
+
+         @Override
+         public int compare(FontGlyph o1, FontGlyph o2) {
+            return o1.getDimension().width - o2.getDimension().width;
+         }
+      });
+      columnMasks = new long[this.glyphs.size()][];
+      pixelCounts = new int[this.glyphs.size()];
+      for (int iGlyph = 0; iGlyph < this.glyphs.size(); iGlyph++) {
+         columnMasks[iGlyph] = this.glyphs.get(iGlyph).getColumnMasks();
+         pixelCounts[iGlyph] = this.glyphs.get(iGlyph).getActivePixels().size();
+      }
+   }
+
+   /**
+    * @return the glyph fitting in the band at {@code x} with the fewest mismatched pixels, at most
+    * {@code maxMismatchedPixels}, the widest one if several are as close, or null if there is none.
+    */
+   public FontGlyph findBestMatch(LineBand band, int x, int maxMismatchedPixels) {
+      FontGlyph bestGlyph = null;
+      int maxDistance = maxMismatchedPixels;
+      int windowWidth = 0;
+      int windowPixelCount = 0;
+      for (int iGlyph = 0; iGlyph < glyphs.size(); iGlyph++) {
+         long[] glyphMasks = columnMasks[iGlyph];
+         if (x + glyphMasks.length > band.getRight())
+            break;
+         while (windowWidth < glyphMasks.length)
+            windowPixelCount += Long.bitCount(band.getColumnMask(x + windowWidth++));
+         if (Math.abs(windowPixelCount - pixelCounts[iGlyph]) > maxDistance)
+            continue;
+         int distance = 0;
+         for (int ix = 0; ix < glyphMasks.length && distance <= maxDistance; ix++)
+            distance += Long.bitCount(glyphMasks[ix] ^ band.getColumnMask(x + ix));
+         if (distance <= maxDistance) {
+            // The glyphs are sorted by width, so a later glyph as close is wider.
+            bestGlyph = glyphs.get(iGlyph);
+            maxDistance = distance;
+         }
+      }
+      return bestGlyph;
+   }
+
+   /**
+    * @return the number of pixels differing between {@code glyph} and the band at {@code x}.
+    */
+   public static int countMismatchedPixels(FontGlyph glyph, LineBand band, int x) {
+      long[] glyphMasks = glyph.getColumnMasks();
+      int distance = 0;
+      for (int ix = 0; ix < glyphMasks.length; ix++)
+         distance += Long.bitCount(glyphMasks[ix] ^ band.getColumnMask(x + ix));
+      return distance;
+   }
+
+   /**
+    * @return an unmodifiable list of the glyphs, from the narrowest to the widest.
+    */
+   public List<FontGlyph> getGlyphs() {
+      return Collections.unmodifiableList(glyphs);
+   }
+}
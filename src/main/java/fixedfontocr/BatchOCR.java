@@ -0,0 +1,522 @@
+package fixedfontocr;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+
+/**
+ * Reads the text of many image files from the command line, without any display, for example to
+ * process again the screenshots of a job on a server:
+ *
+ * <pre>
+ * java -jar FixedFontOCR.jar --font Monospaced,plain,12 --color #000000 --threads 8 captures/*.png
+ * </pre>
+ *
+ * <p> The inputs are image files, directories (their image files, not recursively) or glob
+ * patterns (such as {@code captures/**.png} for the PNG files of captures and of its
+ * subdirectories). One engine is built for the font, before reading any file, and shared by the
+ * threads reading the files. Each file gets one line of JSON (JSON Lines) on the output, in the
+ * order of the inputs: its path, its lines of text, the time to read it, or the error which
+ * prevented reading it. The throughput is printed on the standard error at the end.
+ *
+ * <p> Run without arguments for the list of options.
+ */
+public class BatchOCR {
+
+   public static final String USAGE = "Usage: BatchOCR [options] <image file, directory or glob>...\n"
+           + "  --font <name>,<style>,<size>   a font of the JVM, e.g. Monospaced,plain,12\n"
+           + "  --font-file <file>             a bitmap font in BDF or PSF format, instead of --font\n"
+           + "  --color <#RRGGBB>              the color of the text (default #000000)\n"
+           + "  --origin <x>,<y>               the top left corner of the first line (default 0,0)\n"
+           + "  --line-height <pixels>         the distance between lines (default: the glyph height)\n"
+           + "  --max-vertical-offset <rows>   how far the lines can be from where they are expected (default 0)\n"
+           + "  --max-mismatched-pixels <n>    the noise allowed in a glyph where none matches exactly (default 0)\n"
+           + "  --unknown-symbol <symbol>      skip the spans which are not text as this symbol (default: end the line)\n"
+           + "  --threads <n>                  the number of files read at once (default: the number of processors)\n"
+           + "  --output <file>                where to write the JSON lines (default: the standard output)";
+   protected static final Set<String> IMAGE_EXTENSIONS = new HashSet<>(Arrays.asList(ImageIO.getReaderFileSuffixes()));
+
+   protected String fontSpec;
+   protected Path fontFile;
+   protected Color fontColor = Color.BLACK;
+   protected Point origin = new Point(0, 0);
+   protected int lineHeight;
+   protected int maxVerticalOffset;
+   protected int maxMismatchedPixels;
+   protected String unknownSymbol;
+   protected int nThreads = Runtime.getRuntime().availableProcessors();
+   protected Path outputFile;
+   protected List<String> inputs = new ArrayList<>();
+
+   public static void main(String[] args) {
+      if (args.length == 0 || Arrays.asList(args).contains("--help")) {
+         System.out.println(USAGE);
+         return;
+      }
+      if (System.getProperty("java.awt.headless") == null)
+         System.setProperty("java.awt.headless", "true");
+      BatchOCR batch;
+      try {
+         batch = parseArguments(args);
+      } catch (IllegalArgumentException e) {
+         System.err.println(e.getMessage());
+         System.err.println(USAGE);
+         System.exit(2);
+         return;
+      }
+      try {
+         Stats stats;
+         if (batch.outputFile == null) {
+            Writer output = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            stats = batch.run(output);
+            output.flush();
+         } else {
+            try (Writer output = Files.newBufferedWriter(batch.outputFile, StandardCharsets.UTF_8)) {
+               stats = batch.run(output);
+            }
+         }
+         stats.print(System.err);
+         System.exit(stats.nFailedFiles == 0 ? 0 : 1);
+      } catch (IOException | IllegalArgumentException e) {
+         System.err.println(e.getMessage());
+         System.exit(2);
+      }
+   }
+
+   /**
+    * @throws IllegalArgumentException if the arguments are not valid, with the reason as message.
+    */
+   public static BatchOCR parseArguments(String... args) {
+      BatchOCR batch = new BatchOCR();
+      for (int iArg = 0; iArg < args.length; iArg++) {
+         String arg = args[iArg];
+         if (!arg.startsWith("--")) {
+            batch.inputs.add(arg);
+            continue;
+         }
+         if (iArg + 1 == args.length)
+            throw new IllegalArgumentException("Missing the value of " + arg + ".");
+         String value = args[++iArg];
+         switch (arg) {
+            case "--font":
+               batch.fontSpec = value;
+               break;
+            case "--font-file":
+               batch.fontFile = Paths.get(value);
+               break;
+            case "--color":
+               batch.fontColor = parseColor(value);
+               break;
+            case "--origin":
+               int[] coordinates = parseInts(arg, value, 2);
+               batch.origin = new Point(coordinates[0], coordinates[1]);
+               break;
+            case "--line-height":
+               batch.lineHeight = parseInts(arg, value, 1)[0];
+               break;
+            case "--max-vertical-offset":
+               batch.maxVerticalOffset = parseInts(arg, value, 1)[0];
+               break;
+            case "--max-mismatched-pixels":
+               batch.maxMismatchedPixels = parseInts(arg, value, 1)[0];
+               break;
+            case "--unknown-symbol":
+               batch.unknownSymbol = value;
+               break;
+            case "--threads":
+               batch.nThreads = parseInts(arg, value, 1)[0];
+               if (batch.nThreads < 1)
+                  throw new IllegalArgumentException("Must have at least one thread.");
+               break;
+            case "--output":
+               batch.outputFile = Paths.get(value);
+               break;
+            default:
+               throw new IllegalArgumentException("Unknown option " + arg + ".");
+         }
+      }
+      if ((batch.fontSpec == null) == (batch.fontFile == null))
+         throw new IllegalArgumentException("Must give either --font or --font-file.");
+      if (batch.inputs.isEmpty())
+         throw new IllegalArgumentException("Must give some images.");
+      return batch;
+   }
+
+   protected static Color parseColor(String value) {
+      try {
+         return new Color(Integer.parseInt(value.startsWith("#") ? value.substring(1) : value, 16));
+      } catch (NumberFormatException e) {
+         throw new IllegalArgumentException("The color must be given as #RRGGBB, not " + value + ".");
+      }
+   }
+
+   protected static int[] parseInts(String option, String value, int nInts) {
+      String[] parts = value.split(",");
+      if (parts.length != nInts)
+         throw new IllegalArgumentException("Expecting " + nInts + " numbers for " + option + ", not " + value + ".");
+      int[] ints = new int[nInts];
+      try {
+         for (int i = 0; i < nInts; i++) {
+            ints[i] = Integer.parseInt(parts[i].trim());
+            if (ints[i] < 0)
+               throw new IllegalArgumentException("The numbers of " + option + " cannot be negative.");
+         }
+      } catch (NumberFormatException e) {
+         throw new IllegalArgumentException("Expecting numbers for " + option + ", not " + value + ".");
+      }
+      return ints;
+   }
+
+   /**
+    * The font spec is {@code name,style,size} (see {@code FixedFontOCR}); the name can contain
+    * spaces but no comma.
+    */
+   protected static Font parseFont(String fontSpec) {
+      String[] parts = fontSpec.split(",");
+      if (parts.length != 3)
+         throw new IllegalArgumentException("The font must be given as name,style,size, not " + fontSpec + ".");
+      int size;
+      try {
+         size = Integer.parseInt(parts[2].trim());
+      } catch (NumberFormatException e) {
+         throw new IllegalArgumentException("The size of the font must be a number, not " + parts[2] + ".");
+      }
+      return new Font(parts[0].trim(), FixedFontOCR.convertFontStyle(parts[1].trim()), size);
+   }
+
+   /**
+    * Builds the engine of the font, with the options of the batch.
+    */
+   public SearchTreeOCR createEngine() throws IOException {
+      SearchTreeOCR engine;
+      if (fontFile != null) {
+         BitmapFontPack fontPack;
+         try (InputStream input = new FileInputStream(fontFile.toFile())) {
+            String fileName = fontFile.getFileName().toString();
+            if (fileName.toLowerCase(Locale.ROOT).endsWith(".bdf"))
+               fontPack = BitmapFontPack.readBdf(input);
+            else
+               fontPack = BitmapFontPack.readPsf(input, fileName);
+         }
+         engine = fontPack.createSearchTreeOCR();
+      } else
+         engine = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), parseFont(fontSpec));
+      engine.setEndLineOnTrailingBlank(true);
+      engine.setMaxMismatchedPixels(maxMismatchedPixels);
+      engine.setUnknownGlyphSymbol(unknownSymbol);
+      return engine;
+   }
+
+   /**
+    * @return the image files of the inputs, in the order of the inputs, each directory and glob
+    * pattern being sorted.
+    * @throws IllegalArgumentException if an input is neither a file, nor a directory, nor a
+    * pattern.
+    */
+   public List<Path> findImages() throws IOException {
+      List<Path> images = new ArrayList<>();
+      for (String input : inputs) {
+         Path path = isGlob(input) ? null : Paths.get(input);
+         if (path != null && Files.isRegularFile(path))
+            images.add(path);
+         else if (path != null && Files.isDirectory(path))
+            images.addAll(findImagesInDirectory(path));
+         else if (path == null)
+            images.addAll(findImagesMatching(input));
+         else
+            throw new IllegalArgumentException("Cannot find " + input + ".");
+      }
+      return images;
+   }
+
+   protected static boolean isGlob(String input) {
+      return input.contains("*") || input.contains("?") || input.contains("[") || input.contains("{");
+   }
+
+   protected static boolean isImage(Path path) {
+      String fileName = path.getFileName().toString();
+      int dot = fileName.lastIndexOf('.');
+      return dot >= 0 && IMAGE_EXTENSIONS.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+   }
+
+   protected static List<Path> findImagesInDirectory(Path directory) throws IOException {
+      List<Path> images = new ArrayList<>();
+      try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+         for (Path path : paths)
+            if (Files.isRegularFile(path) && isImage(path))
+               images.add(path);
+      }
+      Collections.sort(images);
+      return images;
+   }
+
+   /**
+    * The pattern is matched against the paths below the longest directory without any pattern
+    * character.
+    */
+   protected static List<Path> findImagesMatching(String pattern) throws IOException {
+      String normalizedPattern = pattern.replace('\\', '/');
+      int firstGlobCharacter = normalizedPattern.length();
+      for (char c : new char[]{'*', '?', '[', '{'})
+         if (normalizedPattern.indexOf(c) >= 0)
+            firstGlobCharacter = Math.min(firstGlobCharacter, normalizedPattern.indexOf(c));
+      int lastSlash = normalizedPattern.lastIndexOf('/', firstGlobCharacter);
+      Path baseDirectory = Paths.get(lastSlash < 0 ? "." : lastSlash == 0 ? "/" : normalizedPattern.substring(0, lastSlash));
+      final Path relativeTo = baseDirectory;
+      String relativePattern = normalizedPattern.substring(lastSlash + 1);
+      final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + relativePattern);
+      final List<Path> images = new ArrayList<>();
+      if (!Files.isDirectory(baseDirectory))
+         return images;
+      // Without "**", the pattern only matches paths with as many names as itself.
+      int maxDepth = relativePattern.contains("**") ? Integer.MAX_VALUE : relativePattern.split("/").length;
+      Files.walkFileTree(baseDirectory, EnumSet.noneOf(FileVisitOption.class), maxDepth, new SimpleFileVisitor<Path>() {
+
+         @Override
+         public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+            if (attributes.isRegularFile() && matcher.matches(relativeTo.relativize(file)))
+               images.add(file);
+            return FileVisitResult.CONTINUE;
+         }
+      });
+      Collections.sort(images);
+      return images;
+   }
+
+   /**
+    * Reads all the images of the inputs with {@code nThreads} threads, and writes one JSON line per
+    * image to {@code output}.
+    */
+   public Stats run(Writer output) throws IOException {
+      Stats stats = new Stats();
+      long start = System.nanoTime();
+      final SearchTreeOCR engine = createEngine();
+      stats.engineNanos = System.nanoTime() - start;
+      List<Path> images = findImages();
+      ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+      try {
+         List<Future<FileResult>> futures = new ArrayList<>(images.size());
+         for (final Path image : images) {
+            futures.add(executor.submit(new Callable<FileResult>() {
+
+               @Override
+               public FileResult call() {
+                  return readFile(engine, image);
+               }
+            }));
+         }
+         for (Future<FileResult> future : futures) {
+            FileResult result = getResult(future);
+            output.write(result.toJson());
+            output.write('\n');
+            stats.add(result);
+         }
+      } finally {
+         executor.shutdownNow();
+      }
+      stats.totalNanos = System.nanoTime() - start;
+      return stats;
+   }
+
+   protected static FileResult getResult(Future<FileResult> future) {
+      try {
+         return future.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while reading the images.", e);
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof RuntimeException)
+            throw (RuntimeException) e.getCause();
+         if (e.getCause() instanceof Error)
+            throw (Error) e.getCause();
+         throw new IllegalStateException(e.getCause());
+      }
+   }
+
+   /**
+    * Reads one image; the errors are part of the result.
+    */
+   protected FileResult readFile(SearchTreeOCR engine, Path file) {
+      long start = System.nanoTime();
+      FileResult result = new FileResult(file);
+      try {
+         BufferedImage image = ImageIO.read(file.toFile());
+         if (image == null)
+            throw new IOException("Not a readable image.");
+         int height = lineHeight > 0 ? lineHeight : engine.getGlyphHeight();
+         result.lines = maxVerticalOffset > 0
+                 ? engine.detectCharactersOnMultipleLines(image, fontColor, height, origin, maxVerticalOffset)
+                 : engine.detectCharactersOnMultipleLines(image, fontColor, height, origin);
+      } catch (IOException | RuntimeException e) {
+         result.error = e.getMessage() != null ? e.getMessage() : e.toString();
+      }
+      result.nanos = System.nanoTime() - start;
+      return result;
+   }
+
+   /**
+    * @return {@code text} as a JSON string, with its quotes.
+    */
+   public static String toJsonString(String text) {
+      StringBuilder json = new StringBuilder(text.length() + 2);
+      json.append('"');
+      for (int i = 0; i < text.length(); i++) {
+         char c = text.charAt(i);
+         switch (c) {
+            case '"':
+               json.append("\\\"");
+               break;
+            case '\\':
+               json.append("\\\\");
+               break;
+            case '\n':
+               json.append("\\n");
+               break;
+            case '\r':
+               json.append("\\r");
+               break;
+            case '\t':
+               json.append("\\t");
+               break;
+            default:
+               if (c < 0x20)
+                  json.append(String.format("\\u%04x", (int) c));
+               else
+                  json.append(c);
+         }
+      }
+      return json.append('"').toString();
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * What was read in one file.
+    */
+   protected static class FileResult {
+
+      protected Path file;
+      protected List<String> lines;
+      protected String error;
+      protected long nanos;
+
+      protected FileResult(Path file) {
+         this.file = file;
+      }
+
+      /**
+       * {"file":..., "lines":[...], "millis":...} or {"file":..., "error":..., "millis":...}.
+       */
+      protected String toJson() {
+         StringBuilder json = new StringBuilder();
+         json.append("{\"file\":").append(toJsonString(file.toString()));
+         if (error != null)
+            json.append(",\"error\":").append(toJsonString(error));
+         else {
+            json.append(",\"lines\":[");
+            for (int iLine = 0; iLine < lines.size(); iLine++) {
+               if (iLine > 0)
+                  json.append(',');
+               json.append(toJsonString(lines.get(iLine)));
+            }
+            json.append(']');
+         }
+         json.append(",\"millis\":").append(String.format(Locale.ROOT, "%.3f", nanos / 1e6));
+         return json.append('}').toString();
+      }
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * The throughput of a batch.
+    */
+   public static class Stats {
+
+      protected int nFiles;
+      protected int nFailedFiles;
+      protected long nLines;
+      protected long nCharacters;
+      protected long fileNanos;
+      protected long engineNanos;
+      protected long totalNanos;
+
+      protected void add(FileResult result) {
+         nFiles++;
+         fileNanos += result.nanos;
+         if (result.error != null) {
+            nFailedFiles++;
+            return;
+         }
+         nLines += result.lines.size();
+         for (String line : result.lines)
+            nCharacters += line.length();
+      }
+
+      public int getFileCount() {
+         return nFiles;
+      }
+
+      public int getFailedFileCount() {
+         return nFailedFiles;
+      }
+
+      public long getLineCount() {
+         return nLines;
+      }
+
+      public long getCharacterCount() {
+         return nCharacters;
+      }
+
+      /**
+       * The files read per second, from the start of the batch, including building the engine.
+       */
+      public double getFilesPerSecond() {
+         return totalNanos == 0 ? 0 : nFiles / (totalNanos / 1e9);
+      }
+
+      public void print(PrintStream out) {
+         out.println(toString());
+      }
+
+      @Override
+      public String toString() {
+         return String.format(Locale.ROOT, "%d files (%d failed), %d lines, %d characters in %.3f s "
+                 + "(engine built in %.3f s): %.1f files/s, %.3f ms per file on average",
+                 nFiles, nFailedFiles, nLines, nCharacters, totalNanos / 1e9, engineNanos / 1e9,
+                 getFilesPerSecond(), nFiles == 0 ? 0 : fileNanos / 1e6 / nFiles);
+      }
+   }
+}
@@ -0,0 +1,406 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * All the glyphs of a bitmap font, read at once instead of from one image per character (see
+ * {@code FontGlyph.Bitmap}), from:
+ * <ul>
+ * <li> an atlas: one image with the characters drawn in a grid of cells of the same size, and the
+ * symbol of each cell. The raster of the atlas is read once.
+ * <li> a BDF file (Glyph Bitmap Distribution Format, used by X11). The encodings of the characters
+ * are taken as Unicode code points, which holds for the ISO10646-1 and the ISO8859-1 fonts.
+ * <li> a PSF file (PC Screen Font, version 1 or 2, used by the Linux console). The symbols come
+ * from the Unicode table of the font when it has one, otherwise glyph i is code point i.
+ * </ul>
+ *
+ * <p> Bitmap fonts never leak pixels out of their cells, so the glyphs can be read with a
+ * {@code SearchTreeOCR.Basic} (see {@code createSearchTreeOCR}). In BDF and PSF files, the control
+ * characters are skipped, and so are the glyphs with the same pixels as an earlier glyph (many
+ * fonts draw several code points the same), since they could not be told apart.
+ */
+public class BitmapFontPack {
+
+   protected static final int PSF1_MAGIC = 0x0436;
+   protected static final int PSF2_MAGIC = 0x864ab572;
+   protected static final int PSF2_HEADER_SIZE = 32;
+   /**
+    * The bounds of the fields of a PSF header, far above those of real fonts, such that a corrupt
+    * header cannot allocate more than a few megabytes.
+    */
+   protected static final int MAX_PSF_GLYPHS = 65536;
+   protected static final int MAX_PSF_GLYPH_SIZE = 256;
+   protected static final int MAX_PSF_HEADER_SIZE = 65536;
+   protected static final int MAX_PSF_BITMAP_BYTES = 1 << 24;
+   protected String fontName;
+   protected List<FontGlyph> glyphs;
+
+   protected BitmapFontPack(String fontName, List<FontGlyph> glyphs) {
+      if (glyphs.isEmpty())
+         throw new IllegalArgumentException("Must have some glyphs.");
+      this.fontName = fontName;
+      this.glyphs = glyphs;
+   }
+
+   /**
+    * @param characterMap the symbol of each cell, row by row. The cells of null symbols, and those
+    * past the end of the map, are skipped.
+    */
+   public static BitmapFontPack fromAtlas(String fontName, BufferedImage atlas, Color fontColor,
+           int cellWidth, int cellHeight, List<String> characterMap) {
+      if (cellWidth <= 0 || cellHeight <= 0)
+         throw new IllegalArgumentException("The cells must not be empty.");
+      int nColumns = atlas.getWidth() / cellWidth;
+      int nRows = atlas.getHeight() / cellHeight;
+      int width = nColumns * cellWidth;
+      int height = nRows * cellHeight;
+      if (characterMap.size() > nColumns * nRows)
+         throw new IllegalArgumentException("The character map has " + characterMap.size()
+                 + " symbols, but the atlas only " + nColumns * nRows + " cells.");
+
+      List<List<Point>> pixelsPerCell = new ArrayList<>(characterMap.size());
+      for (int iCell = 0; iCell < characterMap.size(); iCell++)
+         pixelsPerCell.add(new ArrayList<Point>());
+      int[] pixels = atlas.getRGB(0, 0, width, height, null, 0, width);
+      int fontRGB = fontColor.getRGB();
+      for (int iy = 0; iy < height; iy++) {
+         for (int ix = 0; ix < width; ix++) {
+            if (pixels[iy * width + ix] != fontRGB)
+               continue;
+            int iCell = (iy / cellHeight) * nColumns + ix / cellWidth;
+            if (iCell < characterMap.size())
+               pixelsPerCell.get(iCell).add(new Point(ix % cellWidth, iy % cellHeight));
+         }
+      }
+      Dimension cellDimension = new Dimension(cellWidth, cellHeight);
+      List<FontGlyph> glyphs = new ArrayList<>();
+      for (int iCell = 0; iCell < characterMap.size(); iCell++)
+         if (characterMap.get(iCell) != null)
+            glyphs.add(new FontGlyph.Bitmap(characterMap.get(iCell), fontName, cellDimension, pixelsPerCell.get(iCell)));
+      return new BitmapFontPack(fontName, glyphs);
+   }
+
+   /**
+    * Same as above, with one string per row of cells, in which each character is the symbol of a
+    * cell.
+    */
+   public static BitmapFontPack fromAtlas(String fontName, BufferedImage atlas, Color fontColor,
+           int cellWidth, int cellHeight, String... rowsOfSymbols) {
+      int nColumns = atlas.getWidth() / cellWidth;
+      List<String> characterMap = new ArrayList<>();
+      for (String row : rowsOfSymbols) {
+         if (row.codePointCount(0, row.length()) > nColumns)
+            throw new IllegalArgumentException("The row " + row + " has more symbols than the atlas has columns.");
+         int nSymbols = 0;
+         for (int i = 0; i < row.length(); i += Character.charCount(row.codePointAt(i)), nSymbols++)
+            characterMap.add(new String(Character.toChars(row.codePointAt(i))));
+         for (; nSymbols < nColumns; nSymbols++)
+            characterMap.add(null);
+      }
+      return fromAtlas(fontName, atlas, fontColor, cellWidth, cellHeight, characterMap);
+   }
+
+   /**
+    * Reads a BDF font. The glyphs are as tall as the ascent plus the descent of the font and as
+    * wide as their device width; the pixels outside of this box are dropped.
+    */
+   public static BitmapFontPack readBdf(InputStream input) throws IOException {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.US_ASCII));
+      String fontName = null;
+      int[] boundingBox = null;
+      int ascent = -1;
+      int descent = -1;
+      int defaultWidth = -1;
+      List<FontGlyph> glyphs = new ArrayList<>();
+      Set<List<Point>> seenPixels = new HashSet<>();
+      String line;
+      while ((line = reader.readLine()) != null) {
+         String[] words = line.trim().split("\\s+");
+         switch (words[0]) {
+            case "FONT":
+               fontName = line.trim().substring("FONT".length()).trim();
+               break;
+            case "FONTBOUNDINGBOX":
+               boundingBox = parseInts(words, 4);
+               break;
+            case "FONT_ASCENT":
+               ascent = parseInts(words, 1)[0];
+               break;
+            case "FONT_DESCENT":
+               descent = parseInts(words, 1)[0];
+               break;
+            case "DWIDTH":
+               defaultWidth = parseInts(words, 2)[0];  // the default for all the glyphs, before the first one
+               break;
+            case "STARTCHAR":
+               if (boundingBox == null)
+                  throw new IllegalArgumentException("Missing FONTBOUNDINGBOX before the first character.");
+               if (ascent < 0 || descent < 0) {
+                  ascent = boundingBox[1] + boundingBox[3];
+                  descent = -boundingBox[3];
+               }
+               String characterName = words.length > 1 ? words[1] : "";
+               FontGlyph glyph = readBdfCharacter(reader, characterName, fontName, boundingBox, ascent,
+                       ascent + descent, defaultWidth >= 0 ? defaultWidth : boundingBox[0]);
+               if (glyph != null && seenPixels.add(glyph.getActivePixels()))
+                  glyphs.add(glyph);
+               break;
+            default:
+               break;
+         }
+      }
+      return new BitmapFontPack(fontName, glyphs);
+   }
+
+   /**
+    * Reads from after STARTCHAR to ENDCHAR.
+    *
+    * @param characterName the name after STARTCHAR, for the errors.
+    * @return null for the control characters and those without encoding.
+    * @throws IOException if the file ends within the bitmap of the character.
+    */
+   protected static FontGlyph readBdfCharacter(BufferedReader reader, String characterName, String fontName,
+           int[] boundingBox, int ascent, int height, int defaultWidth) throws IOException {
+      int encoding = -1;
+      int width = defaultWidth;
+      int[] box = boundingBox;
+      List<Point> pixels = new ArrayList<>();
+      String line;
+      while ((line = reader.readLine()) != null) {
+         String[] words = line.trim().split("\\s+");
+         switch (words[0]) {
+            case "ENCODING":
+               encoding = parseInts(words, 1)[0];
+               break;
+            case "DWIDTH":
+               width = parseInts(words, 2)[0];
+               break;
+            case "BBX":
+               box = parseInts(words, 4);
+               break;
+            case "BITMAP":
+               // box: width, height, x offset from the origin, y offset of the bottom row from the baseline.
+               int top = ascent - box[1] - box[3];
+               for (int iRow = 0; iRow < box[1]; iRow++) {
+                  String hexRow = reader.readLine();
+                  if (hexRow == null)
+                     throw new IOException("The BDF file ends within the bitmap of the character " + characterName + ".");
+                  hexRow = hexRow.trim();
+                  for (int iColumn = 0; iColumn < box[0] && iColumn / 4 < hexRow.length(); iColumn++) {
+                     int nibble = Character.digit(hexRow.charAt(iColumn / 4), 16);
+                     if ((nibble & (8 >> (iColumn % 4))) == 0)
+                        continue;
+                     int x = box[2] + iColumn;
+                     int y = top + iRow;
+                     if (x >= 0 && x < width && y >= 0 && y < height)
+                        pixels.add(new Point(x, y));
+                  }
+               }
+               break;
+            case "ENDCHAR":
+               if (encoding < 0 || !isPrintable(encoding))
+                  return null;
+               return new FontGlyph.Bitmap(new String(Character.toChars(encoding)), fontName,
+                       new Dimension(width, height), pixels);
+            default:
+               break;
+         }
+      }
+      throw new IllegalArgumentException("Missing ENDCHAR.");
+   }
+
+   protected static int[] parseInts(String[] words, int count) {
+      if (words.length < count + 1)
+         throw new IllegalArgumentException("Expecting " + count + " numbers after " + words[0] + ".");
+      int[] values = new int[count];
+      for (int i = 0; i < count; i++)
+         values[i] = Integer.parseInt(words[i + 1]);
+      return values;
+   }
+
+   /**
+    * Reads a PSF font, version 1 or 2.
+    *
+    * @throws IOException if the file is truncated or its header is invalid.
+    */
+   public static BitmapFontPack readPsf(InputStream input, String fontName) throws IOException {
+      DataInputStream dataInput = new DataInputStream(input);
+      int nGlyphs;
+      int width;
+      int height;
+      boolean hasUnicodeTable;
+      boolean isVersion1;
+      int firstBytes = readLittleEndianShort(dataInput);
+      if (firstBytes == PSF1_MAGIC) {
+         isVersion1 = true;
+         int mode = dataInput.readUnsignedByte();
+         height = dataInput.readUnsignedByte();
+         width = 8;
+         nGlyphs = (mode & 0x01) != 0 ? 512 : 256;
+         hasUnicodeTable = (mode & 0x06) != 0;
+         checkPsfSize(nGlyphs, width, height);
+      } else if ((readLittleEndianShort(dataInput) << 16 | firstBytes) == PSF2_MAGIC) {
+         isVersion1 = false;
+         readLittleEndianInt(dataInput);  // version
+         int headerSize = readLittleEndianInt(dataInput);
+         int flags = readLittleEndianInt(dataInput);
+         nGlyphs = readLittleEndianInt(dataInput);
+         int bytesPerGlyph = readLittleEndianInt(dataInput);
+         height = readLittleEndianInt(dataInput);
+         width = readLittleEndianInt(dataInput);
+         if (headerSize < PSF2_HEADER_SIZE || headerSize > MAX_PSF_HEADER_SIZE)
+            throw new IOException("Invalid PSF header size " + headerSize + ".");
+         checkPsfSize(nGlyphs, width, height);
+         if (bytesPerGlyph != height * ((width + 7) / 8))
+            throw new IOException("Invalid PSF glyph size " + bytesPerGlyph + " bytes for " + width + "x"
+                    + height + " pixels.");
+         if (dataInput.skipBytes(headerSize - PSF2_HEADER_SIZE) != headerSize - PSF2_HEADER_SIZE)
+            throw new EOFException("The PSF file ends within its header.");
+         hasUnicodeTable = (flags & 0x01) != 0;
+      } else
+         throw new IllegalArgumentException("Not a PSF font.");
+
+      int bytesPerRow = (width + 7) / 8;
+      long nBitmapBytes = (long) nGlyphs * height * bytesPerRow;
+      if (nBitmapBytes > MAX_PSF_BITMAP_BYTES)
+         throw new IOException("The PSF bitmaps take " + nBitmapBytes + " bytes, more than "
+                 + MAX_PSF_BITMAP_BYTES + ".");
+      byte[] bitmaps = new byte[(int) nBitmapBytes];
+      dataInput.readFully(bitmaps);
+      List<List<String>> symbolsPerGlyph = hasUnicodeTable
+              ? readPsfUnicodeTable(dataInput, nGlyphs, isVersion1) : null;
+
+      Dimension dimension = new Dimension(width, height);
+      List<FontGlyph> glyphs = new ArrayList<>();
+      Set<List<Point>> seenPixels = new HashSet<>();
+      for (int iGlyph = 0; iGlyph < nGlyphs; iGlyph++) {
+         List<String> symbols = symbolsPerGlyph != null ? symbolsPerGlyph.get(iGlyph)
+                 : Collections.singletonList(new String(Character.toChars(iGlyph)));
+         if (symbols.isEmpty() || !isPrintable(symbols.get(0).codePointAt(0)))
+            continue;
+         List<Point> pixels = new ArrayList<>();
+         int start = iGlyph * height * bytesPerRow;
+         for (int iy = 0; iy < height; iy++)
+            for (int ix = 0; ix < width; ix++)
+               if ((bitmaps[start + iy * bytesPerRow + ix / 8] & (0x80 >> (ix % 8))) != 0)
+                  pixels.add(new Point(ix, iy));
+         FontGlyph glyph = new FontGlyph.Bitmap(symbols.get(0), fontName, dimension, pixels);
+         if (seenPixels.add(glyph.getActivePixels()))
+            glyphs.add(glyph);
+      }
+      return new BitmapFontPack(fontName, glyphs);
+   }
+
+   /**
+    * @throws IOException if a field of the header is not positive or too large.
+    */
+   protected static void checkPsfSize(int nGlyphs, int width, int height) throws IOException {
+      if (nGlyphs <= 0 || nGlyphs > MAX_PSF_GLYPHS)
+         throw new IOException("Invalid number of PSF glyphs " + nGlyphs + ".");
+      if (width <= 0 || width > MAX_PSF_GLYPH_SIZE || height <= 0 || height > MAX_PSF_GLYPH_SIZE)
+         throw new IOException("Invalid PSF glyph size " + width + "x" + height + ".");
+   }
+
+   /**
+    * @return for each glyph, the symbols it draws, the first one being the main one. The sequences
+    * of several code points are skipped.
+    */
+   protected static List<List<String>> readPsfUnicodeTable(DataInputStream dataInput, int nGlyphs,
+           boolean isVersion1) throws IOException {
+      List<List<String>> symbolsPerGlyph = new ArrayList<>(nGlyphs);
+      for (int iGlyph = 0; iGlyph < nGlyphs; iGlyph++) {
+         List<String> symbols = new ArrayList<>();
+         if (isVersion1) {
+            // Code points as 16 bits little-endian; 0xFFFE starts the sequences, 0xFFFF ends the glyph.
+            boolean inSequences = false;
+            for (int codePoint = readLittleEndianShort(dataInput); codePoint != 0xFFFF; codePoint = readLittleEndianShort(dataInput)) {
+               if (codePoint == 0xFFFE)
+                  inSequences = true;
+               else if (!inSequences)
+                  symbols.add(new String(Character.toChars(codePoint)));
+            }
+         } else {
+            // Code points in UTF-8; 0xFE starts the sequences, 0xFF ends the glyph.
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            boolean inSequences = false;
+            for (int b = dataInput.readUnsignedByte(); b != 0xFF; b = dataInput.readUnsignedByte()) {
+               if (b == 0xFE)
+                  inSequences = true;
+               else if (!inSequences)
+                  bytes.write(b);
+            }
+            String string = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+            for (int i = 0; i < string.length(); i += Character.charCount(string.codePointAt(i)))
+               symbols.add(new String(Character.toChars(string.codePointAt(i))));
+         }
+         symbolsPerGlyph.add(symbols);
+      }
+      return symbolsPerGlyph;
+   }
+
+   protected static boolean isPrintable(int codePoint) {
+      return Character.isValidCodePoint(codePoint) && !Character.isISOControl(codePoint);
+   }
+
+   protected static int readLittleEndianShort(DataInputStream dataInput) throws IOException {
+      int low = dataInput.readUnsignedByte();
+      return dataInput.readUnsignedByte() << 8 | low;
+   }
+
+   protected static int readLittleEndianInt(DataInputStream dataInput) throws IOException {
+      int low = readLittleEndianShort(dataInput);
+      return readLittleEndianShort(dataInput) << 16 | low;
+   }
+
+   /**
+    * @return a pack with only the glyphs of {@code alphabet}.
+    */
+   public BitmapFontPack retainSymbols(Collection<String> alphabet) {
+      Set<String> symbols = new HashSet<>(alphabet);
+      List<FontGlyph> retainedGlyphs = new ArrayList<>();
+      for (FontGlyph glyph : glyphs)
+         if (symbols.contains(glyph.getGeneratingString()))
+            retainedGlyphs.add(glyph);
+      return new BitmapFontPack(fontName, retainedGlyphs);
+   }
+
+   /**
+    * A SearchTreeOCR.Basic reading the glyphs of the pack, which requires them all to have the same
+    * height.
+    */
+   public SearchTreeOCR createSearchTreeOCR() {
+      return new SearchTreeOCR.Basic(glyphs);
+   }
+
+   /**
+    * Can be null for the BDF files without FONT line.
+    */
+   public String getFontName() {
+      return fontName;
+   }
+
+   /**
+    * @return an unmodifiable list of the {@code FontGlyph.Bitmap}s.
+    */
+   public List<FontGlyph> getGlyphs() {
+      return Collections.unmodifiableList(glyphs);
+   }
+}
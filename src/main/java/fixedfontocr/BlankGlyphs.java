@@ -0,0 +1,74 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.FontGlyphWithLeakedPixels;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The glyphs of an alphabet without any active pixel (the space and, for example, its
+ * FontGlyphShiftedLeft), used to match runs of blank columns without going through a SearchNode.
+ *
+ * <p> If a run of blank columns is longer than the leading blank columns of every other glyph of
+ * the alphabet, none of those glyphs can match at the start of the run. The longest match is then
+ * the widest blank glyph fitting in the run, which is exactly what {@code SearchNode.findLongestMatch}
+ * would have returned.
+ *
+ * <p> Blank FontGlyphWithLeakedPixels are never matched this way since they come with conditions on
+ * their neighbors; an alphabet containing one never uses the fast path.
+ */
+public class BlankGlyphs {
+
+   protected List<FontGlyph> blankGlyphs;
+   protected int maxLeadingBlankColumns;
+   protected boolean isUsable;
+
+   public BlankGlyphs(Collection<FontGlyph> glyphs) {
+      blankGlyphs = new ArrayList<>();
+      isUsable = true;
+      for (FontGlyph glyph : glyphs) {
+         if (glyph.getActivePixels().isEmpty()) {
+            if (glyph instanceof FontGlyphWithLeakedPixels)
+               isUsable = false;
+            else if (glyph.getDimension().width > 0)
+               blankGlyphs.add(glyph);
+         } else {
+            // The pixels are ordered in x, so the first one is in the first non-blank column.
+            maxLeadingBlankColumns = Math.max(maxLeadingBlankColumns, glyph.getActivePixels().get(0).x);
+         }
+      }
+      Collections.sort(blankGlyphs, new Comparator<FontGlyph>() {
+
+         @Override
+         public int compare(FontGlyph o1, FontGlyph o2) {
+            return o2.getDimension().width - o1.getDimension().width;
+         }
+      });
+   }
+
+   /**
+    * @return null if there is no blank glyph at {@code x}, or if the blank run is too short to be
+    * sure that no other glyph would match there.
+    */
+   public FontGlyph findLongestMatch(LineBand band, int x) {
+      if (!isUsable || blankGlyphs.isEmpty())
+         return null;
+      int blankRunLength = band.getBlankRunLength(x);
+      if (blankRunLength <= maxLeadingBlankColumns)
+         return null;
+      for (FontGlyph glyph : blankGlyphs)
+         if (glyph.getDimension().width <= blankRunLength)
+            return glyph;
+      return null;
+   }
+
+   /**
+    * @return an unmodifiable list of the blank glyphs, from the widest to the narrowest.
+    */
+   public List<FontGlyph> getBlankGlyphs() {
+      return Collections.unmodifiableList(blankGlyphs);
+   }
+}
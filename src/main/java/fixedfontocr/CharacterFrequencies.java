@@ -0,0 +1,62 @@
+package fixedfontocr;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The relative frequencies of the symbols expected in the images, used by SearchTreeBuilder to
+ * make the most common symbols the fastest to find. The frequencies do not need to be normalized.
+ * A symbol without a frequency gets {@code defaultFrequency}.
+ */
+public class CharacterFrequencies {
+
+   protected Map<String, Double> frequencies;
+   protected double defaultFrequency;
+
+   public CharacterFrequencies(Map<String, Double> frequencies, double defaultFrequency) {
+      if (defaultFrequency < 0)
+         throw new IllegalArgumentException("Frequencies cannot be negative.");
+      for (double frequency : frequencies.values())
+         if (frequency < 0)
+            throw new IllegalArgumentException("Frequencies cannot be negative.");
+      this.frequencies = new HashMap<>(frequencies);
+      this.defaultFrequency = defaultFrequency;
+   }
+
+   /**
+    * Counts the symbols of the alphabet in a sample text. Each symbol of the alphabet is counted
+    * once more so that none has a zero frequency. Multi-character symbols are not counted.
+    */
+   public static CharacterFrequencies fromSampleText(String sampleText, Collection<String> alphabet) {
+      Map<String, Double> counts = new HashMap<>();
+      for (String symbol : alphabet)
+         counts.put(symbol, 1.0);
+      int offset = 0;
+      while (offset < sampleText.length()) {
+         int codePoint = sampleText.codePointAt(offset);
+         String symbol = new String(Character.toChars(codePoint));
+         if (counts.containsKey(symbol))
+            counts.put(symbol, counts.get(symbol) + 1);
+         offset += Character.charCount(codePoint);
+      }
+      return new CharacterFrequencies(counts, 1);
+   }
+
+   public double getFrequency(String symbol) {
+      Double frequency = frequencies.get(symbol);
+      return frequency == null ? defaultFrequency : frequency;
+   }
+
+   /**
+    * @return an unmodifiable view of the frequencies, without the default frequency.
+    */
+   public Map<String, Double> getFrequencies() {
+      return Collections.unmodifiableMap(frequencies);
+   }
+
+   public double getDefaultFrequency() {
+      return defaultFrequency;
+   }
+}
@@ -0,0 +1,77 @@
+package fixedfontocr;
+
+/**
+ * Builds the column masks (see {@code Glyph.getColumnMasks}) of a block of pixels read from an
+ * image, which is the inner loop of reading a LineBand.
+ *
+ * <p> The default extractor uses the Vector API ({@code jdk.incubator.vector}) when it can: the
+ * jar is a multi-release jar whose Java 17 part has a VectorColumnMaskExtractor, which compares
+ * many pixels of a row to the font color at once. It is only used if the JVM runs Java 17 or later
+ * with {@code --add-modules jdk.incubator.vector}, and if the system property
+ * {@code fixedfontocr.vector} is not "false". Otherwise, the Scalar extractor is used.
+ */
+public abstract class ColumnMaskExtractor {
+
+   public static final String VECTOR_CLASS_NAME = "fixedfontocr.VectorColumnMaskExtractor";
+   protected static volatile ColumnMaskExtractor defaultExtractor;
+
+   /**
+    * Sets, in {@code columnMasks[ix]}, bit {@code iy} for each pixel of row {@code iy} and column
+    * {@code ix} which has the color {@code fontRGB}. The bits of the other pixels are left as they
+    * are.
+    *
+    * @param pixels {@code height} rows of {@code width} pixels, as returned by
+    * {@code BufferedImage.getRGB}.
+    */
+   public abstract void extract(int[] pixels, int width, int height, int fontRGB, long[] columnMasks);
+
+   /**
+    * Found on first use.
+    */
+   public static ColumnMaskExtractor getDefault() {
+      ColumnMaskExtractor extractor = defaultExtractor;
+      if (extractor == null) {
+         extractor = createVectorExtractor();
+         if (extractor == null)
+            extractor = new Scalar();
+         defaultExtractor = extractor;
+      }
+      return extractor;
+   }
+
+   /**
+    * @return null if the Vector API cannot be used.
+    */
+   protected static ColumnMaskExtractor createVectorExtractor() {
+      if ("false".equals(System.getProperty("fixedfontocr.vector")))
+         return null;
+      try {
+         return (ColumnMaskExtractor) Class.forName(VECTOR_CLASS_NAME).getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException | LinkageError e) {
+         // Java 8 to 16, or the incubator module is not added.
+         return null;
+      }
+   }
+
+   /**
+    * @return true if the default extractor uses the Vector API.
+    */
+   public static boolean isVectorized() {
+      return !(getDefault() instanceof Scalar);
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   public static class Scalar extends ColumnMaskExtractor {
+
+      @Override
+      public void extract(int[] pixels, int width, int height, int fontRGB, long[] columnMasks) {
+         for (int iy = 0; iy < height; iy++) {
+            long bit = 1L << iy;
+            int rowStart = iy * width;
+            for (int ix = 0; ix < width; ix++)
+               if (pixels[rowStart + ix] == fontRGB)
+                  columnMasks[ix] |= bit;
+         }
+      }
+   }
+}
@@ -0,0 +1,417 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import java.awt.Color;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only copy of a SearchNode tree stored in a few flat primitive arrays instead of a graph
+ * of objects. The nodes are numbered in breadth-first order, the head node being node 0.
+ *
+ * <p> The edges leaving a node are stored contiguously and their keys (the sub-glyphs of the
+ * SearchNode maps) are stored as column masks (see {@code Glyph.getColumnMasks}), sorted in
+ * lexicographic order. The shorter glyphs node of a SearchNode (if any) is stored as one more
+ * child index. Walking the tree reads the image, or a LineBand, one column at a time and narrows
+ * down the range of candidate edges with a binary search on that column, so a lookup does not
+ * allocate any object. The exact matches are stored as indices into the list of glyphs given at
+ * compilation.
+ *
+ * <p> Within a level of the tree, the children of a node are numbered by decreasing weight of
+ * their subtree (see {@code SearchTreeBuilder.subtreeWeight}), so that the nodes leading to the
+ * most frequent glyphs are close together in the arrays.
+ *
+ * <p> The arrays can be written to a ByteBuffer (or a stream) and read back as is, for example to
+ * save the tree of a large alphabet to disk. The glyphs themselves are not saved: the same list of
+ * glyphs must be given when reading the tree back.
+ */
+public class CompiledSearchTree {
+
+   protected static final int MAGIC_NUMBER = 0x46464f43; // "FFOC"
+   protected static final int FORMAT_VERSION = 2;
+   protected static final int NO_GLYPH = -1;
+   protected static final int NO_NODE = -1;
+   protected List<FontGlyph> glyphs;
+   protected int lineHeight;
+   protected int[] nodeExactMatch;
+   protected int[] nodeProbeWidth;
+   protected int[] nodeFirstEdge;
+   protected int[] nodeEdgeCount;
+   protected int[] nodeShorterGlyphs;
+   protected int[] edgeChild;
+   protected int[] edgeFirstKeyColumn;
+   protected long[] keyColumns;
+
+   protected CompiledSearchTree() {
+   }
+
+   /**
+    * @param glyphs every exact match of the tree must be one of these glyphs (compared by
+    * identity). Their order defines the glyph indices stored in the tree.
+    */
+   public static CompiledSearchTree compile(SearchNode headNode, List<FontGlyph> glyphs) {
+      return compile(headNode, glyphs, new SearchTreeBuilder());
+   }
+
+   /**
+    * @param builder gives the weights of the glyphs used to order the nodes.
+    */
+   public static CompiledSearchTree compile(SearchNode headNode, List<FontGlyph> glyphs, SearchTreeBuilder builder) {
+      if (headNode.getLineHeight() > Glyph.MAX_COLUMN_MASK_HEIGHT)
+         throw new IllegalArgumentException("Cannot compile a tree for glyphs taller than "
+                 + Glyph.MAX_COLUMN_MASK_HEIGHT + " pixels.");
+      Map<FontGlyph, Integer> glyphIndices = new IdentityHashMap<>();
+      for (int i = 0; i < glyphs.size(); i++)
+         glyphIndices.put(glyphs.get(i), i);
+
+      // Breadth-first numbering of the nodes. The edges are sorted by key, but the children are
+      // numbered by decreasing weight. A node shared by several parents is numbered once.
+      List<SearchNode> nodes = new ArrayList<>();
+      Map<SearchNode, Integer> nodeIndices = new IdentityHashMap<>();
+      nodeIndices.put(headNode, 0);
+      List<List<Edge>> edgesPerNode = new ArrayList<>();
+      Map<Integer, Integer> shorterGlyphsIndices = new HashMap<>();
+      // Each node is weighed once, instead of once per node above it.
+      Map<SearchNode, Double> subtreeWeights = new IdentityHashMap<>();
+      nodes.add(headNode);
+      int nEdges = 0;
+      int nKeyColumns = 0;
+      for (int iNode = 0; iNode < nodes.size(); iNode++) {
+         List<Edge> edges = new ArrayList<>();
+         for (Map.Entry<Glyph, SearchNode> entry : nodes.get(iNode).getSubNodes().entrySet())
+            edges.add(new Edge(entry.getKey().getColumnMasks(), entry.getValue()));
+         for (Edge edge : edges)
+            edge.weight = builder.subtreeWeight(edge.child, subtreeWeights);
+         Collections.sort(edges, Edge.BY_DECREASING_WEIGHT);
+         for (Edge edge : edges) {
+            edge.childIndex = addNode(edge.child, nodes, nodeIndices);
+            nKeyColumns += edge.key.length;
+         }
+         Collections.sort(edges);
+         edgesPerNode.add(edges);
+         SearchNode shorterGlyphsNode = nodes.get(iNode).getShorterGlyphsNode();
+         if (shorterGlyphsNode != null)
+            shorterGlyphsIndices.put(iNode, addNode(shorterGlyphsNode, nodes, nodeIndices));
+         nEdges += edges.size();
+      }
+
+      CompiledSearchTree tree = new CompiledSearchTree();
+      tree.glyphs = glyphs;
+      tree.lineHeight = headNode.getLineHeight();
+      tree.allocate(nodes.size(), nEdges, nKeyColumns);
+      int iEdge = 0;
+      int iKeyColumn = 0;
+      for (int iNode = 0; iNode < nodes.size(); iNode++) {
+         SearchNode node = nodes.get(iNode);
+         FontGlyph exactMatch = node.getExactMatch();
+         if (exactMatch == null) {
+            tree.nodeExactMatch[iNode] = NO_GLYPH;
+         } else {
+            Integer glyphIndex = glyphIndices.get(exactMatch);
+            if (glyphIndex == null)
+               throw new IllegalArgumentException("The glyph for " + exactMatch.getGeneratingString()
+                       + " is not in the list of glyphs.");
+            tree.nodeExactMatch[iNode] = glyphIndex;
+         }
+         tree.nodeProbeWidth[iNode] = node.getSearchGlyphWidth();
+         tree.nodeFirstEdge[iNode] = iEdge;
+         tree.nodeEdgeCount[iNode] = edgesPerNode.get(iNode).size();
+         Integer shorterGlyphsIndex = shorterGlyphsIndices.get(iNode);
+         tree.nodeShorterGlyphs[iNode] = shorterGlyphsIndex == null ? NO_NODE : shorterGlyphsIndex;
+         for (Edge edge : edgesPerNode.get(iNode)) {
+            tree.edgeChild[iEdge] = edge.childIndex;
+            tree.edgeFirstKeyColumn[iEdge] = iKeyColumn;
+            System.arraycopy(edge.key, 0, tree.keyColumns, iKeyColumn, edge.key.length);
+            iKeyColumn += edge.key.length;
+            iEdge++;
+         }
+      }
+      return tree;
+   }
+
+   /**
+    * @return the index of the {@code node}, which is only added if not already there.
+    */
+   protected static int addNode(SearchNode node, List<SearchNode> nodes, Map<SearchNode, Integer> nodeIndices) {
+      Integer index = nodeIndices.get(node);
+      if (index == null) {
+         index = nodes.size();
+         nodes.add(node);
+         nodeIndices.put(node, index);
+      }
+      return index;
+   }
+
+   protected void allocate(int nNodes, int nEdges, int nKeyColumns) {
+      nodeExactMatch = new int[nNodes];
+      nodeProbeWidth = new int[nNodes];
+      nodeFirstEdge = new int[nNodes];
+      nodeEdgeCount = new int[nNodes];
+      nodeShorterGlyphs = new int[nNodes];
+      edgeChild = new int[nEdges];
+      edgeFirstKeyColumn = new int[nEdges];
+      keyColumns = new long[nKeyColumns];
+   }
+
+   /**
+    * Same as {@code SearchNode.findLongestMatch}.
+    *
+    * @return null if found no matching glyph.
+    */
+   public FontGlyph findLongestMatch(BufferedImage image, Color fontColor, Point topLeft) {
+      int glyphIndex = findLongestMatchIndex(image, fontColor.getRGB(), topLeft.x, topLeft.y);
+      return glyphIndex == NO_GLYPH ? null : glyphs.get(glyphIndex);
+   }
+
+   /**
+    * @return the index of the longest matching glyph, or -1 if none matches.
+    */
+   public int findLongestMatchIndex(BufferedImage image, int fontRGB, int x, int y) {
+      return findLongestMatchIndex(0, image, fontRGB, x, y);
+   }
+
+   /**
+    * Same order of precedence as in SearchNode: sub-node, then shorter glyphs node, then exact match.
+    */
+   protected int findLongestMatchIndex(int node, BufferedImage image, int fontRGB, int x, int y) {
+      int longestMatch = NO_GLYPH;
+      int probeWidth = nodeProbeWidth[node];
+      int lo = nodeFirstEdge[node];
+      int hi = lo + nodeEdgeCount[node];
+      if (lo < hi && image.getWidth() >= x + probeWidth) { // else running out of image to find longer matches.
+         for (int column = 0; column < probeWidth && lo < hi; column++) {
+            long mask = Glyph.columnMask(image, fontRGB, x + column, y, lineHeight);
+            int end = hi;
+            lo = firstEdgeNotBelow(lo, end, column, mask);
+            hi = lo;
+            while (hi < end && keyColumns[edgeFirstKeyColumn[hi] + column] == mask)
+               hi++;
+         }
+         if (lo < hi)
+            longestMatch = findLongestMatchIndex(edgeChild[lo], image, fontRGB, x + probeWidth, y);
+      }
+      if (longestMatch == NO_GLYPH && nodeShorterGlyphs[node] != NO_NODE)
+         longestMatch = findLongestMatchIndex(nodeShorterGlyphs[node], image, fontRGB, x, y);
+      if (longestMatch == NO_GLYPH)
+         longestMatch = nodeExactMatch[node];
+      return longestMatch;
+   }
+
+   /**
+    * Same as above, with the column masks of a LineBand, which must have the height of the glyphs.
+    * The masks are computed once for the band and shared by all the lookups on the line.
+    *
+    * @return the index of the longest matching glyph, or -1 if none matches.
+    */
+   public int findLongestMatchIndex(LineBand band, int x) {
+      if (band.getHeight() != lineHeight)
+         throw new IllegalArgumentException("The band must have the height of the glyphs.");
+      return findLongestMatchIndex(0, band, x);
+   }
+
+   /**
+    * The same walk as above, reading the masks of the band instead of the image. The two walks are
+    * kept apart such that neither allocates an object to read its columns.
+    */
+   protected int findLongestMatchIndex(int node, LineBand band, int x) {
+      int longestMatch = NO_GLYPH;
+      int probeWidth = nodeProbeWidth[node];
+      int lo = nodeFirstEdge[node];
+      int hi = lo + nodeEdgeCount[node];
+      if (lo < hi && band.getRight() >= x + probeWidth) { // else running out of the band to find longer matches.
+         for (int column = 0; column < probeWidth && lo < hi; column++) {
+            long mask = band.getColumnMask(x + column);
+            int end = hi;
+            lo = firstEdgeNotBelow(lo, end, column, mask);
+            hi = lo;
+            while (hi < end && keyColumns[edgeFirstKeyColumn[hi] + column] == mask)
+               hi++;
+         }
+         if (lo < hi)
+            longestMatch = findLongestMatchIndex(edgeChild[lo], band, x + probeWidth);
+      }
+      if (longestMatch == NO_GLYPH && nodeShorterGlyphs[node] != NO_NODE)
+         longestMatch = findLongestMatchIndex(nodeShorterGlyphs[node], band, x);
+      if (longestMatch == NO_GLYPH)
+         longestMatch = nodeExactMatch[node];
+      return longestMatch;
+   }
+
+   /**
+    * Binary search among edges [lo, hi), which all share their first {@code column} columns, for
+    * the first one whose key at {@code column} is not below {@code mask}.
+    */
+   protected int firstEdgeNotBelow(int lo, int hi, int column, long mask) {
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (keyColumns[edgeFirstKeyColumn[mid] + column] < mask)
+            lo = mid + 1;
+         else
+            hi = mid;
+      }
+      return lo;
+   }
+
+   public int getNodeCount() {
+      return nodeExactMatch.length;
+   }
+
+   public int getLineHeight() {
+      return lineHeight;
+   }
+
+   /**
+    * @return an unmodifiable list of the glyphs, in the order of their indices.
+    */
+   public List<FontGlyph> getGlyphs() {
+      return Collections.unmodifiableList(glyphs);
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * The layout is a header (magic number, version, line height, number of glyphs, of nodes, of
+    * edges and of key columns), a checksum of the glyph widths and then the arrays one after the
+    * other. The buffer is positioned at its start.
+    */
+   public ByteBuffer toByteBuffer() {
+      int nNodes = getNodeCount();
+      int nEdges = edgeChild.length;
+      int size = 8 * Integer.BYTES + Integer.BYTES * (5 * nNodes + 2 * nEdges)
+              + Long.BYTES * keyColumns.length;
+      ByteBuffer buffer = ByteBuffer.allocate(size);
+      buffer.putInt(MAGIC_NUMBER).putInt(FORMAT_VERSION).putInt(lineHeight).putInt(glyphs.size())
+              .putInt(nNodes).putInt(nEdges).putInt(keyColumns.length).putInt(glyphsChecksum(glyphs));
+      buffer.asIntBuffer().put(nodeExactMatch).put(nodeProbeWidth).put(nodeFirstEdge)
+              .put(nodeEdgeCount).put(nodeShorterGlyphs).put(edgeChild).put(edgeFirstKeyColumn);
+      buffer.position(buffer.position() + Integer.BYTES * (5 * nNodes + 2 * nEdges));
+      buffer.asLongBuffer().put(keyColumns);
+      buffer.rewind();
+      return buffer;
+   }
+
+   /**
+    * Reads a tree written by {@code toByteBuffer}, starting at the current position of the buffer
+    * (which can be a MappedByteBuffer).
+    *
+    * @param glyphs the same glyphs, in the same order, as those given to {@code compile}.
+    * @throws IOException if the counts of the header do not fit in the rest of the buffer.
+    */
+   public static CompiledSearchTree fromByteBuffer(ByteBuffer buffer, List<FontGlyph> glyphs) throws IOException {
+      if (buffer.getInt() != MAGIC_NUMBER)
+         throw new IllegalArgumentException("Not a compiled search tree.");
+      int version = buffer.getInt();
+      if (version != FORMAT_VERSION)
+         throw new IllegalArgumentException("Unsupported compiled search tree version " + version + ".");
+      CompiledSearchTree tree = new CompiledSearchTree();
+      tree.glyphs = glyphs;
+      tree.lineHeight = buffer.getInt();
+      int nGlyphs = buffer.getInt();
+      int nNodes = buffer.getInt();
+      int nEdges = buffer.getInt();
+      int nKeyColumns = buffer.getInt();
+      if (nGlyphs != glyphs.size() || buffer.getInt() != glyphsChecksum(glyphs))
+         throw new IllegalArgumentException("The glyphs do not match those used to compile the tree.");
+      if (getContentSize(nNodes, nEdges, nKeyColumns) > buffer.remaining())
+         throw new IOException("The compiled search tree is truncated.");
+      tree.allocate(nNodes, nEdges, nKeyColumns);
+      buffer.asIntBuffer().get(tree.nodeExactMatch).get(tree.nodeProbeWidth).get(tree.nodeFirstEdge)
+              .get(tree.nodeEdgeCount).get(tree.nodeShorterGlyphs).get(tree.edgeChild).get(tree.edgeFirstKeyColumn);
+      buffer.position(buffer.position() + Integer.BYTES * (5 * nNodes + 2 * nEdges));
+      buffer.asLongBuffer().get(tree.keyColumns);
+      buffer.position(buffer.position() + Long.BYTES * nKeyColumns);
+      return tree;
+   }
+
+   public void writeTo(OutputStream output) throws IOException {
+      output.write(toByteBuffer().array());
+   }
+
+   public static CompiledSearchTree readFrom(InputStream input, List<FontGlyph> glyphs) throws IOException {
+      DataInputStream dataInput = new DataInputStream(input);
+      byte[] header = new byte[8 * Integer.BYTES];
+      dataInput.readFully(header);
+      ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+      int nNodes = headerBuffer.getInt(4 * Integer.BYTES);
+      int nEdges = headerBuffer.getInt(5 * Integer.BYTES);
+      int nKeyColumns = headerBuffer.getInt(6 * Integer.BYTES);
+      long contentSize = getContentSize(nNodes, nEdges, nKeyColumns);
+      if (contentSize > Integer.MAX_VALUE - header.length)
+         throw new IOException("The compiled search tree is too large.");
+      // Read in chunks, such that a header with wrong counts does not allocate more than the input.
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      content.write(header);
+      byte[] chunk = new byte[8192];
+      for (long remaining = contentSize; remaining > 0;) {
+         int nRead = dataInput.read(chunk, 0, (int) Math.min(chunk.length, remaining));
+         if (nRead < 0)
+            throw new EOFException("The compiled search tree is truncated.");
+         content.write(chunk, 0, nRead);
+         remaining -= nRead;
+      }
+      return fromByteBuffer(ByteBuffer.wrap(content.toByteArray()), glyphs);
+   }
+
+   /**
+    * @return the number of bytes of the arrays, after the header.
+    * @throws IOException if a count is negative.
+    */
+   protected static long getContentSize(int nNodes, int nEdges, int nKeyColumns) throws IOException {
+      if (nNodes < 0 || nEdges < 0 || nKeyColumns < 0)
+         throw new IOException("Invalid counts in the header of the compiled search tree.");
+      return Integer.BYTES * (5L * nNodes + 2L * nEdges) + (long) Long.BYTES * nKeyColumns;
+   }
+
+   /**
+    * Guards against reading a tree with a different list of glyphs: only the widths and hash codes
+    * (i.e. the pixels) of the glyphs are compared.
+    */
+   protected static int glyphsChecksum(List<FontGlyph> glyphs) {
+      int checksum = 17;
+      for (FontGlyph glyph : glyphs)
+         checksum = 31 * (31 * checksum + glyph.getDimension().width) + glyph.hashCode();
+      return checksum;
+   }
+
+   protected static class Edge implements Comparable<Edge> {
+
+      protected long[] key;
+      protected SearchNode child;
+      protected int childIndex;
+      protected double weight;
+      protected static final Comparator<Edge> BY_DECREASING_WEIGHT = new Comparator<Edge>() {
+
+         @Override
+         public int compare(Edge o1, Edge o2) {
+            return Double.compare(o2.weight, o1.weight);
+         }
+      };
+
+      protected Edge(long[] key, SearchNode child) {
+         this.key = key;
+         this.child = child;
+      }
+
+      @Override
+      public int compareTo(Edge other) {
+         for (int i = 0; i < Math.min(key.length, other.key.length); i++)
+            if (key[i] != other.key[i])
+               return Long.compare(key[i], other.key[i]);
+         return key.length - other.key.length;
+      }
+   }
+}
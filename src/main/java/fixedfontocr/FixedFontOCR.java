@@ -47,7 +47,7 @@ public class FixedFontOCR {
    /**
     * Cannot recognize the equivalent of (Font.BOLD|Font.ITALIC).
     */
-   protected int convertFontStyle(String fontStyle) {
+   protected static int convertFontStyle(String fontStyle) {
       switch (fontStyle.toLowerCase()) {
          case "bold":
             return Font.BOLD;
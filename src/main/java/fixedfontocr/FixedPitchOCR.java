@@ -0,0 +1,138 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * For fixed-pitch (monospaced) fonts only: all the glyphs have the same width, so a line is a
+ * sequence of cells of that width which can be recognized independently from each other, with a
+ * single hash lookup of the column masks of the cell. There is no search tree to walk and the cost
+ * per character is constant.
+ *
+ * <p> The leaked pixels are handled as in SearchTreeOCRWithLeakedPixels: the glyphs with pixels
+ * leaked from their neighbors are also put in the table, but the conditions on the neighbors are
+ * not checked. When a plain glyph and a glyph with leaked pixels have the same pixels, the plain
+ * glyph is returned.
+ */
+public class FixedPitchOCR extends SearchTreeOCR {
+
+   protected int cellWidth;
+   protected Map<CellSignature, FontGlyph> cellTable;
+
+   public FixedPitchOCR(List<String> alphabet, Font font) {
+      this(alphabet, font, true);
+   }
+
+   /**
+    * @param withLeakedPixels if false, only the plain glyphs are recognized, which is enough for
+    * fonts which never leak pixels out of their bounding box.
+    */
+   public FixedPitchOCR(List<String> alphabet, Font font, boolean withLeakedPixels) {
+      super(alphabet, font);
+      if (!isFixedPitch(fontGlyphs))
+         throw new IllegalArgumentException("The font " + font.getName() + " is not fixed-pitch for this alphabet.");
+      if (glyphHeight > Glyph.MAX_COLUMN_MASK_HEIGHT)
+         throw new IllegalArgumentException("Glyphs taller than " + Glyph.MAX_COLUMN_MASK_HEIGHT
+                 + " pixels are not supported.");
+      cellWidth = fontGlyphs.get(0).getDimension().width;
+      cellTable = new HashMap<>();
+      // Plain glyphs first such that they take precedence over those with leaked pixels.
+      for (FontGlyph glyph : fontGlyphs)
+         addToTable(glyph);
+      if (withLeakedPixels)
+         for (FontGlyph glyph : new GeneratorOfFontGlyphsWithLeakedPixels(fontGlyphs).getContextualGlyphs())
+            addToTable(glyph);
+   }
+
+   /**
+    * The first glyph added for some pixels is kept.
+    */
+   protected void addToTable(FontGlyph glyph) {
+      CellSignature signature = new CellSignature(glyph.getColumnMasks());
+      if (!cellTable.containsKey(signature))
+         cellTable.put(signature, glyph);
+   }
+
+   /**
+    * @return true if all the glyphs have the same width.
+    */
+   public static boolean isFixedPitch(List<FontGlyph> glyphs) {
+      for (FontGlyph glyph : glyphs)
+         if (glyph.getDimension().width != glyphs.get(0).getDimension().width)
+            return false;
+      return true;
+   }
+
+   @Override
+   public List<FontGlyph> detectGlyphsOnOneLine(BufferedImage image, Color fontColor, Point topLeft) {
+      List<FontGlyph> glyphsList = new ArrayList<>();
+      LineBand band = createLineBand(image, fontColor, topLeft);
+      if (band == null)
+         return glyphsList;
+      CellSignature probe = new CellSignature(new long[cellWidth]);
+      for (int x = topLeft.x; x + cellWidth <= band.getRight(); x += cellWidth) {
+         if (isBlankToEndOfLine(band, x))
+            break;
+         probe.readFrom(band, x);
+         FontGlyph match = cellTable.get(probe);
+         if (match == null)
+            match = findApproximateMatch(band, x);
+         if (match == null && unknownGlyphSymbol != null && !band.isBlankToTheRight(x))
+            match = createUnknownGlyph(glyphsList, band, x, x + cellWidth);
+         if (match == null)
+            break;
+         glyphsList.add(match);
+      }
+      return glyphsList;
+   }
+
+   /**
+    * The width of all the glyphs.
+    */
+   public int getCellWidth() {
+      return cellWidth;
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * The column masks of a cell. It is mutable so that the same instance can be reused as the key of
+    * all the lookups of a line.
+    */
+   protected static class CellSignature {
+
+      protected long[] columnMasks;
+      protected int cachedHashCode;
+
+      protected CellSignature(long[] columnMasks) {
+         this.columnMasks = columnMasks;
+         this.cachedHashCode = Arrays.hashCode(columnMasks);
+      }
+
+      protected void readFrom(LineBand band, int x) {
+         for (int i = 0; i < columnMasks.length; i++)
+            columnMasks[i] = band.getColumnMask(x + i);
+         cachedHashCode = Arrays.hashCode(columnMasks);
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (!(obj instanceof CellSignature))
+            return false;
+         return Arrays.equals(columnMasks, ((CellSignature) obj).columnMasks);
+      }
+
+      @Override
+      public int hashCode() {
+         return cachedHashCode;
+      }
+   }
+}
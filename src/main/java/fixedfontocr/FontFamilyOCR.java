@@ -0,0 +1,172 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Several sizes of the same font, for when the size of the text is not known exactly (for example
+ * with UI scaling). The size of each line is picked from a cheap fingerprint of the line, and only
+ * the SearchTreeOCR of that size decodes the line.
+ *
+ * <p> The sizes do not share the top of their glyphs, so the lines are given by their baseline
+ * instead of their top left corner. The fingerprint of a line for a size is the number of columns
+ * matched by the first few non-blank glyphs of the line, found with a plain SearchNode of that size
+ * (no leaked pixels). The glyphs of the wrong sizes usually do not even match the first stroke, so
+ * this costs a few lookups per size. The size matching the most columns wins. Close sizes can
+ * render the first glyphs identically, in which case all the tied sizes decode the whole line and
+ * the one reading the most columns wins; the first of the sizes wins the remaining ties.
+ */
+public class FontFamilyOCR {
+
+   protected List<SearchTreeOCR> engines;
+   protected List<SearchNode> fingerprintNodes;
+   protected int fingerprintGlyphs = 3;
+
+   /**
+    * Builds a SearchTreeOCR.Basic for each of the {@code sizes} of the {@code font}.
+    */
+   public FontFamilyOCR(List<String> alphabet, Font font, float... sizes) {
+      this(buildEngines(alphabet, font, sizes));
+   }
+
+   /**
+    * @param engines one per size, for example some SearchTreeOCRWithLeakedPixels.
+    */
+   public FontFamilyOCR(List<SearchTreeOCR> engines) {
+      if (engines.isEmpty())
+         throw new IllegalArgumentException("Must have some engines.");
+      this.engines = new ArrayList<>(engines);
+      fingerprintNodes = new ArrayList<>(engines.size());
+      SearchTreeBuilder builder = new SearchTreeBuilder();
+      builder.setLazy(true);
+      for (SearchTreeOCR engine : engines)
+         fingerprintNodes.add(builder.build(engine.getGlyphs()));
+   }
+
+   protected static List<SearchTreeOCR> buildEngines(List<String> alphabet, Font font, float... sizes) {
+      List<SearchTreeOCR> engines = new ArrayList<>(sizes.length);
+      for (float size : sizes)
+         engines.add(new SearchTreeOCR.Basic(alphabet, font.deriveFont(size)));
+      return engines;
+   }
+
+   /**
+    * @return null if no size matches the start of the line.
+    */
+   public String detectCharactersOnOneLine(BufferedImage image, Color fontColor, int left, int baseline) {
+      List<FontGlyph> glyphs = detectGlyphsOnOneLine(image, fontColor, left, baseline);
+      if (glyphs == null)
+         return null;
+      StringBuilder stringBuilder = new StringBuilder();
+      for (FontGlyph glyph : glyphs)
+         stringBuilder.append(glyph.getGeneratingString());
+      return stringBuilder.toString();
+   }
+
+   /**
+    * @return null if no size matches the start of the line.
+    */
+   public List<FontGlyph> detectGlyphsOnOneLine(BufferedImage image, Color fontColor, int left, int baseline) {
+      List<SearchTreeOCR> candidates = findEngines(image, fontColor, left, baseline);
+      List<FontGlyph> bestGlyphs = null;
+      int bestWidth = -1;
+      for (SearchTreeOCR engine : candidates) {
+         List<FontGlyph> glyphs = engine.detectGlyphsOnOneLine(image, fontColor, getTopLeft(engine, left, baseline));
+         if (glyphs == null)
+            continue;
+         int width = 0;
+         for (FontGlyph glyph : glyphs)
+            width += glyph.getDimension().width;
+         if (width > bestWidth) {
+            bestWidth = width;
+            bestGlyphs = glyphs;
+         }
+      }
+      return bestGlyphs;
+   }
+
+   /**
+    * The engine of the size matching the start of the line best, the first one if tied.
+    *
+    * @return null if no size matches.
+    */
+   public SearchTreeOCR findEngine(BufferedImage image, Color fontColor, int left, int baseline) {
+      List<SearchTreeOCR> candidates = findEngines(image, fontColor, left, baseline);
+      return candidates.isEmpty() ? null : candidates.get(0);
+   }
+
+   /**
+    * The engines of the sizes with the best fingerprint, usually only one.
+    *
+    * @return an empty list if no size matches.
+    */
+   public List<SearchTreeOCR> findEngines(BufferedImage image, Color fontColor, int left, int baseline) {
+      List<SearchTreeOCR> bestEngines = new ArrayList<>();
+      int bestScore = 0;
+      for (int i = 0; i < engines.size(); i++) {
+         int score = fingerprint(i, image, fontColor, left, baseline);
+         if (score > bestScore) {
+            bestScore = score;
+            bestEngines.clear();
+         }
+         if (score > 0 && score == bestScore)
+            bestEngines.add(engines.get(i));
+      }
+      return bestEngines;
+   }
+
+   /**
+    * The number of columns matched by the first {@code fingerprintGlyphs} non-blank glyphs of the
+    * line, with the size of the engine {@code iEngine}.
+    */
+   protected int fingerprint(int iEngine, BufferedImage image, Color fontColor, int left, int baseline) {
+      SearchTreeOCR engine = engines.get(iEngine);
+      Point topLeft = getTopLeft(engine, left, baseline);
+      if (topLeft.y < 0 || topLeft.y + engine.getGlyphHeight() > image.getHeight())
+         return 0;
+      int matchedColumns = 0;
+      int nonBlankGlyphs = 0;
+      while (nonBlankGlyphs < fingerprintGlyphs && topLeft.x < image.getWidth()) {
+         FontGlyph glyph = fingerprintNodes.get(iEngine).findLongestMatch(image, fontColor, topLeft);
+         if (glyph == null || glyph.getDimension().width == 0)
+            break;
+         if (!glyph.getActivePixels().isEmpty()) {
+            matchedColumns += glyph.getDimension().width;
+            nonBlankGlyphs++;
+         }
+         topLeft.x += glyph.getDimension().width;
+      }
+      return matchedColumns;
+   }
+
+   /**
+    * The top left corner of the line for the size of the {@code engine}.
+    */
+   protected static Point getTopLeft(SearchTreeOCR engine, int left, int baseline) {
+      return new Point(left, baseline - FontGlyph.getBaseline(engine.getFont()));
+   }
+
+   /**
+    * @return an unmodifiable list of the engines, one per size.
+    */
+   public List<SearchTreeOCR> getEngines() {
+      return Collections.unmodifiableList(engines);
+   }
+
+   public int getFingerprintGlyphs() {
+      return fingerprintGlyphs;
+   }
+
+   /**
+    * The number of non-blank glyphs matched to pick the size of a line (3 by default).
+    */
+   public void setFingerprintGlyphs(int fingerprintGlyphs) {
+      this.fingerprintGlyphs = fingerprintGlyphs;
+   }
+}
@@ -0,0 +1,308 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.GraphicsEnvironment;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds which fonts (family, style and size) may have produced the text of an image, without
+ * building a SearchTreeOCR for each installed font.
+ *
+ * <p> The index maps the signature of each connected component (8-connected pixels) of each glyph
+ * of each font to the fonts having it. A signature is a 64-bit hash of the pixels of the component
+ * within its bounding box, so it does not depend on the position of the component, nor on the
+ * glyphs around it as long as they do not touch it. To query the index, the connected components
+ * of the pixels of the font color in the image are looked up, and each font gets, for each distinct
+ * signature it has, a score which is higher the fewer fonts share the signature (the inverse
+ * document frequency {@code log(1 + nFonts / nFontsWithSignature)}).
+ *
+ * <p> The components of the glyphs which touch the edges of their box, for example because they
+ * leak pixels in their neighbors, are usually not found in images and only add some noise.
+ *
+ * <p> Building the index for all the installed fonts takes a while, but it only needs to be done
+ * once: it can be written with {@code writeTo} and read back with {@code readFrom}.
+ */
+public class FontIndex {
+
+   protected static final int MAGIC_NUMBER = 0x4646494e; // "FFIN"
+   protected static final int FORMAT_VERSION = 1;
+   protected List<Font> fonts;
+   protected Map<Long, int[]> fontsPerSignature;
+
+   protected FontIndex(List<Font> fonts, Map<Long, int[]> fontsPerSignature) {
+      this.fonts = fonts;
+      this.fontsPerSignature = fontsPerSignature;
+   }
+
+   public static FontIndex build(List<Font> fonts, List<String> alphabet) {
+      Map<Long, List<Integer>> fontListsPerSignature = new HashMap<>();
+      for (int iFont = 0; iFont < fonts.size(); iFont++) {
+         Set<Long> fontSignatures = new HashSet<>();
+         for (FontGlyph glyph : FontGlyph.buildGlyphsFromAlphabet(alphabet, fonts.get(iFont))) {
+            int width = glyph.getDimension().width;
+            int height = glyph.getDimension().height;
+            boolean[] activeMask = new boolean[width * height];
+            for (Point pixel : glyph.getActivePixels())
+               activeMask[pixel.y * width + pixel.x] = true;
+            fontSignatures.addAll(findComponentSignatures(activeMask, width, height));
+         }
+         for (long signature : fontSignatures) {
+            if (!fontListsPerSignature.containsKey(signature))
+               fontListsPerSignature.put(signature, new ArrayList<Integer>());
+            fontListsPerSignature.get(signature).add(iFont);
+         }
+      }
+      Map<Long, int[]> fontsPerSignature = new HashMap<>();
+      for (Map.Entry<Long, List<Integer>> entry : fontListsPerSignature.entrySet()) {
+         int[] fontIndices = new int[entry.getValue().size()];
+         for (int i = 0; i < fontIndices.length; i++)
+            fontIndices[i] = entry.getValue().get(i);
+         fontsPerSignature.put(entry.getKey(), fontIndices);
+      }
+      return new FontIndex(new ArrayList<>(fonts), fontsPerSignature);
+   }
+
+   /**
+    * Indexes the plain style of all the installed font families, at each of the {@code sizes}.
+    */
+   public static FontIndex buildForInstalledFonts(List<String> alphabet, float... sizes) {
+      List<Font> fonts = new ArrayList<>();
+      for (String family : GraphicsEnvironment.getLocalGraphicsEnvironment().getAvailableFontFamilyNames())
+         for (float size : sizes)
+            fonts.add(new Font(family, Font.PLAIN, 1).deriveFont(size));
+      return build(fonts, alphabet);
+   }
+
+   /**
+    * @return all the fonts having at least one of the components of the image, from the most to
+    * the least likely.
+    */
+   public List<Candidate> findCandidates(BufferedImage image, Color fontColor) {
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+      int fontRGB = fontColor.getRGB();
+      boolean[] activeMask = new boolean[width * height];
+      for (int i = 0; i < pixels.length; i++)
+         activeMask[i] = pixels[i] == fontRGB;
+
+      double[] scores = new double[fonts.size()];
+      int[] matchedSignatures = new int[fonts.size()];
+      for (long signature : findComponentSignatures(activeMask, width, height)) {
+         int[] fontIndices = fontsPerSignature.get(signature);
+         if (fontIndices == null)
+            continue;
+         double inverseFrequency = Math.log(1 + (double) fonts.size() / fontIndices.length);
+         for (int iFont : fontIndices) {
+            scores[iFont] += inverseFrequency;
+            matchedSignatures[iFont]++;
+         }
+      }
+      List<Candidate> candidates = new ArrayList<>();
+      for (int iFont = 0; iFont < fonts.size(); iFont++)
+         if (matchedSignatures[iFont] > 0)
+            candidates.add(new Candidate(fonts.get(iFont), scores[iFont], matchedSignatures[iFont]));
+      Collections.sort(candidates, Candidate.BY_DECREASING_SCORE);
+      return candidates;
+   }
+
+   /**
+    * @return at most {@code maxCandidates} fonts, from the most to the least likely.
+    */
+   public List<Candidate> findCandidates(BufferedImage image, Color fontColor, int maxCandidates) {
+      List<Candidate> candidates = findCandidates(image, fontColor);
+      return candidates.subList(0, Math.min(maxCandidates, candidates.size()));
+   }
+
+   /**
+    * The distinct signatures of the 8-connected components of the active pixels.
+    *
+    * @param activeMask the pixels row by row.
+    */
+   protected static Set<Long> findComponentSignatures(boolean[] activeMask, int width, int height) {
+      Set<Long> signatures = new HashSet<>();
+      int[] labels = new int[activeMask.length];
+      int[] stack = new int[activeMask.length];
+      int nLabels = 0;
+      for (int start = 0; start < activeMask.length; start++) {
+         if (!activeMask[start] || labels[start] != 0)
+            continue;
+         int label = ++nLabels;
+         int minX = width, minY = height, maxX = -1, maxY = -1;
+         int stackSize = 0;
+         stack[stackSize++] = start;
+         labels[start] = label;
+         while (stackSize > 0) {
+            int pixel = stack[--stackSize];
+            int x = pixel % width;
+            int y = pixel / width;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+            for (int ny = Math.max(0, y - 1); ny <= Math.min(height - 1, y + 1); ny++) {
+               for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+                  int neighbor = ny * width + nx;
+                  if (activeMask[neighbor] && labels[neighbor] == 0) {
+                     labels[neighbor] = label;
+                     stack[stackSize++] = neighbor;
+                  }
+               }
+            }
+         }
+         signatures.add(signature(labels, width, label, minX, minY, maxX, maxY));
+      }
+      return signatures;
+   }
+
+   /**
+    * FNV-1a hash of the dimension of the bounding box and of its pixels, row by row.
+    */
+   protected static long signature(int[] labels, int width, int label, int minX, int minY, int maxX, int maxY) {
+      long hash = 0xcbf29ce484222325L;
+      hash = (hash ^ (maxX - minX + 1)) * 0x100000001b3L;
+      hash = (hash ^ (maxY - minY + 1)) * 0x100000001b3L;
+      for (int y = minY; y <= maxY; y++)
+         for (int x = minX; x <= maxX; x++)
+            hash = (hash ^ (labels[y * width + x] == label ? 1 : 0)) * 0x100000001b3L;
+      return hash;
+   }
+
+   /**
+    * @return an unmodifiable list of the indexed fonts.
+    */
+   public List<Font> getFonts() {
+      return Collections.unmodifiableList(fonts);
+   }
+
+   public int getSignatureCount() {
+      return fontsPerSignature.size();
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * The layout is a header (magic number, version, number of fonts and of signatures), the fonts
+    * (name, style, size) and then each signature followed by the indices of its fonts.
+    */
+   public void writeTo(OutputStream output) throws IOException {
+      DataOutputStream dataOutput = new DataOutputStream(output);
+      dataOutput.writeInt(MAGIC_NUMBER);
+      dataOutput.writeInt(FORMAT_VERSION);
+      dataOutput.writeInt(fonts.size());
+      dataOutput.writeInt(fontsPerSignature.size());
+      for (Font font : fonts) {
+         dataOutput.writeUTF(font.getName());
+         dataOutput.writeInt(font.getStyle());
+         dataOutput.writeFloat(font.getSize2D());
+      }
+      for (Map.Entry<Long, int[]> entry : fontsPerSignature.entrySet()) {
+         dataOutput.writeLong(entry.getKey());
+         dataOutput.writeInt(entry.getValue().length);
+         for (int iFont : entry.getValue())
+            dataOutput.writeInt(iFont);
+      }
+      dataOutput.flush();
+   }
+
+   public static FontIndex readFrom(InputStream input) throws IOException {
+      DataInputStream dataInput = new DataInputStream(input);
+      if (dataInput.readInt() != MAGIC_NUMBER)
+         throw new IllegalArgumentException("Not a font index.");
+      int version = dataInput.readInt();
+      if (version != FORMAT_VERSION)
+         throw new IllegalArgumentException("Unsupported font index version " + version + ".");
+      int nFonts = dataInput.readInt();
+      int nSignatures = dataInput.readInt();
+      if (nFonts < 0 || nSignatures < 0)
+         throw new IOException("Invalid counts in the header of the font index.");
+      // The lists grow while reading instead of being sized by the header, such that wrong counts
+      // do not allocate more than the input: a truncated input ends with an EOFException.
+      List<Font> fonts = new ArrayList<>();
+      for (int iFont = 0; iFont < nFonts; iFont++) {
+         String name = dataInput.readUTF();
+         int style = dataInput.readInt();
+         fonts.add(new Font(name, style, 1).deriveFont(dataInput.readFloat()));
+      }
+      Map<Long, int[]> fontsPerSignature = new HashMap<>();
+      for (int iSignature = 0; iSignature < nSignatures; iSignature++) {
+         long signature = dataInput.readLong();
+         int nFontIndices = dataInput.readInt();
+         // Bounded by the fonts already read, so the array is bounded by the input.
+         if (nFontIndices < 0 || nFontIndices > nFonts)
+            throw new IOException("Invalid number of fonts " + nFontIndices + " for a signature of the font index.");
+         int[] fontIndices = new int[nFontIndices];
+         for (int i = 0; i < fontIndices.length; i++) {
+            fontIndices[i] = dataInput.readInt();
+            if (fontIndices[i] < 0 || fontIndices[i] >= nFonts)
+               throw new IOException("Invalid font index " + fontIndices[i] + " in the font index.");
+         }
+         fontsPerSignature.put(signature, fontIndices);
+      }
+      return new FontIndex(fonts, fontsPerSignature);
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * A font which may have produced the text of an image.
+    */
+   public static class Candidate {
+
+      protected static final Comparator<Candidate> BY_DECREASING_SCORE = new Comparator<Candidate>() {
+
+         @Override
+         public int compare(Candidate o1, Candidate o2) {
+            return Double.compare(o2.score, o1.score);
+         }
+      };
+      protected Font font;
+      protected double score;
+      protected int matchedSignatures;
+
+      protected Candidate(Font font, double score, int matchedSignatures) {
+         this.font = font;
+         this.score = score;
+         this.matchedSignatures = matchedSignatures;
+      }
+
+      public Font getFont() {
+         return font;
+      }
+
+      /**
+       * Only meaningful to compare the candidates of the same image.
+       */
+      public double getScore() {
+         return score;
+      }
+
+      /**
+       * The number of distinct components of the image found in the glyphs of the font.
+       */
+      public int getMatchedSignatures() {
+         return matchedSignatures;
+      }
+
+      @Override
+      public String toString() {
+         return String.format("%s %s %.1f: %.2f (%d)", font.getName(), Arrays.asList("plain", "bold", "italic", "bold italic").get(font.getStyle()),
+                 font.getSize2D(), score, matchedSignatures);
+      }
+   }
+}
@@ -8,8 +8,10 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 /**
@@ -30,14 +32,45 @@ public class GeneratorOfFontGlyphsWithLeakedPixels {
    protected Set<LeakingFontGlyph> leakersToRight;
    protected Map<FontGlyph, Set<FontGlyph>> mapGlyphToGlyphOnLeft;
    protected Map<FontGlyph, Set<FontGlyph>> mapGlyphToGlyphOnRight;
+   // Caches kept from one generation to the next (see update).
+   protected Map<FontGlyph, LeakingFontGlyph> leakersCache = new IdentityHashMap<>();
+   protected Map<CompoundKey, FontGlyph> compoundGlyphsCache = new HashMap<>();
+   protected Map<FontGlyph, FontGlyphWithLeakedPixels> contextualGlyphsCache = new HashMap<>();
 
    public GeneratorOfFontGlyphsWithLeakedPixels(List<FontGlyph> originalGlyphs) {
+      generate(originalGlyphs);
+   }
+
+   /**
+    * Generates the glyphs again for a new alphabet, for example with a few symbols added or
+    * removed. The leak analysis of the glyphs already seen, the compound glyphs made of glyphs
+    * already seen and the contextual glyphs whose neighbors did not change are reused (the same
+    * instances are returned), so the search trees built for them by a SearchTreeBuilder sharing
+    * subtrees can be reused too.
+    */
+   public void update(List<FontGlyph> originalGlyphs) {
+      generate(originalGlyphs);
+   }
+
+   protected final void generate(List<FontGlyph> originalGlyphs) {
       nonContextualGlyphs = new ArrayList<>();
       nonContextualGlyphs.addAll(originalGlyphs);  // but the leakers are removed below
 
       leakersToLeft = new HashSet<>();
       leakersToRight = new HashSet<>();
-      for (LeakingFontGlyph leaker : LeakingFontGlyph.processAlphabet(originalGlyphs)) {
+      Map<FontGlyph, LeakingFontGlyph> previousLeakers = leakersCache;
+      leakersCache = new IdentityHashMap<>();
+      for (FontGlyph glyph : originalGlyphs) {
+         LeakingFontGlyph leaker;
+         if (previousLeakers.containsKey(glyph))
+            leaker = previousLeakers.get(glyph);
+         else if (glyph instanceof FontGlyph.Bitmap)
+            leaker = null; // no font to render it with, and the cells of bitmap fonts do not leak.
+         else
+            leaker = LeakingFontGlyph.createLeakingFontGlyphIfLeaking(glyph);
+         leakersCache.put(glyph, leaker);
+         if (leaker == null)
+            continue;
          nonContextualGlyphs.remove(leaker);
          if (!leaker.getLeakedPixelsToLeft().isEmpty())
             leakersToLeft.add(leaker);
@@ -51,12 +84,17 @@ public class GeneratorOfFontGlyphsWithLeakedPixels {
       Set<FontGlyph> newGlyphs = new HashSet<>();
       newGlyphs.addAll(mapGlyphToGlyphOnLeft.keySet());
       newGlyphs.addAll(mapGlyphToGlyphOnRight.keySet());
+      Map<FontGlyph, FontGlyphWithLeakedPixels> previousContextualGlyphs = contextualGlyphsCache;
+      contextualGlyphsCache = new HashMap<>();
       contextualGlyphs = new HashSet<>();
       for (FontGlyph newGlyph : newGlyphs) {
-         FontGlyphWithLeakedPixels newContextualGlyph =
-                 new FontGlyphWithLeakedPixels(newGlyph,
-                 mapGlyphToGlyphOnLeft.get(newGlyph), mapGlyphToGlyphOnRight.get(newGlyph));
+         FontGlyphWithLeakedPixels newContextualGlyph = previousContextualGlyphs.get(newGlyph);
+         if (newContextualGlyph == null || !isSameContextualGlyph(newContextualGlyph, newGlyph,
+                 mapGlyphToGlyphOnLeft.get(newGlyph), mapGlyphToGlyphOnRight.get(newGlyph)))
+            newContextualGlyph = new FontGlyphWithLeakedPixels(newGlyph,
+                    mapGlyphToGlyphOnLeft.get(newGlyph), mapGlyphToGlyphOnRight.get(newGlyph));
          contextualGlyphs.add(newContextualGlyph);
+         contextualGlyphsCache.put(newGlyph, newContextualGlyph);
       }
 
       allGlyphs = new HashSet<>();
@@ -74,6 +112,22 @@ public class GeneratorOfFontGlyphsWithLeakedPixels {
             allGlyphsWhichCanStartALine.add(glyph);
    }
 
+   /**
+    * @return true if {@code contextualGlyph} is what would be built from {@code mainGlyph} and its
+    * possible neighbors.
+    */
+   protected static boolean isSameContextualGlyph(FontGlyphWithLeakedPixels contextualGlyph, FontGlyph mainGlyph,
+           Set<FontGlyph> possibleGlyphsOnLeft, Set<FontGlyph> possibleGlyphsOnRight) {
+      if (!Objects.equals(contextualGlyph.getGeneratingString(), mainGlyph.getGeneratingString())
+              || !contextualGlyph.getDimension().equals(mainGlyph.getDimension()))
+         return false;
+      Set<FontGlyph> successorGlyphs = new HashSet<>(possibleGlyphsOnRight);
+      successorGlyphs.remove(null);
+      return contextualGlyph.requiresPrecedingGlyph() == !possibleGlyphsOnLeft.contains(null)
+              && contextualGlyph.requiresSuccessorGlyph() == !possibleGlyphsOnRight.contains(null)
+              && contextualGlyph.getPossibleSuccessorGlyphs().equals(successorGlyphs);
+   }
+
    protected final void generateAllCompoundGlyphs() {
       mapGlyphToGlyphOnLeft = new HashMap<>();
       mapGlyphToGlyphOnRight = new HashMap<>();
@@ -88,17 +142,38 @@ public class GeneratorOfFontGlyphsWithLeakedPixels {
       leakersToRightPlusNull.addAll(leakersToRight);
       leakersToRightPlusNull.add(null);
 
+      Map<CompoundKey, FontGlyph> previousCompoundGlyphs = compoundGlyphsCache;
+      compoundGlyphsCache = new HashMap<>();
       for (LeakingFontGlyph glyphOnLeft : leakersToRightPlusNull)
          for (FontGlyph centerGlyph : nonContextualPlusLeakers)
             for (LeakingFontGlyph glyphOnRight : leakersToLeftPlusNull) {
-               FontGlyph modifiedGlyphOnLeft = addPixelsToMiddleGlyph(null, glyphOnLeft, centerGlyph);
-               FontGlyph modifiedGlyphOnRight = addPixelsToMiddleGlyph(centerGlyph, glyphOnRight, null);
-               FontGlyph modifiedCenterGlyph = addPixelsToMiddleGlyph(glyphOnLeft, centerGlyph, glyphOnRight);
+               FontGlyph modifiedGlyphOnLeft = getCompoundGlyph(null, glyphOnLeft, centerGlyph, previousCompoundGlyphs);
+               FontGlyph modifiedGlyphOnRight = getCompoundGlyph(centerGlyph, glyphOnRight, null, previousCompoundGlyphs);
+               FontGlyph modifiedCenterGlyph = getCompoundGlyph(glyphOnLeft, centerGlyph, glyphOnRight, previousCompoundGlyphs);
                addToMapsLeftAndRight(modifiedGlyphOnLeft, modifiedCenterGlyph);
                addToMapsLeftAndRight(modifiedCenterGlyph, modifiedGlyphOnRight);
             }
    }
 
+   /**
+    * Same as {@code addPixelsToMiddleGlyph}, but the glyph built for the same three glyphs in the
+    * previous generation is reused.
+    */
+   protected FontGlyph getCompoundGlyph(FontGlyph leftGlyph, FontGlyph middleGlyph, FontGlyph rightGlyph,
+           Map<CompoundKey, FontGlyph> previousCompoundGlyphs) {
+      if (middleGlyph == null)
+         return null;
+      CompoundKey key = new CompoundKey(leftGlyph, middleGlyph, rightGlyph);
+      FontGlyph compoundGlyph = compoundGlyphsCache.get(key);
+      if (compoundGlyph == null) {
+         compoundGlyph = previousCompoundGlyphs.get(key);
+         if (compoundGlyph == null)
+            compoundGlyph = addPixelsToMiddleGlyph(leftGlyph, middleGlyph, rightGlyph);
+         compoundGlyphsCache.put(key, compoundGlyph);
+      }
+      return compoundGlyph;
+   }
+
    /**
     * The middleGlyph will have some pixels added in its bounding box if the left/right glyphs leak
     * pixels in the right direction.
@@ -160,4 +235,35 @@ public class GeneratorOfFontGlyphsWithLeakedPixels {
    public List<FontGlyph> getNonContextualGlyphs() {
       return Collections.unmodifiableList(nonContextualGlyphs);
    }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Three glyphs compared by identity, any of which can be null.
+    */
+   protected static class CompoundKey {
+
+      protected FontGlyph leftGlyph;
+      protected FontGlyph middleGlyph;
+      protected FontGlyph rightGlyph;
+
+      protected CompoundKey(FontGlyph leftGlyph, FontGlyph middleGlyph, FontGlyph rightGlyph) {
+         this.leftGlyph = leftGlyph;
+         this.middleGlyph = middleGlyph;
+         this.rightGlyph = rightGlyph;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (!(obj instanceof CompoundKey))
+            return false;
+         CompoundKey other = (CompoundKey) obj;
+         return leftGlyph == other.leftGlyph && middleGlyph == other.middleGlyph && rightGlyph == other.rightGlyph;
+      }
+
+      @Override
+      public int hashCode() {
+         return 31 * (31 * System.identityHashCode(leftGlyph) + System.identityHashCode(middleGlyph))
+                 + System.identityHashCode(rightGlyph);
+      }
+   }
 }
@@ -0,0 +1,65 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tells where a glyph of an alphabet may start on a LineBand, to resume the decoding of a line
+ * after a span where no glyph was recognized (see {@code SearchTreeOCR.setUnknownGlyphSymbol}).
+ *
+ * <p> Each glyph is indexed by the mask of its first non-blank column and by the number of blank
+ * columns before it, so checking a column costs one blank run lookup and one hash lookup. A blank
+ * glyph may start wherever the blank run is at least as wide as it. The check is necessary, not
+ * sufficient: the decoding still has to match a glyph there.
+ */
+public class GlyphStartIndex {
+
+   protected Map<Long, Set<Integer>> leadingBlankColumnsPerMask = new HashMap<>();
+   protected int minBlankGlyphWidth = Integer.MAX_VALUE;
+
+   public GlyphStartIndex(Collection<FontGlyph> glyphs) {
+      for (FontGlyph glyph : glyphs) {
+         long[] columnMasks = glyph.getColumnMasks();
+         int nLeadingBlankColumns = 0;
+         while (nLeadingBlankColumns < columnMasks.length && columnMasks[nLeadingBlankColumns] == 0)
+            nLeadingBlankColumns++;
+         if (nLeadingBlankColumns == columnMasks.length) {
+            if (columnMasks.length > 0)
+               minBlankGlyphWidth = Math.min(minBlankGlyphWidth, columnMasks.length);
+            continue;
+         }
+         Long mask = columnMasks[nLeadingBlankColumns];
+         if (!leadingBlankColumnsPerMask.containsKey(mask))
+            leadingBlankColumnsPerMask.put(mask, new HashSet<Integer>());
+         leadingBlankColumnsPerMask.get(mask).add(nLeadingBlankColumns);
+      }
+   }
+
+   /**
+    * @return true if the columns from {@code x} look like the start of a glyph.
+    */
+   public boolean canStartAt(LineBand band, int x) {
+      int blankRunLength = band.getBlankRunLength(x);
+      if (blankRunLength >= minBlankGlyphWidth)
+         return true;
+      if (x + blankRunLength >= band.getRight())
+         return false;
+      Set<Integer> leadingBlankColumns = leadingBlankColumnsPerMask.get(band.getColumnMask(x + blankRunLength));
+      return leadingBlankColumns != null && leadingBlankColumns.contains(blankRunLength);
+   }
+
+   /**
+    * @return the first column after {@code x} where a glyph can start, or the right edge of the
+    * band if there is none.
+    */
+   public int findNextStart(LineBand band, int x) {
+      for (int nextX = x + 1; nextX < band.getRight(); nextX++)
+         if (canStartAt(band, nextX))
+            return nextX;
+      return band.getRight();
+   }
+}
@@ -0,0 +1,195 @@
+package fixedfontocr;
+
+import fixedfontocr.LayoutTemplate.Field;
+import java.awt.Color;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Reads all the fields of a LayoutTemplate in a frame (see {@code LayoutTemplate.compile}).
+ *
+ * <p> The pixels of the frame covered by the fields are read in one call, whatever the type of the
+ * frame, and binarized once per font color into a mask: an image which only has the font color
+ * and another color. The fields are then read from the masks, in parallel, each field being a
+ * sub-image of its mask so that its lines stop at the right and bottom edges of its region. The
+ * lines of a field are read as by {@code SearchTreeOCR.detectCharactersOnMultipleLines}.
+ *
+ * <p> Each field can get a LineCache (see {@code setLineCacheSize}), such that the lines which did
+ * not change since a previous frame are not decoded again.
+ *
+ * <p> The engines of the fields must be able to read several lines at the same time, which is the
+ * case of those of this package. A recognizer can be used by several threads.
+ */
+public class LayoutRecognizer {
+
+   protected List<Field> fields;
+   protected ExecutorService executor;
+   protected Rectangle bounds;
+   protected Map<Integer, Rectangle> maskBoundsPerColor = new LinkedHashMap<>();
+   protected volatile Map<String, LineCache> lineCaches;
+
+   /**
+    * @param executor null to use the common ForkJoinPool.
+    */
+   protected LayoutRecognizer(List<Field> fields, ExecutorService executor) {
+      if (fields.isEmpty())
+         throw new IllegalArgumentException("Must have some fields.");
+      this.fields = new ArrayList<>(fields);
+      this.executor = executor;
+      for (Field field : this.fields) {
+         bounds = bounds == null ? field.getRegion() : bounds.union(field.region);
+         int fontRGB = field.fontColor.getRGB();
+         Rectangle maskBounds = maskBoundsPerColor.get(fontRGB);
+         maskBoundsPerColor.put(fontRGB, maskBounds == null ? field.getRegion() : maskBounds.union(field.region));
+      }
+   }
+
+   /**
+    * @return the text of each field, in the order of the template, with its lines separated by
+    * "\n". The text is empty if nothing was recognized in the field.
+    * @throws IllegalArgumentException if some fields are outside of the frame.
+    */
+   public Map<String, String> recognize(BufferedImage frame) {
+      if (!new Rectangle(frame.getWidth(), frame.getHeight()).contains(bounds))
+         throw new IllegalArgumentException("The frame is too small for the fields of the template.");
+      final Map<Integer, BufferedImage> masks = createMasks(frame);
+      ExecutorService fieldExecutor = executor != null ? executor : ForkJoinPool.commonPool();
+      List<Future<String>> futures = new ArrayList<>(fields.size());
+      for (final Field field : fields) {
+         futures.add(fieldExecutor.submit(new Callable<String>() {
+
+            @Override
+            public String call() {
+               int fontRGB = field.fontColor.getRGB();
+               return recognizeField(field, masks.get(fontRGB), maskBoundsPerColor.get(fontRGB).getLocation());
+            }
+         }));
+      }
+      Map<String, String> texts = new LinkedHashMap<>();
+      for (int iField = 0; iField < fields.size(); iField++)
+         texts.put(fields.get(iField).name, getResult(futures.get(iField)));
+      return texts;
+   }
+
+   protected static String getResult(Future<String> future) {
+      try {
+         return future.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while reading the fields.", e);
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof RuntimeException)
+            throw (RuntimeException) e.getCause();
+         if (e.getCause() instanceof Error)
+            throw (Error) e.getCause();
+         throw new IllegalStateException(e.getCause());
+      }
+   }
+
+   /**
+    * The mask of each font color, over the bounds of the fields of that color: the pixels of the
+    * font color keep it (without alpha), all the others get its complement.
+    */
+   protected Map<Integer, BufferedImage> createMasks(BufferedImage frame) {
+      int[] pixels = frame.getRGB(bounds.x, bounds.y, bounds.width, bounds.height, null, 0, bounds.width);
+      Map<Integer, BufferedImage> masks = new HashMap<>();
+      for (Map.Entry<Integer, Rectangle> entry : maskBoundsPerColor.entrySet()) {
+         int fontRGB = entry.getKey();
+         Rectangle maskBounds = entry.getValue();
+         int[] maskPixels = new int[maskBounds.width * maskBounds.height];
+         int offsetX = maskBounds.x - bounds.x;
+         int offsetY = maskBounds.y - bounds.y;
+         for (int iy = 0; iy < maskBounds.height; iy++) {
+            int rowStart = (iy + offsetY) * bounds.width + offsetX;
+            for (int ix = 0; ix < maskBounds.width; ix++)
+               maskPixels[iy * maskBounds.width + ix] = pixels[rowStart + ix] == fontRGB ? fontRGB : ~fontRGB;
+         }
+         BufferedImage mask = new BufferedImage(maskBounds.width, maskBounds.height, BufferedImage.TYPE_INT_RGB);
+         mask.setRGB(0, 0, maskBounds.width, maskBounds.height, maskPixels, 0, maskBounds.width);
+         masks.put(fontRGB, mask);
+      }
+      return masks;
+   }
+
+   /**
+    * @param maskOrigin the position of the mask in the frame.
+    */
+   protected String recognizeField(Field field, BufferedImage mask, Point maskOrigin) {
+      BufferedImage fieldImage = mask.getSubimage(field.region.x - maskOrigin.x, field.region.y - maskOrigin.y,
+              field.region.width, field.region.height);
+      Color maskColor = new Color(field.fontColor.getRGB() & 0xFFFFFF);
+      int nEmptyRowsBetweenLines = field.lineHeight - field.engine.getGlyphHeight();
+      List<String> lines = new ArrayList<>();
+      for (int lineTop = 0; lineTop + field.lineHeight <= field.region.height; lineTop += field.lineHeight) {
+         String line = recognizeLine(field, fieldImage, maskColor, new Point(0, lineTop + nEmptyRowsBetweenLines));
+         if (line == null && field.engine.getUnknownGlyphSymbol() == null)
+            break;
+         lines.add(line == null ? "" : line);
+      }
+      return join(field.engine.removeTrailingEmptyLines(lines));
+   }
+
+   protected static String join(List<String> lines) {
+      StringBuilder text = new StringBuilder();
+      for (int iLine = 0; iLine < lines.size(); iLine++) {
+         if (iLine > 0)
+            text.append('\n');
+         text.append(lines.get(iLine));
+      }
+      return text.toString();
+   }
+
+   /**
+    * @return null if nothing was recognized.
+    */
+   protected String recognizeLine(Field field, BufferedImage fieldImage, Color maskColor, Point topLeft) {
+      Map<String, LineCache> caches = lineCaches;
+      if (caches == null)
+         return field.engine.detectCharactersOnOneLine(fieldImage, maskColor, topLeft);
+      return caches.get(field.name).detectCharactersOnOneLine(field.engine, fieldImage, maskColor, topLeft);
+   }
+
+   /**
+    * Gives each field a new LineCache holding at most {@code maxLinesPerField} lines, or removes
+    * the caches if 0. No cache by default.
+    */
+   public void setLineCacheSize(int maxLinesPerField) {
+      if (maxLinesPerField < 0)
+         throw new IllegalArgumentException("The cache size cannot be negative.");
+      if (maxLinesPerField == 0) {
+         lineCaches = null;
+         return;
+      }
+      Map<String, LineCache> caches = new HashMap<>();
+      for (Field field : fields)
+         caches.put(field.name, new LineCache(maxLinesPerField));
+      lineCaches = caches;
+   }
+
+   /**
+    * @return null if the fields have no cache.
+    */
+   public LineCache getLineCache(String fieldName) {
+      Map<String, LineCache> caches = lineCaches;
+      return caches == null ? null : caches.get(fieldName);
+   }
+
+   /**
+    * @return an unmodifiable list of the fields.
+    */
+   public List<Field> getFields() {
+      return Collections.unmodifiableList(fields);
+   }
+}
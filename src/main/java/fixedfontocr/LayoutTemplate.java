@@ -0,0 +1,102 @@
+package fixedfontocr;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The text fields of a screen with a fixed layout: each field is a named rectangle of the screen,
+ * read with its own SearchTreeOCR, font color and line height. Once all the fields are added, the
+ * template is compiled into a LayoutRecognizer which reads all the fields of a frame at once.
+ */
+public class LayoutTemplate {
+
+   protected List<Field> fields = new ArrayList<>();
+   protected Set<String> names = new HashSet<>();
+
+   /**
+    * @param region in the coordinates of the frames. Its top left corner is that of the first line,
+    * including the {@code lineHeight} (see {@code SearchTreeOCR.detectCharactersOnMultipleLines}).
+    */
+   public LayoutTemplate addField(String name, Rectangle region, SearchTreeOCR engine, Color fontColor, int lineHeight) {
+      if (!names.add(name))
+         throw new IllegalArgumentException("There is already a field named " + name + ".");
+      if (region.isEmpty() || region.x < 0 || region.y < 0)
+         throw new IllegalArgumentException("The region of the field " + name + " must be a non-empty rectangle of the frame.");
+      if (lineHeight < engine.getGlyphHeight())
+         throw new IllegalArgumentException("The line height of the field " + name + " is smaller than its glyphs.");
+      fields.add(new Field(name, new Rectangle(region), engine, fontColor, lineHeight));
+      return this;
+   }
+
+   /**
+    * Uses the glyph height of the engine for the line height.
+    */
+   public LayoutTemplate addField(String name, Rectangle region, SearchTreeOCR engine, Color fontColor) {
+      return addField(name, region, engine, fontColor, engine.getGlyphHeight());
+   }
+
+   /**
+    * The fields are read in parallel in the common ForkJoinPool.
+    */
+   public LayoutRecognizer compile() {
+      return new LayoutRecognizer(fields, null);
+   }
+
+   /**
+    * @param executor reads the fields in parallel, or null to use the common ForkJoinPool.
+    */
+   public LayoutRecognizer compile(ExecutorService executor) {
+      return new LayoutRecognizer(fields, executor);
+   }
+
+   /**
+    * @return an unmodifiable list of the fields, in the order in which they were added.
+    */
+   public List<Field> getFields() {
+      return Collections.unmodifiableList(fields);
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   public static class Field {
+
+      protected String name;
+      protected Rectangle region;
+      protected SearchTreeOCR engine;
+      protected Color fontColor;
+      protected int lineHeight;
+
+      protected Field(String name, Rectangle region, SearchTreeOCR engine, Color fontColor, int lineHeight) {
+         this.name = name;
+         this.region = region;
+         this.engine = engine;
+         this.fontColor = fontColor;
+         this.lineHeight = lineHeight;
+      }
+
+      public String getName() {
+         return name;
+      }
+
+      public Rectangle getRegion() {
+         return new Rectangle(region);
+      }
+
+      public SearchTreeOCR getEngine() {
+         return engine;
+      }
+
+      public Color getFontColor() {
+         return fontColor;
+      }
+
+      public int getLineHeight() {
+         return lineHeight;
+      }
+   }
+}
@@ -0,0 +1,193 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import java.awt.Color;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * Finds where a line of text really starts when the caller only knows it approximately, such that
+ * the line can then be decoded once instead of retrying around the approximate position.
+ *
+ * <p> Vertically, the glyphs of a font have a signature: their ink is distributed over their rows
+ * in a way set by the ascent and descent of the font (see {@code FontGlyph.getLineMetrics}), with
+ * many pixels on the baseline and at the x-height, few in the descent, and none in some rows. The
+ * rows of the image around the line are counted once, and each candidate top is scored by the
+ * log-likelihood of the ink of the image under the row distribution of the glyphs. The ink of the
+ * scanned rows falling outside of the candidate line counts as very unlikely.
+ *
+ * <p> Horizontally, each candidate left edge is scored by the number of non-blank columns covered
+ * by the glyphs matched one after the other from there, up to a fixed distance to the right of the
+ * candidates. All the candidates are evaluated in one pass over a single LineBand: the longest
+ * match is looked up once per column, with a CompiledSearchTree of the plain glyphs reading the
+ * column masks of the band, and the coverage is accumulated from right to left, so the candidates
+ * whose decodings meet share the rest of the work. Among the best candidates the rightmost one is
+ * returned, so that the blank columns before the text are not counted as spaces.
+ */
+public class LineAligner {
+
+   /**
+    * The likelihood of a pixel in a row where no glyph has any.
+    */
+   protected static final double MIN_ROW_LIKELIHOOD = 1e-4;
+   protected SearchTreeOCR engine;
+   protected int glyphHeight;
+   protected double[] rowLogLikelihoods;
+   protected CompiledSearchTree compiledTree;
+   protected int alignmentWidth = 64;
+
+   public LineAligner(SearchTreeOCR engine) {
+      this.engine = engine;
+      this.glyphHeight = engine.getGlyphHeight();
+      rowLogLikelihoods = computeRowLogLikelihoods(engine.getGlyphs(), glyphHeight);
+   }
+
+   /**
+    * The log of the fraction of the pixels of all the glyphs which are in each row.
+    */
+   protected static double[] computeRowLogLikelihoods(List<FontGlyph> glyphs, int glyphHeight) {
+      double[] rowCounts = new double[glyphHeight];
+      double totalCount = 0;
+      for (FontGlyph glyph : glyphs) {
+         for (Point pixel : glyph.getActivePixels()) {
+            rowCounts[pixel.y]++;
+            totalCount++;
+         }
+      }
+      double[] logLikelihoods = new double[glyphHeight];
+      for (int iy = 0; iy < glyphHeight; iy++)
+         logLikelihoods[iy] = Math.log(Math.max(MIN_ROW_LIKELIHOOD, totalCount == 0 ? 0 : rowCounts[iy] / totalCount));
+      return logLikelihoods;
+   }
+
+   /**
+    * @param approximateTopLeft the top left corner of the line, wrong by at most {@code maxOffset}
+    * rows.
+    * @return the most likely top of the line, or {@code approximateTopLeft.y} if there is no ink
+    * around it.
+    */
+   public int findTop(BufferedImage image, Color fontColor, Point approximateTopLeft, int maxOffset) {
+      int scanTop = Math.max(0, approximateTopLeft.y - maxOffset);
+      int scanBottom = Math.min(image.getHeight(), approximateTopLeft.y + maxOffset + glyphHeight);
+      int width = image.getWidth() - approximateTopLeft.x;
+      if (width <= 0 || scanBottom - scanTop < glyphHeight)
+         return approximateTopLeft.y;
+      int[] rowCounts = countInkPerRow(image, fontColor, approximateTopLeft.x, scanTop, width, scanBottom - scanTop);
+      int totalCount = 0;
+      for (int count : rowCounts)
+         totalCount += count;
+      if (totalCount == 0)
+         return approximateTopLeft.y;
+      double logOutside = Math.log(MIN_ROW_LIKELIHOOD);
+      int bestTop = approximateTopLeft.y;
+      double bestScore = Double.NEGATIVE_INFINITY;
+      for (int top = scanTop; top + glyphHeight <= scanBottom; top++) {
+         double score = 0;
+         int insideCount = 0;
+         for (int iy = 0; iy < glyphHeight; iy++) {
+            int count = rowCounts[top - scanTop + iy];
+            score += count * rowLogLikelihoods[iy];
+            insideCount += count;
+         }
+         score += (totalCount - insideCount) * logOutside;
+         // Strictly better, or as good and closer to the approximate top.
+         if (score > bestScore || (score == bestScore
+                 && Math.abs(top - approximateTopLeft.y) < Math.abs(bestTop - approximateTopLeft.y))) {
+            bestScore = score;
+            bestTop = top;
+         }
+      }
+      return bestTop;
+   }
+
+   /**
+    * @param approximateTopLeft the top left corner of the line, with the right top, wrong by at most
+    * {@code maxOffset} columns.
+    * @return the left edge of the line matching the most non-blank columns, or
+    * {@code approximateTopLeft.x} if nothing matches around it.
+    */
+   public int findLeft(BufferedImage image, Color fontColor, Point approximateTopLeft, int maxOffset) {
+      int firstCandidate = Math.max(0, approximateTopLeft.x - maxOffset);
+      int lastCandidate = Math.min(image.getWidth() - 1, approximateTopLeft.x + maxOffset);
+      LineBand band = engine.createLineBand(image, fontColor, new Point(firstCandidate, approximateTopLeft.y));
+      if (band == null || lastCandidate < firstCandidate)
+         return approximateTopLeft.x;
+      CompiledSearchTree tree = getCompiledTree();
+      int end = Math.min(band.getRight(), lastCandidate + 1 + alignmentWidth);
+      // coveredColumns[x - firstCandidate]: the non-blank columns covered, before end, by the
+      // glyphs matched from x.
+      int[] coveredColumns = new int[end - firstCandidate + 1];
+      for (int x = end - 1; x >= firstCandidate; x--) {
+         int glyphIndex = tree.findLongestMatchIndex(band, x);
+         if (glyphIndex < 0)
+            continue;
+         int width = tree.getGlyphs().get(glyphIndex).getDimension().width;
+         if (width == 0)
+            continue;
+         int next = Math.min(x + width, end);
+         int covered = coveredColumns[next - firstCandidate];
+         for (int column = x; column < next; column++)
+            if (!band.isBlankColumn(column))
+               covered++;
+         coveredColumns[x - firstCandidate] = covered;
+      }
+      int bestLeft = approximateTopLeft.x;
+      int bestCovered = 0;
+      for (int x = firstCandidate; x <= lastCandidate; x++) {
+         if (coveredColumns[x - firstCandidate] > 0 && coveredColumns[x - firstCandidate] >= bestCovered) {
+            bestCovered = coveredColumns[x - firstCandidate];
+            bestLeft = x;
+         }
+      }
+      return bestLeft;
+   }
+
+   /**
+    * {@code findTop}, then {@code findLeft} on the line found.
+    */
+   public Point findTopLeft(BufferedImage image, Color fontColor, Point approximateTopLeft,
+           int maxVerticalOffset, int maxHorizontalOffset) {
+      int top = findTop(image, fontColor, approximateTopLeft, maxVerticalOffset);
+      int left = findLeft(image, fontColor, new Point(approximateTopLeft.x, top), maxHorizontalOffset);
+      return new Point(left, top);
+   }
+
+   /**
+    * Compiled on first use from the plain glyphs of the engine.
+    */
+   protected synchronized CompiledSearchTree getCompiledTree() {
+      if (compiledTree == null) {
+         List<FontGlyph> glyphs = engine.getGlyphs();
+         compiledTree = CompiledSearchTree.compile(new SearchTreeBuilder().build(glyphs), glyphs);
+      }
+      return compiledTree;
+   }
+
+   public int getAlignmentWidth() {
+      return alignmentWidth;
+   }
+
+   /**
+    * How far to the right of the candidate left edges the glyphs are matched (64 columns by
+    * default).
+    */
+   public void setAlignmentWidth(int alignmentWidth) {
+      this.alignmentWidth = alignmentWidth;
+   }
+
+   protected static int[] countInkPerRow(BufferedImage image, Color fontColor, int left, int top, int width, int height) {
+      int[] pixels = image.getRGB(left, top, width, height, null, 0, width);
+      int fontRGB = fontColor.getRGB();
+      int[] rowCounts = new int[height];
+      for (int iy = 0; iy < height; iy++)
+         for (int ix = 0; ix < width; ix++)
+            if (pixels[iy * width + ix] == fontRGB)
+               rowCounts[iy]++;
+      return rowCounts;
+   }
+
+   public SearchTreeOCR getEngine() {
+      return engine;
+   }
+}
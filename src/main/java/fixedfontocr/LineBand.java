@@ -0,0 +1,116 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.Glyph;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * The pixels of the font color in a horizontal band of an image, one text line high, stored as one
+ * column mask per column (see {@code Glyph.getColumnMasks}). The band goes from column
+ * {@code left} to the right edge of the image and all x coordinates are those of the image.
+ *
+ * <p> The band is read from the image in one call, its column masks are built by the default
+ * ColumnMaskExtractor, and the position of the next non-blank column is precomputed for every
+ * column, so runs of blank columns can be skipped in one step.
+ *
+ * <p> Two bands are equal if they have the same height and the same column masks, wherever they
+ * are in their images, so that a band can be the key of what was recognized in it (see
+ * LineCache).
+ */
+public class LineBand {
+
+   protected int left;
+   protected int top;
+   protected int height;
+   protected long[] columnMasks;
+   protected int[] nextNonBlankColumn;
+   protected int cachedHashCode;
+
+   public LineBand(BufferedImage image, Color fontColor, int left, int top, int height) {
+      if (height > Glyph.MAX_COLUMN_MASK_HEIGHT)
+         throw new IllegalArgumentException("A line band cannot be taller than "
+                 + Glyph.MAX_COLUMN_MASK_HEIGHT + " pixels.");
+      this.left = left;
+      this.top = top;
+      this.height = height;
+      int width = Math.max(0, image.getWidth() - left);
+      columnMasks = new long[width];
+      if (width > 0) {
+         int[] pixels = image.getRGB(left, top, width, height, null, 0, width);
+         ColumnMaskExtractor.getDefault().extract(pixels, width, height, fontColor.getRGB(), columnMasks);
+      }
+      nextNonBlankColumn = new int[width + 1];
+      nextNonBlankColumn[width] = left + width;
+      for (int ix = width - 1; ix >= 0; ix--)
+         nextNonBlankColumn[ix] = columnMasks[ix] != 0 ? left + ix : nextNonBlankColumn[ix + 1];
+   }
+
+   /**
+    * The x coordinate of the first column of the band.
+    */
+   public int getLeft() {
+      return left;
+   }
+
+   /**
+    * The x coordinate just after the last column of the band, i.e. the width of the image.
+    */
+   public int getRight() {
+      return left + columnMasks.length;
+   }
+
+   public int getTop() {
+      return top;
+   }
+
+   public int getHeight() {
+      return height;
+   }
+
+   public long getColumnMask(int x) {
+      return columnMasks[x - left];
+   }
+
+   public boolean isBlankColumn(int x) {
+      return columnMasks[x - left] == 0;
+   }
+
+   /**
+    * @return the number of consecutive blank columns starting at {@code x}, which can reach the
+    * right edge of the band.
+    */
+   public int getBlankRunLength(int x) {
+      if (x >= getRight())
+         return 0;
+      return nextNonBlankColumn[x - left] - x;
+   }
+
+   /**
+    * @return true if there is no pixel of the font color from {@code x} to the right edge.
+    */
+   public boolean isBlankToTheRight(int x) {
+      return x >= getRight() || nextNonBlankColumn[x - left] == getRight();
+   }
+
+   @Override
+   public boolean equals(Object obj) {
+      if (this == obj)
+         return true;
+      if (!(obj instanceof LineBand))
+         return false;
+      LineBand other = (LineBand) obj;
+      return hashCode() == other.hashCode() && height == other.height
+              && Arrays.equals(columnMasks, other.columnMasks);
+   }
+
+   /**
+    * Computed on first use, since most bands are never compared.
+    */
+   @Override
+   public int hashCode() {
+      if (cachedHashCode == 0)
+         cachedHashCode = 31 * Arrays.hashCode(columnMasks) + height;
+      return cachedHashCode;
+   }
+}
@@ -0,0 +1,167 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import java.awt.Color;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers what was recognized in the last lines read, such that a line with exactly the same
+ * pixels of the font color as one of them is not decoded again. On screens with a fixed layout,
+ * most lines do not change from one capture to the next.
+ *
+ * <p> The key of a line is its engine, the version of the engine (see
+ * {@code SearchTreeOCR.getVersion}) and its LineBand, which holds all the pixels an engine reads
+ * to decode a line, wherever the line is in its image. The lines decoded before a setting or the
+ * alphabet of the engine changed are then not found anymore, and are evicted in turn. Reading the
+ * band of a line is much cheaper than decoding it. The cache holds at most {@code maxSize} lines,
+ * the least recently used being evicted first.
+ *
+ * <p> The lines which cannot be read into a LineBand (see {@code SearchTreeOCR.createLineBand})
+ * are decoded each time and not counted in the statistics. A cache can be used by several
+ * threads; it is not locked while decoding.
+ */
+public class LineCache {
+
+   protected final int maxSize;
+   protected final Map<Key, List<FontGlyph>> entries;
+   protected long hitCount;
+   protected long missCount;
+   protected long evictionCount;
+
+   public LineCache(final int maxSize) {
+      if (maxSize <= 0)
+         throw new IllegalArgumentException("The cache must hold at least one line.");
+      this.maxSize = maxSize;
+      entries = new LinkedHashMap<Key, List<FontGlyph>>(16, 0.75f, true) {
+
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<Key, List<FontGlyph>> eldest) {
+            if (size() <= maxSize)
+               return false;
+            evictionCount++;
+            return true;
+         }
+      };
+   }
+
+   /**
+    * Same as {@code engine.detectGlyphsOnOneLine}, from the cache if possible.
+    *
+    * @return null if detected nothing.
+    */
+   public List<FontGlyph> detectGlyphsOnOneLine(SearchTreeOCR engine, BufferedImage image, Color fontColor, Point topLeft) {
+      LineBand band = engine.createLineBand(image, fontColor, topLeft);
+      if (band == null)
+         return engine.detectGlyphsOnOneLine(image, fontColor, new Point(topLeft));
+      Key key = new Key(engine, engine.getVersion(), band);
+      synchronized (this) {
+         if (entries.containsKey(key)) {
+            hitCount++;
+            return entries.get(key);
+         }
+         missCount++;
+      }
+      List<FontGlyph> glyphs = engine.detectGlyphsOnOneLine(image, fontColor, new Point(topLeft));
+      if (glyphs != null)
+         glyphs = Collections.unmodifiableList(new ArrayList<>(glyphs));
+      synchronized (this) {
+         entries.put(key, glyphs);
+      }
+      return glyphs;
+   }
+
+   /**
+    * Same as {@code engine.detectCharactersOnOneLine}, from the cache if possible.
+    *
+    * @return null if detected nothing.
+    */
+   public String detectCharactersOnOneLine(SearchTreeOCR engine, BufferedImage image, Color fontColor, Point topLeft) {
+      List<FontGlyph> glyphsOnLine = detectGlyphsOnOneLine(engine, image, fontColor, topLeft);
+      if (glyphsOnLine == null)
+         return null;
+      StringBuilder stringBuilder = new StringBuilder();
+      for (FontGlyph glyph : glyphsOnLine)
+         stringBuilder.append(glyph.getGeneratingString());
+      return stringBuilder.toString();
+   }
+
+   public synchronized void clear() {
+      entries.clear();
+   }
+
+   public int getMaxSize() {
+      return maxSize;
+   }
+
+   public synchronized int size() {
+      return entries.size();
+   }
+
+   /**
+    * The number of lines found in the cache.
+    */
+   public synchronized long getHitCount() {
+      return hitCount;
+   }
+
+   /**
+    * The number of lines decoded because they were not in the cache.
+    */
+   public synchronized long getMissCount() {
+      return missCount;
+   }
+
+   public synchronized long getEvictionCount() {
+      return evictionCount;
+   }
+
+   /**
+    * @return 0 if no line was looked up.
+    */
+   public synchronized double getHitRate() {
+      long lookupCount = hitCount + missCount;
+      return lookupCount == 0 ? 0 : (double) hitCount / lookupCount;
+   }
+
+   @Override
+   public synchronized String toString() {
+      return String.format("%d/%d lines, %d hits, %d misses, %d evictions", entries.size(), maxSize,
+              hitCount, missCount, evictionCount);
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * An engine, compared by identity, its version and a band.
+    */
+   protected static class Key {
+
+      protected SearchTreeOCR engine;
+      protected int version;
+      protected LineBand band;
+
+      protected Key(SearchTreeOCR engine, int version, LineBand band) {
+         this.engine = engine;
+         this.version = version;
+         this.band = band;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (!(obj instanceof Key))
+            return false;
+         Key other = (Key) obj;
+         return engine == other.engine && version == other.version && band.equals(other.band);
+      }
+
+      @Override
+      public int hashCode() {
+         return 31 * (31 * System.identityHashCode(engine) + version) + band.hashCode();
+      }
+   }
+}
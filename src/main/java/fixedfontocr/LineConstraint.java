@@ -0,0 +1,219 @@
+package fixedfontocr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What the text of a line may be, for fields following a known grammar (numbers, timestamps,
+ * identifiers...), used to decode the line (see
+ * {@code SearchTreeOCRWithLeakedPixels.detectGlyphsOnOneLine}).
+ *
+ * <p> A constraint is read symbol by symbol, like an automaton: each state tells which symbols may
+ * come next, and whether the line may end there. The states must implement {@code equals} and
+ * {@code hashCode}, since the decoding is memoized per state.
+ *
+ * <p> The symbols of the per-position and token constraints are single characters.
+ */
+public abstract class LineConstraint {
+
+   public abstract Object getStartState();
+
+   /**
+    * @return the symbols which may follow, or null if it is not known in advance, in which case
+    * each symbol is checked with {@code next}.
+    */
+   public abstract Set<String> getAllowedSymbols(Object state);
+
+   /**
+    * @return the state after {@code symbol}, or null if {@code symbol} may not follow.
+    */
+   public abstract Object next(Object state, String symbol);
+
+   /**
+    * @return true if the line may end in {@code state}.
+    */
+   public abstract boolean isAccepting(Object state);
+
+   /**
+    * @return true if the whole {@code text} is allowed.
+    */
+   public boolean accepts(String text) {
+      Object state = getStartState();
+      for (String symbol : toSymbols(text)) {
+         state = next(state, symbol);
+         if (state == null)
+            return false;
+      }
+      return isAccepting(state);
+   }
+
+   protected static List<String> toSymbols(String text) {
+      List<String> symbols = new ArrayList<>(text.length());
+      for (int i = 0; i < text.length(); i += Character.charCount(text.codePointAt(i)))
+         symbols.add(new String(Character.toChars(text.codePointAt(i))));
+      return symbols;
+   }
+
+   /**
+    * The whole line must match {@code regex}. Whether a symbol may follow is only known by trying
+    * it, so the glyphs searched at each position are not restricted.
+    */
+   public static LineConstraint matching(String regex) {
+      return new RegexConstraint(Pattern.compile(regex));
+   }
+
+   /**
+    * The line has {@code allowedSymbolsPerPosition.length} symbols, the symbol at position i being
+    * one of the characters of {@code allowedSymbolsPerPosition[i]}.
+    */
+   public static LineConstraint perPosition(String... allowedSymbolsPerPosition) {
+      List<Set<String>> allowedSymbols = new ArrayList<>();
+      for (String symbols : allowedSymbolsPerPosition)
+         allowedSymbols.add(Collections.unmodifiableSet(new HashSet<>(toSymbols(symbols))));
+      return new PerPositionConstraint(allowedSymbols);
+   }
+
+   /**
+    * The line is one of the {@code tokens}.
+    */
+   public static LineConstraint oneOf(Collection<String> tokens) {
+      TrieNode root = new TrieNode();
+      for (String token : tokens) {
+         TrieNode node = root;
+         for (String symbol : toSymbols(token)) {
+            if (!node.children.containsKey(symbol))
+               node.children.put(symbol, new TrieNode());
+            node = node.children.get(symbol);
+         }
+         node.isEndOfToken = true;
+      }
+      return new TokensConstraint(root);
+   }
+
+   public static LineConstraint oneOf(String... tokens) {
+      return oneOf(Arrays.asList(tokens));
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * The states are the prefixes read so far. A symbol may follow if the prefix with the symbol
+    * matches, or could match with more symbols ({@code Matcher.hitEnd}).
+    */
+   protected static class RegexConstraint extends LineConstraint {
+
+      protected Pattern pattern;
+
+      protected RegexConstraint(Pattern pattern) {
+         this.pattern = pattern;
+      }
+
+      @Override
+      public Object getStartState() {
+         return "";
+      }
+
+      @Override
+      public Set<String> getAllowedSymbols(Object state) {
+         return null;
+      }
+
+      @Override
+      public Object next(Object state, String symbol) {
+         String prefix = state + symbol;
+         Matcher matcher = pattern.matcher(prefix);
+         if (matcher.matches() || matcher.hitEnd())
+            return prefix;
+         return null;
+      }
+
+      @Override
+      public boolean isAccepting(Object state) {
+         return pattern.matcher((String) state).matches();
+      }
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * The states are the positions.
+    */
+   protected static class PerPositionConstraint extends LineConstraint {
+
+      protected List<Set<String>> allowedSymbols;
+
+      protected PerPositionConstraint(List<Set<String>> allowedSymbols) {
+         this.allowedSymbols = allowedSymbols;
+      }
+
+      @Override
+      public Object getStartState() {
+         return 0;
+      }
+
+      @Override
+      public Set<String> getAllowedSymbols(Object state) {
+         int position = (Integer) state;
+         return position < allowedSymbols.size() ? allowedSymbols.get(position) : Collections.<String>emptySet();
+      }
+
+      @Override
+      public Object next(Object state, String symbol) {
+         int position = (Integer) state;
+         if (position >= allowedSymbols.size() || !allowedSymbols.get(position).contains(symbol))
+            return null;
+         return position + 1;
+      }
+
+      @Override
+      public boolean isAccepting(Object state) {
+         return (Integer) state == allowedSymbols.size();
+      }
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * The states are the nodes of a trie of the tokens, compared by identity.
+    */
+   protected static class TokensConstraint extends LineConstraint {
+
+      protected TrieNode root;
+
+      protected TokensConstraint(TrieNode root) {
+         this.root = root;
+      }
+
+      @Override
+      public Object getStartState() {
+         return root;
+      }
+
+      @Override
+      public Set<String> getAllowedSymbols(Object state) {
+         return ((TrieNode) state).children.keySet();
+      }
+
+      @Override
+      public Object next(Object state, String symbol) {
+         return ((TrieNode) state).children.get(symbol);
+      }
+
+      @Override
+      public boolean isAccepting(Object state) {
+         return ((TrieNode) state).isEndOfToken;
+      }
+   }
+
+   protected static class TrieNode {
+
+      protected Map<String, TrieNode> children = new HashMap<>();
+      protected boolean isEndOfToken;
+   }
+}
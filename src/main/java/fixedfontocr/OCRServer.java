@@ -0,0 +1,665 @@
+package fixedfontocr;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Keeps the engines of some fonts warm in one process and reads the images sent by local clients
+ * over HTTP, so that the clients do not each pay the time and the memory of building the engines.
+ * The server only listens on the loopback address.
+ *
+ * <p> {@code POST /ocr?font=Monospaced,plain,12} with an image file (PNG, BMP...) as body returns
+ * {@code {"lines":[...],"millis":...}}. The other parameters are {@code color} (RRGGBB, black by
+ * default), {@code region} (x,y,width,height: the part of the image to read, all of it by
+ * default), {@code origin} (x,y in the region, 0,0 by default), {@code lineHeight} and
+ * {@code maxVerticalOffset} (see {@code SearchTreeOCR.detectCharactersOnMultipleLines}). The font
+ * is given as for BatchOCR; its engine is built on its first request, or at start with
+ * {@code --font}, up to {@code maxEngines} fonts. The body is at most {@code MAX_BODY_BYTES} long, and
+ * the image at most {@code MAX_IMAGE_PIXELS} large.
+ * {@code GET /stats} returns the queue depth, the batches, the duplicate requests and the
+ * latency percentiles.
+ *
+ * <p> The requests are queued once their image is decoded, unless {@code maxQueueSize} requests
+ * are already waiting: the server then answers 503 at once. A request which times out is not read
+ * anymore. A dispatcher takes the requests waiting in the queue, and waits up to
+ * {@code batchWindowMillis} for more, up to {@code maxBatchSize}. The identical requests of a batch
+ * (same engine, pixels and parameters, as when several clients poll the same part of a screen) are
+ * read once, and their lines are given to all of them. Each distinct request of a batch is then
+ * given to the workers on its own, so a burst of requests for one font is read by all the workers
+ * at once, sharing the warm engine of the font. {@code /stats} also tells how bursty the load is,
+ * and how many requests were answered by an identical one.
+ */
+public class OCRServer {
+
+   public static final String USAGE = "Usage: OCRServer [options]\n"
+           + "  --port <port>                  the local port to listen to (default 8765)\n"
+           + "  --threads <n>                  the number of workers (default: the number of processors)\n"
+           + "  --max-batch-size <n>           the most requests taken from the queue at once (default 16)\n"
+           + "  --batch-window-millis <ms>     how long to wait for more requests once one came (default 2)\n"
+           + "  --font <name>,<style>,<size>   a font whose engine is built at start; can be repeated\n"
+           + "  --max-fonts <n>                the most fonts with an engine, including those of --font (default 8)\n"
+           + "  --max-queue-size <n>           the most requests waiting for a worker (default 1024)";
+   public static final int DEFAULT_MAX_ENGINES = 8;
+   public static final int DEFAULT_MAX_QUEUE_SIZE = 1024;
+   public static final int MAX_BODY_BYTES = 32 << 20;
+   /**
+    * The most pixels of an image, checked from its header before decoding it, since a small
+    * compressed body can decode to a huge image.
+    */
+   public static final int MAX_IMAGE_PIXELS = 32 << 20;
+   protected static final long REQUEST_TIMEOUT_SECONDS = 60;
+
+   protected HttpServer httpServer;
+   protected ExecutorService handlerExecutor;
+   protected ExecutorService workers;
+   protected Thread dispatcher;
+   protected BlockingQueue<Job> queue;
+   protected int maxBatchSize;
+   protected long batchWindowMillis;
+   protected Map<Font, CompletableFuture<SearchTreeOCR>> engines = new ConcurrentHashMap<>();
+   protected int maxEngines = DEFAULT_MAX_ENGINES;
+   protected Stats stats = new Stats();
+
+   /**
+    * @param port 0 for any free port (see {@code getPort}).
+    */
+   public OCRServer(int port, int nWorkers, int maxBatchSize, long batchWindowMillis) throws IOException {
+      this(port, nWorkers, maxBatchSize, batchWindowMillis, DEFAULT_MAX_QUEUE_SIZE);
+   }
+
+   /**
+    * @param port 0 for any free port (see {@code getPort}).
+    * @param maxQueueSize the most requests waiting for a worker; the other requests are rejected.
+    */
+   public OCRServer(int port, int nWorkers, int maxBatchSize, long batchWindowMillis, int maxQueueSize)
+           throws IOException {
+      if (nWorkers < 1 || maxBatchSize < 1 || batchWindowMillis < 0 || maxQueueSize < 1)
+         throw new IllegalArgumentException("Must have some workers, a positive batch size and queue size, and a non-negative window.");
+      queue = new LinkedBlockingQueue<>(maxQueueSize);
+      this.maxBatchSize = maxBatchSize;
+      this.batchWindowMillis = batchWindowMillis;
+      workers = Executors.newFixedThreadPool(nWorkers);
+      // The handlers wait for the workers, so there are more of them.
+      handlerExecutor = Executors.newFixedThreadPool(4 * nWorkers);
+      httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+      httpServer.setExecutor(handlerExecutor);
+      httpServer.createContext("/ocr", new HttpHandler() {
+
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            handleOCR(exchange);
+         }
+      });
+      httpServer.createContext("/stats", new HttpHandler() {
+
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            respond(exchange, 200, stats.toJson(queue.size()));
+         }
+      });
+      dispatcher = new Thread(new Runnable() {
+
+         @Override
+         public void run() {
+            dispatch();
+         }
+      }, "OCRServer dispatcher");
+      dispatcher.setDaemon(true);
+   }
+
+   public static void main(String[] args) throws IOException {
+      if (System.getProperty("java.awt.headless") == null)
+         System.setProperty("java.awt.headless", "true");
+      int port = 8765;
+      int nWorkers = Runtime.getRuntime().availableProcessors();
+      int maxBatchSize = 16;
+      long batchWindowMillis = 2;
+      int maxEngines = DEFAULT_MAX_ENGINES;
+      int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+      List<String> fontSpecs = new ArrayList<>();
+      try {
+         for (int iArg = 0; iArg < args.length; iArg += 2) {
+            if (iArg + 1 == args.length)
+               throw new IllegalArgumentException("Missing the value of " + args[iArg] + ".");
+            String value = args[iArg + 1];
+            switch (args[iArg]) {
+               case "--port":
+                  port = BatchOCR.parseInts(args[iArg], value, 1)[0];
+                  break;
+               case "--threads":
+                  nWorkers = BatchOCR.parseInts(args[iArg], value, 1)[0];
+                  break;
+               case "--max-batch-size":
+                  maxBatchSize = BatchOCR.parseInts(args[iArg], value, 1)[0];
+                  break;
+               case "--batch-window-millis":
+                  batchWindowMillis = BatchOCR.parseInts(args[iArg], value, 1)[0];
+                  break;
+               case "--font":
+                  fontSpecs.add(value);
+                  break;
+               case "--max-fonts":
+                  maxEngines = BatchOCR.parseInts(args[iArg], value, 1)[0];
+                  break;
+               case "--max-queue-size":
+                  maxQueueSize = BatchOCR.parseInts(args[iArg], value, 1)[0];
+                  break;
+               default:
+                  throw new IllegalArgumentException("Unknown option " + args[iArg] + ".");
+            }
+         }
+         OCRServer server = new OCRServer(port, nWorkers, maxBatchSize, batchWindowMillis, maxQueueSize);
+         server.setMaxEngines(maxEngines);
+         for (String fontSpec : fontSpecs)
+            server.getEngine(fontSpec);
+         server.start();
+         System.err.println("Listening on http://localhost:" + server.getPort() + "/ocr");
+      } catch (IllegalArgumentException e) {
+         System.err.println(e.getMessage());
+         System.err.println(USAGE);
+         System.exit(2);
+      }
+   }
+
+   public void start() {
+      dispatcher.start();
+      httpServer.start();
+   }
+
+   /**
+    * Stops listening; the requests not read yet fail.
+    */
+   public void stop() {
+      httpServer.stop(0);
+      dispatcher.interrupt();
+      workers.shutdownNow();
+      handlerExecutor.shutdownNow();
+      List<Job> pendingJobs = new ArrayList<>();
+      queue.drainTo(pendingJobs);
+      for (Job job : pendingJobs)
+         job.result.completeExceptionally(new IllegalStateException("The server is stopped."));
+   }
+
+   public int getPort() {
+      return httpServer.getAddress().getPort();
+   }
+
+   public Stats getStats() {
+      return stats;
+   }
+
+   public int getQueueDepth() {
+      return queue.size();
+   }
+
+   public int getMaxEngines() {
+      return maxEngines;
+   }
+
+   /**
+    * The most fonts the server builds an engine for, such that the clients cannot fill the memory
+    * with engines. {@code DEFAULT_MAX_ENGINES} by default.
+    */
+   public void setMaxEngines(int maxEngines) {
+      if (maxEngines < 1)
+         throw new IllegalArgumentException("Must allow at least one engine.");
+      this.maxEngines = maxEngines;
+   }
+
+   /**
+    * The engine of the font of {@code fontSpec}, built on first use by the thread asking for it. It
+    * is built outside of any lock: the requests for the fonts already built do not wait for it, and
+    * the other requests for the same font wait for the same engine.
+    *
+    * @throws IllegalArgumentException if {@code fontSpec} is not valid, or if it is a new font and
+    * the server already has {@code maxEngines} engines.
+    */
+   public SearchTreeOCR getEngine(String fontSpec) {
+      Font font = BatchOCR.parseFont(fontSpec);
+      CompletableFuture<SearchTreeOCR> engine = engines.get(font);
+      if (engine == null) {
+         CompletableFuture<SearchTreeOCR> newEngine = new CompletableFuture<>();
+         synchronized (engines) {
+            engine = engines.get(font);
+            if (engine == null) {
+               if (engines.size() >= maxEngines)
+                  throw new IllegalArgumentException("The server already has the engines of " + maxEngines + " fonts.");
+               engines.put(font, newEngine);
+            }
+         }
+         if (engine == null) {
+            engine = newEngine;
+            try {
+               SearchTreeOCR ocr = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font);
+               ocr.setEndLineOnTrailingBlank(true);
+               newEngine.complete(ocr);
+            } catch (RuntimeException | Error e) {
+               engines.remove(font);
+               newEngine.completeExceptionally(e);
+               throw e;
+            }
+         }
+      }
+      return engine.join();
+   }
+
+   /**
+    * Queues a request and waits for its lines. If the wait is abandoned, the request is cancelled
+    * and the workers skip it.
+    *
+    * @throws IllegalArgumentException if the request is not valid.
+    * @throws RejectedExecutionException if the queue is full.
+    */
+   public List<String> recognize(BufferedImage image, Map<String, String> parameters) throws IOException {
+      Job job = createJob(image, parameters);
+      stats.addQueueDepth(queue.size() + 1);
+      if (!queue.offer(job))
+         throw new RejectedExecutionException("The server is busy: " + queue.size() + " requests are waiting.");
+      try {
+         return job.result.get(REQUEST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+         job.result.cancel(false);
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while waiting for the request.", e);
+      } catch (TimeoutException e) {
+         job.result.cancel(false);
+         throw new IOException("The request timed out.", e);
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof RuntimeException)
+            throw (RuntimeException) e.getCause();
+         throw new IOException(e.getCause());
+      }
+   }
+
+   protected Job createJob(BufferedImage image, Map<String, String> parameters) {
+      String fontSpec = parameters.get("font");
+      if (fontSpec == null)
+         throw new IllegalArgumentException("Missing the font parameter.");
+      Job job = new Job(getEngine(fontSpec));
+      if (parameters.containsKey("color"))
+         job.fontColor = BatchOCR.parseColor(parameters.get("color"));
+      if (parameters.containsKey("region")) {
+         int[] region = BatchOCR.parseInts("region", parameters.get("region"), 4);
+         Rectangle bounds = new Rectangle(region[0], region[1], region[2], region[3]);
+         if (bounds.isEmpty() || !new Rectangle(image.getWidth(), image.getHeight()).contains(bounds))
+            throw new IllegalArgumentException("The region must be a non-empty part of the image.");
+         image = image.getSubimage(bounds.x, bounds.y, bounds.width, bounds.height);
+      }
+      job.image = image;
+      job.imageHash = hashPixels(image);
+      if (parameters.containsKey("origin")) {
+         int[] origin = BatchOCR.parseInts("origin", parameters.get("origin"), 2);
+         job.origin = new Point(origin[0], origin[1]);
+      }
+      job.lineHeight = parameters.containsKey("lineHeight")
+              ? BatchOCR.parseInts("lineHeight", parameters.get("lineHeight"), 1)[0] : job.engine.getGlyphHeight();
+      if (job.lineHeight < job.engine.getGlyphHeight())
+         throw new IllegalArgumentException("The line height is smaller than the glyphs.");
+      if (parameters.containsKey("maxVerticalOffset"))
+         job.maxVerticalOffset = BatchOCR.parseInts("maxVerticalOffset", parameters.get("maxVerticalOffset"), 1)[0];
+      return job;
+   }
+
+   /**
+    * Computed by the handler threads, such that the dispatcher only compares the pixels of the
+    * requests which are most likely identical.
+    */
+   protected static int hashPixels(BufferedImage image) {
+      int hash = 31 * image.getWidth() + image.getHeight();
+      int[] row = new int[image.getWidth()];
+      for (int y = 0; y < image.getHeight(); y++)
+         hash = 31 * hash + Arrays.hashCode(image.getRGB(0, y, row.length, 1, row, 0, row.length));
+      return hash;
+   }
+
+   protected static boolean hasSamePixels(BufferedImage image, BufferedImage otherImage) {
+      if (image == otherImage)
+         return true;
+      if (image.getWidth() != otherImage.getWidth() || image.getHeight() != otherImage.getHeight())
+         return false;
+      int[] row = new int[image.getWidth()];
+      int[] otherRow = new int[image.getWidth()];
+      for (int y = 0; y < image.getHeight(); y++)
+         if (!Arrays.equals(image.getRGB(0, y, row.length, 1, row, 0, row.length),
+                 otherImage.getRGB(0, y, row.length, 1, otherRow, 0, row.length)))
+            return false;
+      return true;
+   }
+
+   protected void handleOCR(HttpExchange exchange) throws IOException {
+      try {
+         if (!"POST".equals(exchange.getRequestMethod())) {
+            stats.addFailure();
+            respond(exchange, 405, "{\"error\":\"Expecting a POST of an image.\"}");
+            return;
+         }
+         long start = System.nanoTime();
+         byte[] body = readAll(exchange.getRequestBody(), MAX_BODY_BYTES);
+         if (body == null) {
+            stats.addFailure();
+            respond(exchange, 413, "{\"error\":\"The image is larger than " + MAX_BODY_BYTES + " bytes.\"}");
+            return;
+         }
+         BufferedImage image;
+         try (ImageInputStream imageInput = ImageIO.createImageInputStream(new ByteArrayInputStream(body))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInput);
+            if (!readers.hasNext())
+               throw new IllegalArgumentException("The body is not a readable image.");
+            ImageReader reader = readers.next();
+            try {
+               reader.setInput(imageInput, true, true);
+               long nPixels = (long) reader.getWidth(0) * reader.getHeight(0);
+               if (nPixels > MAX_IMAGE_PIXELS) {
+                  stats.addFailure();
+                  respond(exchange, 413, "{\"error\":\"The image has " + nPixels + " pixels, more than "
+                          + MAX_IMAGE_PIXELS + ".\"}");
+                  return;
+               }
+               image = reader.read(0);
+            } finally {
+               reader.dispose();
+            }
+         }
+         List<String> lines = recognize(image, parseQuery(exchange.getRequestURI().getRawQuery()));
+         StringBuilder json = new StringBuilder("{\"lines\":[");
+         for (int iLine = 0; iLine < lines.size(); iLine++) {
+            if (iLine > 0)
+               json.append(',');
+            json.append(BatchOCR.toJsonString(lines.get(iLine)));
+         }
+         json.append("],\"millis\":").append(String.format(Locale.ROOT, "%.3f", (System.nanoTime() - start) / 1e6));
+         respond(exchange, 200, json.append('}').toString());
+      } catch (RejectedExecutionException e) {
+         stats.addFailure();
+         respond(exchange, 503, "{\"error\":" + BatchOCR.toJsonString(e.getMessage()) + "}");
+      } catch (IllegalArgumentException e) {
+         stats.addFailure();
+         respond(exchange, 400, "{\"error\":" + BatchOCR.toJsonString(String.valueOf(e.getMessage())) + "}");
+      } catch (IOException | RuntimeException e) {
+         stats.addFailure();
+         respond(exchange, 500, "{\"error\":" + BatchOCR.toJsonString(String.valueOf(e.getMessage())) + "}");
+      }
+   }
+
+   protected static byte[] readAll(InputStream input) throws IOException {
+      return readAll(input, Integer.MAX_VALUE);
+   }
+
+   /**
+    * @return null if there are more than {@code maxBytes} bytes, which are not all read.
+    */
+   protected static byte[] readAll(InputStream input, int maxBytes) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      for (int nRead; (nRead = input.read(buffer)) > 0;) {
+         if (bytes.size() > maxBytes - nRead)
+            return null;
+         bytes.write(buffer, 0, nRead);
+      }
+      return bytes.toByteArray();
+   }
+
+   protected static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+      Map<String, String> parameters = new HashMap<>();
+      if (query == null)
+         return parameters;
+      for (String parameter : query.split("&")) {
+         int equals = parameter.indexOf('=');
+         if (equals > 0)
+            parameters.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                    URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+      }
+      return parameters;
+   }
+
+   protected static void respond(HttpExchange exchange, int status, String json) throws IOException {
+      byte[] body = json.getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders(status, body.length);
+      try (OutputStream output = exchange.getResponseBody()) {
+         output.write(body);
+      }
+   }
+
+   /**
+    * Takes batches from the queue until the server is stopped. The later identical requests of a
+    * batch are answered with the lines of the first one.
+    */
+   protected void dispatch() {
+      try {
+         while (true) {
+            List<Job> batch = new ArrayList<>();
+            batch.add(queue.take());
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchWindowMillis);
+            queue.drainTo(batch, maxBatchSize - batch.size());
+            while (batch.size() < maxBatchSize) {
+               Job job = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+               if (job == null)
+                  break;
+               batch.add(job);
+               queue.drainTo(batch, maxBatchSize - batch.size());
+            }
+            List<Job> distinctJobs = new ArrayList<>();
+            for (Job job : batch) {
+               Job sameJob = null;
+               for (Job distinctJob : distinctJobs)
+                  if (distinctJob.isSameRequest(job)) {
+                     sameJob = distinctJob;
+                     break;
+                  }
+               if (sameJob != null)
+                  sameJob.duplicates.add(job);
+               else
+                  distinctJobs.add(job);
+            }
+            stats.addBatch(batch.size(), batch.size() - distinctJobs.size());
+            for (final Job job : distinctJobs) {
+               workers.execute(new Runnable() {
+
+                  @Override
+                  public void run() {
+                     job.run(stats);
+                  }
+               });
+            }
+         }
+      } catch (InterruptedException e) {
+         // The server is stopped.
+      }
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * A request in the queue.
+    */
+   protected static class Job {
+
+      protected SearchTreeOCR engine;
+      protected BufferedImage image;
+      protected int imageHash;
+      protected Color fontColor = Color.BLACK;
+      protected Point origin = new Point(0, 0);
+      protected int lineHeight;
+      protected int maxVerticalOffset;
+      protected long queuedNanos = System.nanoTime();
+      protected CompletableFuture<List<String>> result = new CompletableFuture<>();
+      /**
+       * The identical requests of the same batch, answered with the lines of this one.
+       */
+      protected List<Job> duplicates = new ArrayList<>();
+
+      protected Job(SearchTreeOCR engine) {
+         this.engine = engine;
+      }
+
+      protected boolean isSameRequest(Job job) {
+         return engine == job.engine && imageHash == job.imageHash && fontColor.equals(job.fontColor)
+                 && origin.equals(job.origin) && lineHeight == job.lineHeight
+                 && maxVerticalOffset == job.maxVerticalOffset && hasSamePixels(image, job.image);
+      }
+
+      /**
+       * Does nothing if the request and its duplicates were all cancelled while they were queued.
+       */
+      protected void run(Stats stats) {
+         boolean isDone = result.isDone();
+         for (Job duplicate : duplicates)
+            isDone &= duplicate.result.isDone();
+         if (isDone)
+            return;
+         try {
+            List<String> lines = maxVerticalOffset > 0
+                    ? engine.detectCharactersOnMultipleLines(image, fontColor, lineHeight, origin, maxVerticalOffset)
+                    : engine.detectCharactersOnMultipleLines(image, fontColor, lineHeight, origin);
+            complete(stats, lines);
+            for (Job duplicate : duplicates)
+               duplicate.complete(stats, lines);
+         } catch (RuntimeException | Error e) {
+            result.completeExceptionally(e);
+            for (Job duplicate : duplicates)
+               duplicate.result.completeExceptionally(e);
+         }
+      }
+
+      protected void complete(Stats stats, List<String> lines) {
+         if (result.isDone())
+            return;
+         stats.addLatency(System.nanoTime() - queuedNanos);
+         result.complete(lines);
+      }
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * What the server did since it started. The latencies go from the queuing of a request to its
+    * lines, and the percentiles are those of the last {@code LATENCY_WINDOW} requests.
+    */
+   public static class Stats {
+
+      public static final int LATENCY_WINDOW = 4096;
+      protected long nRequests;
+      protected long nFailedRequests;
+      protected long nBatches;
+      protected long nBatchedRequests;
+      protected long nDuplicateRequests;
+      protected int maxBatchSize;
+      protected int maxQueueDepth;
+      protected long[] latencies = new long[LATENCY_WINDOW];
+
+      protected synchronized void addLatency(long nanos) {
+         latencies[(int) (nRequests % LATENCY_WINDOW)] = nanos;
+         nRequests++;
+      }
+
+      protected synchronized void addFailure() {
+         nFailedRequests++;
+      }
+
+      /**
+       * @param nDuplicates the requests of the batch answered by an identical request.
+       */
+      protected synchronized void addBatch(int size, int nDuplicates) {
+         nBatches++;
+         nBatchedRequests += size;
+         nDuplicateRequests += nDuplicates;
+         maxBatchSize = Math.max(maxBatchSize, size);
+      }
+
+      protected synchronized void addQueueDepth(int queueDepth) {
+         maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+      }
+
+      /**
+       * The requests read successfully.
+       */
+      public synchronized long getRequestCount() {
+         return nRequests;
+      }
+
+      public synchronized long getFailedRequestCount() {
+         return nFailedRequests;
+      }
+
+      public synchronized long getBatchCount() {
+         return nBatches;
+      }
+
+      public synchronized double getMeanBatchSize() {
+         return nBatches == 0 ? 0 : (double) nBatchedRequests / nBatches;
+      }
+
+      /**
+       * The requests answered with the lines of an identical request of their batch.
+       */
+      public synchronized long getDuplicateRequestCount() {
+         return nDuplicateRequests;
+      }
+
+      public synchronized int getMaxBatchSize() {
+         return maxBatchSize;
+      }
+
+      public synchronized int getMaxQueueDepth() {
+         return maxQueueDepth;
+      }
+
+      /**
+       * @param percentile from 0 to 100.
+       * @return 0 if no request was read.
+       */
+      public synchronized double getLatencyMillis(double percentile) {
+         int nLatencies = (int) Math.min(nRequests, LATENCY_WINDOW);
+         if (nLatencies == 0)
+            return 0;
+         long[] sortedLatencies = Arrays.copyOf(latencies, nLatencies);
+         Arrays.sort(sortedLatencies);
+         int index = (int) Math.ceil(percentile / 100 * nLatencies) - 1;
+         return sortedLatencies[Math.max(0, Math.min(nLatencies - 1, index))] / 1e6;
+      }
+
+      public synchronized String toJson(int queueDepth) {
+         return String.format(Locale.ROOT, "{\"queueDepth\":%d,\"maxQueueDepth\":%d,\"requests\":%d,"
+                 + "\"failedRequests\":%d,\"batches\":%d,\"meanBatchSize\":%.2f,\"maxBatchSize\":%d,"
+                 + "\"duplicateRequests\":%d,\"latencyMillis\":{\"p50\":%.3f,\"p90\":%.3f,\"p99\":%.3f,\"max\":%.3f}}",
+                 queueDepth, maxQueueDepth, nRequests, nFailedRequests, nBatches, getMeanBatchSize(),
+                 maxBatchSize, nDuplicateRequests, getLatencyMillis(50), getLatencyMillis(90), getLatencyMillis(99),
+                 getLatencyMillis(100));
+      }
+   }
+}
@@ -0,0 +1,180 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.ApproximateGlyph;
+import fixedfontocr.glyph.FontGlyph;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A line read by {@code SearchTreeOCR.recognizeOneLine}: for each glyph, where it is, how it was
+ * matched, and the other symbols which have exactly the same pixels, such as 'l' and 'I' in some
+ * fonts. The matched glyph is one of them, picked arbitrarily, so a caller knowing what to expect
+ * (a number, a word of a dictionary...) can pick another one without reading the image again.
+ */
+public class RecognizedLine {
+
+   protected List<Match> matches;
+
+   protected RecognizedLine(List<Match> matches) {
+      this.matches = matches;
+   }
+
+   /**
+    * @return an unmodifiable list of the matches, from left to right.
+    */
+   public List<Match> getMatches() {
+      return Collections.unmodifiableList(matches);
+   }
+
+   /**
+    * The text of the matched glyphs, as returned by {@code detectCharactersOnOneLine}.
+    */
+   public String getText() {
+      StringBuilder stringBuilder = new StringBuilder();
+      for (Match match : matches)
+         stringBuilder.append(match.glyph.getGeneratingString());
+      return stringBuilder.toString();
+   }
+
+   /**
+    * The lowest confidence of the matches, or 1 if there are none.
+    */
+   public double getConfidence() {
+      double confidence = 1;
+      for (Match match : matches)
+         confidence = Math.min(confidence, match.getConfidence());
+      return confidence;
+   }
+
+   /**
+    * @return the matches of the glyphs sharing their pixels with other symbols.
+    */
+   public List<Match> getAmbiguousMatches() {
+      List<Match> ambiguousMatches = new ArrayList<>();
+      for (Match match : matches)
+         if (match.isAmbiguous())
+            ambiguousMatches.add(match);
+      return ambiguousMatches;
+   }
+
+   @Override
+   public String toString() {
+      return getText();
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * How a glyph was matched.
+    */
+   public enum Source {
+
+      /**
+       * A glyph of the alphabet, as drawn alone.
+       */
+      PLAIN,
+      /**
+       * A glyph of the alphabet moved one column to the left (see FontGlyphShiftedLeft).
+       */
+      SHIFTED_LEFT,
+      /**
+       * A glyph with pixels leaked from or into its neighbors, which is only valid next to some
+       * glyphs (see SearchTreeOCRWithLeakedPixels).
+       */
+      CONTEXTUAL,
+      /**
+       * A glyph of the alphabet matched with some mismatched pixels, where no glyph matched
+       * exactly (see ApproximateGlyph).
+       */
+      APPROXIMATE,
+      /**
+       * A span where no glyph was recognized (see UnknownGlyph).
+       */
+      UNKNOWN
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   public static class Match {
+
+      protected FontGlyph glyph;
+      protected Rectangle boundingBox;
+      protected List<FontGlyph> alternatives;
+      protected Source source;
+
+      protected Match(FontGlyph glyph, Rectangle boundingBox, List<FontGlyph> alternatives, Source source) {
+         this.glyph = glyph;
+         this.boundingBox = boundingBox;
+         this.alternatives = alternatives;
+         this.source = source;
+      }
+
+      public FontGlyph getGlyph() {
+         return glyph;
+      }
+
+      public String getSymbol() {
+         return glyph.getGeneratingString();
+      }
+
+      /**
+       * The box of the glyph in the image, one line high.
+       */
+      public Rectangle getBoundingBox() {
+         return new Rectangle(boundingBox);
+      }
+
+      /**
+       * @return an unmodifiable list of the glyphs with the same dimension and pixels as the matched
+       * one, one per symbol, the matched glyph first.
+       */
+      public List<FontGlyph> getAlternatives() {
+         return Collections.unmodifiableList(alternatives);
+      }
+
+      /**
+       * @return the symbols of the alternatives.
+       */
+      public List<String> getAlternativeSymbols() {
+         List<String> symbols = new ArrayList<>(alternatives.size());
+         for (FontGlyph alternative : alternatives)
+            symbols.add(alternative.getGeneratingString());
+         return symbols;
+      }
+
+      public boolean isAmbiguous() {
+         return alternatives.size() > 1;
+      }
+
+      /**
+       * 0 unless the glyph was matched approximately.
+       */
+      public int getMismatchedPixelCount() {
+         return glyph instanceof ApproximateGlyph ? ((ApproximateGlyph) glyph).getMismatchedPixelCount() : 0;
+      }
+
+      /**
+       * 1 divided by the number of alternatives, since the symbols drawn the same cannot be told
+       * apart. An approximate match is less certain still: its confidence is also multiplied by the
+       * share of its pixels among its pixels and the mismatched ones.
+       */
+      public double getConfidence() {
+         double confidence = 1.0 / alternatives.size();
+         int nMismatchedPixels = getMismatchedPixelCount();
+         if (nMismatchedPixels > 0) {
+            int nPixels = glyph.getActivePixels().size();
+            confidence *= (double) nPixels / (nPixels + nMismatchedPixels);
+         }
+         return confidence;
+      }
+
+      public Source getSource() {
+         return source;
+      }
+
+      @Override
+      public String toString() {
+         return glyph.getGeneratingString() + " " + getAlternativeSymbols() + " " + source + " at " + boundingBox.x;
+      }
+   }
+}
@@ -0,0 +1,196 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import java.awt.Color;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads text rendered at an integer multiple of the size of the glyphs of a SearchTreeOCR, as on
+ * HiDPI displays where each pixel of the text becomes a square of {@code scale} x {@code scale}
+ * pixels.
+ *
+ * <p> Neither the trees nor the whole image are scaled: for each line, only the band of the line is
+ * sampled, one pixel per square, into an image at the size of the glyphs, which the SearchTreeOCR
+ * then reads as usual. The top left corner of a line must be on the corner of a square.
+ *
+ * <p> The scale can be given, or detected for each line (see {@code detectScale}).
+ */
+public class ScaledTextOCR {
+
+   /**
+    * The largest scale tried when detecting the scale.
+    */
+   public static final int MAX_SCALE = 8;
+   protected SearchTreeOCR engine;
+   protected int scale;
+
+   /**
+    * The scale is detected for each line.
+    */
+   public ScaledTextOCR(SearchTreeOCR engine) {
+      this(engine, 0);
+   }
+
+   /**
+    * @param scale 0 to detect the scale of each line.
+    */
+   public ScaledTextOCR(SearchTreeOCR engine, int scale) {
+      if (scale < 0 || scale > MAX_SCALE)
+         throw new IllegalArgumentException("The scale must be between 0 and " + MAX_SCALE + ".");
+      this.engine = engine;
+      this.scale = scale;
+   }
+
+   /**
+    * @param topLeft in the scaled image.
+    * @return null if detected nothing.
+    */
+   public List<FontGlyph> detectGlyphsOnOneLine(BufferedImage image, Color fontColor, Point topLeft) {
+      int lineScale = scale != 0 ? scale : detectScale(image, fontColor, topLeft);
+      BufferedImage lineImage = sampleLine(image, topLeft, lineScale);
+      if (lineImage == null)
+         return null;
+      return engine.detectGlyphsOnOneLine(lineImage, fontColor, new Point(0, 0));
+   }
+
+   /**
+    * @return null if detected nothing.
+    */
+   public String detectCharactersOnOneLine(BufferedImage image, Color fontColor, Point topLeft) {
+      List<FontGlyph> glyphsOnLine = detectGlyphsOnOneLine(image, fontColor, topLeft);
+      if (glyphsOnLine == null)
+         return null;
+      StringBuilder stringBuilder = new StringBuilder();
+      for (FontGlyph glyph : glyphsOnLine)
+         stringBuilder.append(glyph.getGeneratingString());
+      return stringBuilder.toString();
+   }
+
+   /**
+    * Same as {@code SearchTreeOCR.detectCharactersOnMultipleLines}, with the scale of the first line
+    * for all the lines.
+    *
+    * @param lineHeight before scaling.
+    * @param topLeft in the scaled image.
+    */
+   public List<String> detectCharactersOnMultipleLines(BufferedImage image, Color fontColor,
+           int lineHeight, Point topLeft) {
+      List<String> lines = new ArrayList<>();
+      int nEmptyRowsBetweenLines = lineHeight - engine.getGlyphHeight();
+      // The empty rows above the first line are scaled too, so the band starts at the top of the line.
+      int lineScale = scale != 0 ? scale : detectScale(image, fontColor, topLeft, lineHeight * MAX_SCALE);
+      ScaledTextOCR fixedScaleOCR = new ScaledTextOCR(engine, lineScale);
+      int currentHeight = topLeft.y;
+      while (currentHeight + lineHeight * lineScale <= image.getHeight()) {
+         Point topLeftCopy = new Point(topLeft.x, currentHeight + nEmptyRowsBetweenLines * lineScale);
+         String line = fixedScaleOCR.detectCharactersOnOneLine(image, fontColor, topLeftCopy);
+         if (line == null)
+            break;
+         lines.add(line);
+         currentHeight += lineHeight * lineScale;
+      }
+      return lines;
+   }
+
+   /**
+    * The image of the line at the size of the glyphs: the top left pixel of each square.
+    *
+    * @return null if the line goes past the bottom of the image.
+    */
+   protected BufferedImage sampleLine(BufferedImage image, Point topLeft, int lineScale) {
+      int height = engine.getGlyphHeight();
+      int width = (image.getWidth() - topLeft.x) / lineScale;
+      if (width <= 0 || topLeft.y < 0 || topLeft.y + height * lineScale > image.getHeight())
+         return null;
+      if (lineScale == 1 && topLeft.x == 0 && topLeft.y == 0 && image.getHeight() == height)
+         return image;
+      int scaledWidth = width * lineScale;
+      int[] row = new int[scaledWidth];
+      int[] sampledRow = new int[width];
+      BufferedImage lineImage = new BufferedImage(width, height, image.getType() == 0 ? BufferedImage.TYPE_INT_RGB : image.getType());
+      for (int iy = 0; iy < height; iy++) {
+         image.getRGB(topLeft.x, topLeft.y + iy * lineScale, scaledWidth, 1, row, 0, scaledWidth);
+         for (int ix = 0; ix < width; ix++)
+            sampledRow[ix] = row[ix * lineScale];
+         lineImage.setRGB(0, iy, width, 1, sampledRow, 0, width);
+      }
+      return lineImage;
+   }
+
+   /**
+    * The scale of the text starting at {@code topLeft}: the greatest common divisor of the lengths
+    * of the horizontal and vertical runs of pixels of the font color, and of the gaps between them,
+    * in a band of the height of a line at the maximal scale. The runs cut by the edges of the band
+    * are not counted.
+    *
+    * @return 1 if no run was found, or if their divisor is greater than MAX_SCALE (for example
+    * for a single block of pixels), which is not a scale of text.
+    */
+   public int detectScale(BufferedImage image, Color fontColor, Point topLeft) {
+      return detectScale(image, fontColor, topLeft, engine.getGlyphHeight() * MAX_SCALE);
+   }
+
+   /**
+    * @param maxHeight the height of the band.
+    */
+   protected int detectScale(BufferedImage image, Color fontColor, Point topLeft, int maxHeight) {
+      int width = image.getWidth() - topLeft.x;
+      int height = Math.min(image.getHeight() - topLeft.y, maxHeight);
+      if (width <= 0 || height <= 0)
+         return 1;
+      int[] pixels = image.getRGB(topLeft.x, topLeft.y, width, height, null, 0, width);
+      int fontRGB = fontColor.getRGB();
+      int divisor = 0;
+      for (int iy = 0; iy < height; iy++)
+         divisor = gcdOfRuns(pixels, fontRGB, iy * width, 1, width, divisor);
+      for (int ix = 0; ix < width; ix++)
+         divisor = gcdOfRuns(pixels, fontRGB, ix, width, height, divisor);
+      if (divisor == 0 || divisor > MAX_SCALE)
+         return 1;
+      return divisor;
+   }
+
+   /**
+    * @param divisor the greatest common divisor so far, 0 if none.
+    */
+   protected static int gcdOfRuns(int[] pixels, int fontRGB, int start, int step, int length, int divisor) {
+      int runStart = 0;
+      boolean isSeenFont = false;
+      // The last run is cut by the edge, so it is never counted.
+      for (int i = 1; i < length; i++) {
+         boolean isFont = pixels[start + i * step] == fontRGB;
+         boolean wasFont = pixels[start + (i - 1) * step] == fontRGB;
+         if (isFont != wasFont) {
+            // The first run is cut by the edge, and a gap is only counted after some font pixels.
+            if (runStart > 0 && (wasFont || isSeenFont))
+               divisor = gcd(divisor, i - runStart);
+            isSeenFont |= wasFont;
+            runStart = i;
+         }
+      }
+      return divisor;
+   }
+
+   protected static int gcd(int a, int b) {
+      while (b != 0) {
+         int remainder = a % b;
+         a = b;
+         b = remainder;
+      }
+      return a;
+   }
+
+   public SearchTreeOCR getEngine() {
+      return engine;
+   }
+
+   /**
+    * @return 0 if the scale is detected for each line.
+    */
+   public int getScale() {
+      return scale;
+   }
+}
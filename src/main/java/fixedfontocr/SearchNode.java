@@ -8,9 +8,11 @@ import java.awt.Point;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Builds a search tree recursively for an alphabet of Glyphs. When creating the head node, the
@@ -38,6 +40,14 @@ import java.util.Map;
  * may or may not have a matching value; just as a SearchNode may or may not have sub-Nodes. However
  * it would make no sense to have a SearchNode without a matching value or sub-Nodes.
  *
+ * <p> The probe width can also be chosen by a SearchTreeBuilder to be wider than the narrowest
+ * glyph, in which case the narrower glyphs are put in a separate "shorter glyphs" SearchNode.
+ *
+ * <p> With a lazy SearchTreeBuilder, the sub-nodes are only built the first time they are reached.
+ * The glyphs of each sub-node are kept until then. Several threads can search the same lazy tree:
+ * the sub-nodes are published through a ConcurrentHashMap, and a sub-node built twice by two
+ * threads at the same time is only kept once. {@code prewarm} builds the nodes on the paths of
+ * some given glyphs ahead of time.
  */
 public class SearchNode {
 
@@ -45,7 +55,14 @@ public class SearchNode {
    protected int searchGlyphWidth;
    protected int alreadySkippedColumns;
    protected Map<Glyph, SearchNode> mapToSubNodes;
+   protected volatile SearchNode shorterGlyphsNode;
    protected int lineHeight;
+   /**
+    * Only for lazy nodes: the glyphs of the sub-nodes which may not be built yet.
+    */
+   protected Map<Glyph, List<FontGlyph>> subNodeGlyphs;
+   protected List<FontGlyph> shorterGlyphs;
+   protected SearchTreeBuilder builder;
 
    public SearchNode(Collection<FontGlyph> glyphs) {
       this(glyphs, 0);
@@ -62,16 +79,29 @@ public class SearchNode {
     * @param alreadySkippedColumns
     */
    public SearchNode(Collection<FontGlyph> glyphs, int alreadySkippedColumns) {
-      this.alreadySkippedColumns = alreadySkippedColumns;
-      this.searchGlyphWidth = findMinimalWidth(glyphs, alreadySkippedColumns);
+      this(glyphs, alreadySkippedColumns, new SearchTreeBuilder());
+   }
+
+   /**
+    * Same as above, but the probe width and the sub-nodes are given by the {@code builder}.
+    *
+    * <p> The glyphs which are narrower than the probe width, but are not exact matches, are put in a
+    * separate SearchNode starting at the same column (see {@code getShorterGlyphsNode}).
+    */
+   public SearchNode(Collection<FontGlyph> glyphs, int alreadySkippedColumns, SearchTreeBuilder builder) {
       if (glyphs.isEmpty())
          throw new IllegalArgumentException("Must have some glyphs.");
+      this.alreadySkippedColumns = alreadySkippedColumns;
+      this.searchGlyphWidth = builder.chooseProbeWidth(glyphs, alreadySkippedColumns);
       lineHeight = glyphs.iterator().next().getDimension().height;
       mapToSubNodes = new HashMap<>();
       Map<Glyph, List<FontGlyph>> mapToListGlyphs = new HashMap<>();
+      List<FontGlyph> shorterGlyphs = new ArrayList<>();
       for (FontGlyph glyph : glyphs) {
          if (glyph.getDimension().width == alreadySkippedColumns) {
             exactMatch = glyph;
+         } else if (glyph.getDimension().width < alreadySkippedColumns + searchGlyphWidth) {
+            shorterGlyphs.add(glyph);
          } else {
             Glyph subGlyph = glyph.getSubGlyph(alreadySkippedColumns, searchGlyphWidth);
             if (!mapToListGlyphs.containsKey(subGlyph))
@@ -91,10 +121,20 @@ public class SearchNode {
             System.out.printf("# of shared %d glyph beginnings (size %d, prev %d):  %d%n", lenght, searchGlyphWidth, alreadySkippedColumns, listLengthCounter.get(lenght));
          //System.out.println("");
       }
+      if (builder.isLazy()) {
+         this.builder = builder;
+         mapToSubNodes = new ConcurrentHashMap<>();
+         subNodeGlyphs = mapToListGlyphs;
+         if (!shorterGlyphs.isEmpty())
+            this.shorterGlyphs = shorterGlyphs;
+         return;
+      }
       for (Glyph subGlyph : mapToListGlyphs.keySet()) {
-         SearchNode nodeSubGlyph = new SearchNode(mapToListGlyphs.get(subGlyph), alreadySkippedColumns + searchGlyphWidth);
+         SearchNode nodeSubGlyph = builder.createNode(mapToListGlyphs.get(subGlyph), alreadySkippedColumns + searchGlyphWidth);
          mapToSubNodes.put(subGlyph, nodeSubGlyph);
       }
+      if (!shorterGlyphs.isEmpty())
+         shorterGlyphsNode = builder.createNode(shorterGlyphs, alreadySkippedColumns);
    }
 
    /**
@@ -109,32 +149,168 @@ public class SearchNode {
     * @return null if found no matching glyph.
     */
    public SearchNode findNextNode(Glyph subGlyph) {
-      return mapToSubNodes.get(subGlyph);
+      SearchNode nextNode = mapToSubNodes.get(subGlyph);
+      if (nextNode == null && subNodeGlyphs != null && subNodeGlyphs.containsKey(subGlyph))
+         nextNode = buildSubNode(subGlyph);
+      return nextNode;
+   }
+
+   protected SearchNode buildSubNode(Glyph subGlyph) {
+      SearchNode nextNode = builder.createNode(subNodeGlyphs.get(subGlyph), alreadySkippedColumns + searchGlyphWidth);
+      SearchNode concurrentNode = mapToSubNodes.putIfAbsent(subGlyph, nextNode);
+      return concurrentNode != null ? concurrentNode : nextNode;
+   }
+
+   /**
+    * @return false if there are no sub-nodes, built or not.
+    */
+   public boolean hasSubNodes() {
+      return subNodeGlyphs != null ? !subNodeGlyphs.isEmpty() : !mapToSubNodes.isEmpty();
+   }
+
+   /**
+    * True unless some sub-nodes of this node (not of its descendants) are still to be built.
+    */
+   public boolean isBuilt() {
+      return subNodeGlyphs == null
+              || (mapToSubNodes.size() == subNodeGlyphs.size() && (shorterGlyphs == null || shorterGlyphsNode != null));
+   }
+
+   /**
+    * Builds the nodes on the search paths of the {@code glyphs}, for example the most frequent
+    * ones, so that the first searches of a lazy tree do not pay for it. Does nothing on a tree
+    * which is not lazy.
+    */
+   public void prewarm(Collection<? extends Glyph> glyphs) {
+      for (Glyph glyph : glyphs)
+         countLookups(glyph);
+   }
+
+   /**
+    * The width of the sub-glyph used to select the next node.
+    */
+   public int getSearchGlyphWidth() {
+      return searchGlyphWidth;
+   }
+
+   public int getAlreadySkippedColumns() {
+      return alreadySkippedColumns;
+   }
+
+   public int getLineHeight() {
+      return lineHeight;
+   }
+
+   /**
+    * Builds the sub-nodes of a lazy node which are not built yet.
+    *
+    * @return an unmodifiable view of the sub-nodes, keyed by the sub-glyph leading to them.
+    */
+   public Map<Glyph, SearchNode> getSubNodes() {
+      if (subNodeGlyphs != null)
+         for (Glyph subGlyph : subNodeGlyphs.keySet())
+            findNextNode(subGlyph);
+      return Collections.unmodifiableMap(mapToSubNodes);
+   }
+
+   /**
+    * Only trees built with an adaptive probe width have such nodes. The glyphs it holds are wider
+    * than the exact match of this node, but narrower than any glyph in the sub-nodes.
+    *
+    * @return null if there are no glyphs narrower than the probe width.
+    */
+   public SearchNode getShorterGlyphsNode() {
+      if (shorterGlyphsNode == null && shorterGlyphs != null) {
+         synchronized (this) {
+            if (shorterGlyphsNode == null)
+               shorterGlyphsNode = builder.createNode(shorterGlyphs, alreadySkippedColumns);
+         }
+      }
+      return shorterGlyphsNode;
    }
 
    /**
     * @return null if found no matching glyph.
     */
-   public FontGlyph findLongestMatch(BufferedImage image, Color fontColor, Point topLeft_) {
-      Point topLeft = new Point(topLeft_.x, topLeft_.y);
+   public FontGlyph findLongestMatch(BufferedImage image, Color fontColor, Point topLeft) {
+      return findLongestMatch(image, fontColor, topLeft.x, topLeft.y);
+   }
+
+   /**
+    * A match in a sub-node is always longer than a match in the shorter glyphs node, which is itself
+    * longer than the exact match.
+    */
+   protected FontGlyph findLongestMatch(BufferedImage image, Color fontColor, int x, int y) {
       FontGlyph longestMatch = null;
-      SearchNode nextNode = this;
-      SearchNode currentNode;
-      while ((currentNode = nextNode) != null) {
-         if (currentNode.getExactMatch() != null)
-            longestMatch = currentNode.getExactMatch();
-         int subGlyphWidth = currentNode.searchGlyphWidth;
-         if (image.getWidth() < (topLeft.x + subGlyphWidth)) {
-            nextNode = null; // running out of image to find longer matches.
-         } else {
-            Glyph subGlyph = new Glyph(image, fontColor, topLeft, new Dimension(subGlyphWidth, lineHeight));
-            nextNode = currentNode.findNextNode(subGlyph); // could be null
-            topLeft.x += subGlyphWidth;
-         }
+      if (hasSubNodes() && image.getWidth() >= x + searchGlyphWidth) { // else running out of image to find longer matches.
+         Glyph subGlyph = new Glyph(image, fontColor, new Point(x, y), new Dimension(searchGlyphWidth, lineHeight));
+         SearchNode nextNode = findNextNode(subGlyph); // could be null
+         if (nextNode != null)
+            longestMatch = nextNode.findLongestMatch(image, fontColor, x + searchGlyphWidth, y);
       }
+      SearchNode shorterNode = getShorterGlyphsNode();
+      if (longestMatch == null && shorterNode != null)
+         longestMatch = shorterNode.findLongestMatch(image, fontColor, x, y);
+      if (longestMatch == null)
+         longestMatch = exactMatch;
       return longestMatch; // might be null
    }
 
+   /**
+    * All the glyphs matching the image at {@code topLeft}, not only the longest one.
+    *
+    * @return the matches from the longest to the shortest, or an empty list.
+    */
+   public List<FontGlyph> findAllMatches(BufferedImage image, Color fontColor, Point topLeft) {
+      List<FontGlyph> matches = new ArrayList<>();
+      addAllMatches(image, fontColor, topLeft.x, topLeft.y, matches);
+      return matches;
+   }
+
+   protected void addAllMatches(BufferedImage image, Color fontColor, int x, int y, List<FontGlyph> matches) {
+      if (hasSubNodes() && image.getWidth() >= x + searchGlyphWidth) {
+         Glyph subGlyph = new Glyph(image, fontColor, new Point(x, y), new Dimension(searchGlyphWidth, lineHeight));
+         SearchNode nextNode = findNextNode(subGlyph);
+         if (nextNode != null)
+            nextNode.addAllMatches(image, fontColor, x + searchGlyphWidth, y, matches);
+      }
+      SearchNode shorterNode = getShorterGlyphsNode();
+      if (shorterNode != null)
+         shorterNode.addAllMatches(image, fontColor, x, y, matches);
+      if (exactMatch != null)
+         matches.add(exactMatch);
+   }
+
+   /**
+    * The number of sub-glyph lookups ({@code findNextNode}) done by {@code findLongestMatch} to
+    * find the {@code target} when it is followed by columns matching no longer glyph. A lookup
+    * reaching past the right edge of the target is counted as one failed lookup.
+    */
+   public int countLookups(Glyph target) {
+      int[] lookupCounter = new int[1];
+      countLookups(target, lookupCounter);
+      return lookupCounter[0];
+   }
+
+   /**
+    * @return true if found a match.
+    */
+   protected boolean countLookups(Glyph target, int[] lookupCounter) {
+      boolean isFound = false;
+      if (hasSubNodes()) {
+         lookupCounter[0]++;
+         if (target.getDimension().width >= alreadySkippedColumns + searchGlyphWidth) {
+            SearchNode nextNode = findNextNode(target.getSubGlyph(alreadySkippedColumns, searchGlyphWidth));
+            if (nextNode != null)
+               isFound = nextNode.countLookups(target, lookupCounter);
+         }
+      }
+      SearchNode shorterNode = getShorterGlyphsNode();
+      if (!isFound && shorterNode != null)
+         isFound = shorterNode.countLookups(target, lookupCounter);
+      return isFound || exactMatch != null;
+   }
+
    /**
     * @return the width (in pixels) of the narrowest glyph.
     */
@@ -0,0 +1,355 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides how the SearchNodes of a tree are built. By default, each node uses the width of its
+ * narrowest glyph as its probe width (see the documentation of SearchNode).
+ *
+ * <p> With {@code adaptiveProbeWidth}, each node instead picks, among the remaining widths of its
+ * glyphs, the probe width which minimizes an estimate of the expected number of lookups needed to
+ * identify a glyph. The glyphs narrower than the chosen width are then put in a separate
+ * SearchNode (see {@code SearchNode.getShorterGlyphsNode}) which is only searched when the wider
+ * glyphs do not match, so the longest match is still the one found.
+ *
+ * <p> The estimate for a probe width is one lookup for the probe itself, plus, for each group of
+ * glyphs sharing the same probed sub-glyph and not fully identified by it, one lookup and the
+ * entropy (in bits) of the group. The narrower glyphs count as a group of their own. The entropy
+ * is a rough stand-in for the depth of the subtree which is not built yet.
+ *
+ * <p> The glyphs are weighted by the CharacterFrequencies of their generating strings, if given,
+ * so that the tree is shaped for the most common symbols. The same weights are used by
+ * {@code averageLookupsPerGlyph} and to lay out CompiledSearchTrees.
+ *
+ * <p> A lazy builder only builds the head node; each SearchNode builds its sub-nodes the first time
+ * they are searched. Walking the whole tree, as {@code averageLookupsPerGlyph} or
+ * {@code CompiledSearchTree.compile} do, builds it completely.
+ *
+ * <p> A builder sharing subtrees builds a single SearchNode for all the nodes with the same glyphs
+ * (compared by identity) and the same number of already skipped columns, which are identical
+ * subtrees. The trees built by the same builder then form a DAG, which is what
+ * SearchTreeOCRWithLeakedPixels needs for its many overlapping sets of glyphs. The shared nodes
+ * are kept by the builder until {@code retainGlyphs} drops those of the glyphs no longer used.
+ */
+public class SearchTreeBuilder {
+
+   protected boolean adaptiveProbeWidth;
+   protected CharacterFrequencies frequencies;
+   protected boolean lazy;
+   protected Map<SharedNodeKey, SearchNode> sharedNodes;
+
+   /**
+    * Probe widths are always the width of the narrowest glyph.
+    */
+   public SearchTreeBuilder() {
+      this(false);
+   }
+
+   public SearchTreeBuilder(boolean adaptiveProbeWidth) {
+      this(adaptiveProbeWidth, null);
+   }
+
+   /**
+    * Adaptive probe widths weighted by the {@code frequencies}.
+    */
+   public SearchTreeBuilder(CharacterFrequencies frequencies) {
+      this(true, frequencies);
+   }
+
+   /**
+    * @param frequencies null to give the same weight to all glyphs.
+    */
+   public SearchTreeBuilder(boolean adaptiveProbeWidth, CharacterFrequencies frequencies) {
+      this.adaptiveProbeWidth = adaptiveProbeWidth;
+      this.frequencies = frequencies;
+   }
+
+   public SearchNode build(Collection<FontGlyph> glyphs) {
+      return createNode(glyphs, 0);
+   }
+
+   /**
+    * Called by the SearchNodes to build their sub-nodes.
+    */
+   protected SearchNode createNode(Collection<FontGlyph> glyphs, int alreadySkippedColumns) {
+      if (sharedNodes == null)
+         return new SearchNode(glyphs, alreadySkippedColumns, this);
+      SharedNodeKey key = new SharedNodeKey(glyphs, alreadySkippedColumns);
+      SearchNode node = sharedNodes.get(key);
+      if (node == null) {
+         node = new SearchNode(glyphs, alreadySkippedColumns, this);
+         SearchNode concurrentNode = sharedNodes.putIfAbsent(key, node);
+         if (concurrentNode != null)
+            node = concurrentNode;
+      }
+      return node;
+   }
+
+   /**
+    * A builder with the same options, but which does not share subtrees, for the trees which must
+    * not be kept by this builder.
+    */
+   public SearchTreeBuilder withoutSharing() {
+      SearchTreeBuilder builder = new SearchTreeBuilder(adaptiveProbeWidth, frequencies);
+      builder.setLazy(lazy);
+      return builder;
+   }
+
+   public boolean isSharingSubtrees() {
+      return sharedNodes != null;
+   }
+
+   /**
+    * Must be set before building any tree.
+    */
+   public void setSharingSubtrees(boolean sharingSubtrees) {
+      sharedNodes = sharingSubtrees ? new ConcurrentHashMap<SharedNodeKey, SearchNode>() : null;
+   }
+
+   /**
+    * Forgets the shared nodes of which a glyph is not one of {@code glyphs}, for example after
+    * glyphs are removed from an alphabet or built again. The trees already built are not modified,
+    * but their nodes will not be shared by the trees built later.
+    */
+   public void retainGlyphs(Collection<FontGlyph> glyphs) {
+      if (sharedNodes == null)
+         return;
+      Set<FontGlyph> retainedGlyphs = Collections.newSetFromMap(new IdentityHashMap<FontGlyph, Boolean>());
+      retainedGlyphs.addAll(glyphs);
+      for (Iterator<SharedNodeKey> keys = sharedNodes.keySet().iterator(); keys.hasNext();)
+         for (FontGlyph glyph : keys.next().glyphs)
+            if (!retainedGlyphs.contains(glyph)) {
+               keys.remove();
+               break;
+            }
+   }
+
+   /**
+    * @return 0 if the builder does not share subtrees.
+    */
+   public int getSharedNodeCount() {
+      return sharedNodes == null ? 0 : sharedNodes.size();
+   }
+
+   public boolean isLazy() {
+      return lazy;
+   }
+
+   /**
+    * Must be set before building any tree.
+    */
+   public void setLazy(boolean lazy) {
+      this.lazy = lazy;
+   }
+
+   public boolean isAdaptiveProbeWidth() {
+      return adaptiveProbeWidth;
+   }
+
+   /**
+    * @return null if all glyphs have the same weight.
+    */
+   public CharacterFrequencies getFrequencies() {
+      return frequencies;
+   }
+
+   /**
+    * @return 0 if all the glyphs are exact matches.
+    */
+   public int chooseProbeWidth(Collection<FontGlyph> glyphs, int alreadySkippedColumns) {
+      if (!adaptiveProbeWidth)
+         return SearchNode.findMinimalWidth(glyphs, alreadySkippedColumns);
+      SortedSet<Integer> candidateWidths = new TreeSet<>();
+      for (FontGlyph glyph : glyphs)
+         if (glyph.getDimension().width > alreadySkippedColumns)
+            candidateWidths.add(glyph.getDimension().width - alreadySkippedColumns);
+      if (candidateWidths.isEmpty())
+         return 0;
+      int bestWidth = candidateWidths.first();
+      double bestCost = Double.POSITIVE_INFINITY;
+      for (int width : candidateWidths) {
+         double cost = estimateExpectedLookups(glyphs, alreadySkippedColumns, width);
+         if (cost < bestCost) {
+            bestCost = cost;
+            bestWidth = width;
+         }
+      }
+      return bestWidth;
+   }
+
+   /**
+    * The glyphs which are exact matches at {@code alreadySkippedColumns} are ignored.
+    */
+   protected double estimateExpectedLookups(Collection<FontGlyph> glyphs, int alreadySkippedColumns, int probeWidth) {
+      List<FontGlyph> shorterGlyphs = new ArrayList<>();
+      Map<Glyph, List<FontGlyph>> groups = new HashMap<>();
+      double totalWeight = 0;
+      for (FontGlyph glyph : glyphs) {
+         int remainingWidth = glyph.getDimension().width - alreadySkippedColumns;
+         if (remainingWidth <= 0)
+            continue;
+         totalWeight += getWeight(glyph);
+         if (remainingWidth < probeWidth) {
+            shorterGlyphs.add(glyph);
+         } else {
+            Glyph subGlyph = glyph.getSubGlyph(alreadySkippedColumns, probeWidth);
+            if (!groups.containsKey(subGlyph))
+               groups.put(subGlyph, new ArrayList<FontGlyph>());
+            groups.get(subGlyph).add(glyph);
+         }
+      }
+      double residualLookups = 0;
+      if (!shorterGlyphs.isEmpty())
+         residualLookups += totalWeight(shorterGlyphs) * (1 + entropy(shorterGlyphs));
+      for (List<FontGlyph> group : groups.values()) {
+         boolean isIdentified = true;
+         for (FontGlyph glyph : group)
+            if (glyph.getDimension().width - alreadySkippedColumns != probeWidth)
+               isIdentified = false;
+         if (!isIdentified)
+            residualLookups += totalWeight(group) * (1 + entropy(group));
+      }
+      if (totalWeight == 0)
+         return 1;
+      return 1 + residualLookups / totalWeight;
+   }
+
+   /**
+    * The relative frequency of a glyph, used to weight the expected number of lookups. All glyphs
+    * are equally likely if no CharacterFrequencies were given.
+    */
+   public double getWeight(FontGlyph glyph) {
+      if (frequencies == null)
+         return 1;
+      return frequencies.getFrequency(glyph.getGeneratingString());
+   }
+
+   public double totalWeight(Collection<FontGlyph> glyphs) {
+      double total = 0;
+      for (FontGlyph glyph : glyphs)
+         total += getWeight(glyph);
+      return total;
+   }
+
+   /**
+    * Shannon entropy, in bits, of picking one of the glyphs according to their weights.
+    */
+   protected double entropy(Collection<FontGlyph> glyphs) {
+      double total = totalWeight(glyphs);
+      double entropy = 0;
+      if (total == 0)
+         return 0;
+      for (FontGlyph glyph : glyphs) {
+         double probability = getWeight(glyph) / total;
+         if (probability > 0)
+            entropy -= probability * Math.log(probability) / Math.log(2);
+      }
+      return entropy;
+   }
+
+   /**
+    * The number of lookups ({@code SearchNode.countLookups}) needed to find each glyph, averaged
+    * with the weights of the glyphs. Useful to compare trees built with different options.
+    */
+   public double averageLookupsPerGlyph(SearchNode headNode, Collection<FontGlyph> glyphs) {
+      double weightedLookups = 0;
+      double totalWeight = 0;
+      for (FontGlyph glyph : glyphs) {
+         weightedLookups += getWeight(glyph) * headNode.countLookups(glyph);
+         totalWeight += getWeight(glyph);
+      }
+      return weightedLookups / totalWeight;
+   }
+
+   /**
+    * The total weight of all the glyphs which can be found from {@code node}.
+    */
+   public double subtreeWeight(SearchNode node) {
+      return subtreeWeight(node, new IdentityHashMap<SearchNode, Double>());
+   }
+
+   /**
+    * Same as above, computing the weight of each node once: the weights already in
+    * {@code subtreeWeights} are reused, and those computed are added to it. Asking for the weight
+    * of every node of a tree, shared nodes included, is then linear in the number of nodes.
+    */
+   public double subtreeWeight(SearchNode node, Map<SearchNode, Double> subtreeWeights) {
+      Double cachedWeight = subtreeWeights.get(node);
+      if (cachedWeight != null)
+         return cachedWeight;
+      double weight = 0;
+      if (node.getExactMatch() != null)
+         weight += getWeight(node.getExactMatch());
+      for (SearchNode subNode : node.getSubNodes().values())
+         weight += subtreeWeight(subNode, subtreeWeights);
+      if (node.getShorterGlyphsNode() != null)
+         weight += subtreeWeight(node.getShorterGlyphsNode(), subtreeWeights);
+      subtreeWeights.put(node, weight);
+      return weight;
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * The glyphs of a node, compared by identity since distinct glyphs can have the same pixels, and
+    * its number of already skipped columns. The glyphs are kept in an array sorted by identity hash
+    * code, which is much smaller than an identity set. Two keys with the same glyphs whose hash
+    * codes collide may be sorted differently, and are then not equal: their nodes are not shared,
+    * but no node is shared wrongly.
+    */
+   protected static class SharedNodeKey {
+
+      protected static final Comparator<FontGlyph> IDENTITY_ORDER = new Comparator<FontGlyph>() {
+
+         @Override
+         public int compare(FontGlyph glyph1, FontGlyph glyph2) {
+            return Integer.compare(System.identityHashCode(glyph1), System.identityHashCode(glyph2));
+         }
+      };
+      protected FontGlyph[] glyphs;
+      protected int alreadySkippedColumns;
+      protected int cachedHashCode;
+
+      protected SharedNodeKey(Collection<FontGlyph> glyphs, int alreadySkippedColumns) {
+         this.glyphs = glyphs.toArray(new FontGlyph[glyphs.size()]);
+         Arrays.sort(this.glyphs, IDENTITY_ORDER);
+         this.alreadySkippedColumns = alreadySkippedColumns;
+         int hashCode = alreadySkippedColumns;
+         for (FontGlyph glyph : this.glyphs)
+            hashCode = 31 * hashCode + System.identityHashCode(glyph);
+         this.cachedHashCode = hashCode;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (!(obj instanceof SharedNodeKey))
+            return false;
+         SharedNodeKey other = (SharedNodeKey) obj;
+         if (alreadySkippedColumns != other.alreadySkippedColumns || glyphs.length != other.glyphs.length)
+            return false;
+         for (int i = 0; i < glyphs.length; i++)
+            if (glyphs[i] != other.glyphs[i])
+               return false;
+         return true;
+      }
+
+      @Override
+      public int hashCode() {
+         return cachedHashCode;
+      }
+   }
+}
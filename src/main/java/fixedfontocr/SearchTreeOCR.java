@@ -1,15 +1,26 @@
 package fixedfontocr;
 
+import fixedfontocr.glyph.ApproximateGlyph;
 import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.FontGlyphShiftedLeft;
+import fixedfontocr.glyph.FontGlyphWithLeakedPixels;
 import fixedfontocr.glyph.Glyph;
+import fixedfontocr.glyph.UnknownGlyph;
+import java.awt.Dimension;
 import java.awt.Color;
 import java.awt.Font;
+import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Given a few columns of pixels, the search tree can figure out which branch (SearchNode) to
@@ -22,6 +33,14 @@ public abstract class SearchTreeOCR {
    protected Font font;
    protected List<FontGlyph> fontGlyphs;
    protected int glyphHeight;
+   protected boolean endLineOnTrailingBlank;
+   protected volatile LineAligner lineAligner;
+   protected volatile Map<Glyph, List<FontGlyph>> glyphsPerPattern;
+   protected int maxMismatchedPixels;
+   protected volatile ApproximateGlyphIndex approximateGlyphIndex;
+   protected String unknownGlyphSymbol;
+   protected volatile GlyphStartIndex glyphStartIndex;
+   protected volatile int version;
 
    public SearchTreeOCR(List<String> alphabet, Font font) {
       this(FontGlyph.buildGlyphsFromAlphabet(alphabet, font));
@@ -33,17 +52,137 @@ public abstract class SearchTreeOCR {
          throw new IllegalArgumentException("Must have some glyphs.");
 
       glyphHeight = fontGlyphs.get(0).getDimension().height;
-      font = fontGlyphs.get(0).getFont();
-      for (FontGlyph glyph : fontGlyphs) {
+      font = getFontOf(fontGlyphs.get(0));
+      checkGlyphs(fontGlyphs);
+   }
+
+   /**
+    * @throws IllegalArgumentException if some glyphs do not have the height and the font of the
+    * engine.
+    */
+   protected void checkGlyphs(List<FontGlyph> glyphs) {
+      for (FontGlyph glyph : glyphs) {
          if (glyph.getDimension().height != glyphHeight)
             throw new IllegalArgumentException("Expecting all glyphs to have the same height.");
-         if (glyph.getFont() != font)
+         if (getFontOf(glyph) != font)
             throw new IllegalArgumentException("Expecting the font for all glyphs to be the same.");
       }
    }
 
+   /**
+    * @return null for the glyphs of bitmap fonts, which have no Font.
+    */
+   protected static Font getFontOf(FontGlyph glyph) {
+      return glyph instanceof FontGlyph.Bitmap ? null : glyph.getFont();
+   }
+
    public abstract List<FontGlyph> detectGlyphsOnOneLine(BufferedImage image, Color fontColor, Point topLeft);
 
+   /**
+    * The band of the line starting at {@code topLeft}, used to skip blank columns.
+    *
+    * @return null if the glyphs are too tall for a LineBand or the line goes past the image.
+    */
+   protected LineBand createLineBand(BufferedImage image, Color fontColor, Point topLeft) {
+      if (glyphHeight > Glyph.MAX_COLUMN_MASK_HEIGHT || topLeft.x < 0 || topLeft.y < 0
+              || topLeft.y + glyphHeight > image.getHeight())
+         return null;
+      return new LineBand(image, fontColor, topLeft.x, topLeft.y, glyphHeight);
+   }
+
+   /**
+    * @return true if {@code endLineOnTrailingBlank} is set and there are only blank columns left.
+    */
+   protected boolean isBlankToEndOfLine(LineBand band, int x) {
+      return endLineOnTrailingBlank && band != null && band.isBlankToTheRight(x);
+   }
+
+   /**
+    * The approximate match at {@code x}, used where no glyph matches exactly.
+    *
+    * @return null if {@code maxMismatchedPixels} is 0, if there is no band, or if no glyph is
+    * close enough.
+    */
+   protected ApproximateGlyph findApproximateMatch(LineBand band, int x) {
+      if (maxMismatchedPixels == 0 || band == null || x >= band.getRight())
+         return null;
+      return findApproximateMatch(getApproximateGlyphIndex(), band, x, maxMismatchedPixels);
+   }
+
+   /**
+    * @return the best match of the {@code index}, with its number of mismatched pixels, or null.
+    */
+   protected static ApproximateGlyph findApproximateMatch(ApproximateGlyphIndex index, LineBand band, int x,
+           int maxMismatchedPixels) {
+      FontGlyph glyph = index.findBestMatch(band, x, maxMismatchedPixels);
+      return glyph == null ? null
+              : new ApproximateGlyph(glyph, ApproximateGlyphIndex.countMismatchedPixels(glyph, band, x));
+   }
+
+   /**
+    * Built on first use, from the {@code fontGlyphs}.
+    */
+   protected ApproximateGlyphIndex getApproximateGlyphIndex() {
+      ApproximateGlyphIndex index = approximateGlyphIndex;
+      if (index == null) {
+         index = new ApproximateGlyphIndex(fontGlyphs);
+         approximateGlyphIndex = index;
+      }
+      return index;
+   }
+
+   /**
+    * Where nothing matches at {@code x}, the span up to the next column where a glyph can start
+    * (see GlyphStartIndex) as an UnknownGlyph, such that the decoding can go on from there.
+    *
+    * @param glyphsOnLine the glyphs decoded before {@code x}: if the last one is an UnknownGlyph, it
+    * is removed and the returned glyph spans it too.
+    * @return null if {@code unknownGlyphSymbol} is not set, if there is no band, or if there are
+    * only blank columns left.
+    */
+   protected FontGlyph skipUnknownGlyph(List<FontGlyph> glyphsOnLine, LineBand band, int x) {
+      if (unknownGlyphSymbol == null || band == null || band.isBlankToTheRight(x))
+         return null;
+      return createUnknownGlyph(glyphsOnLine, band, x, getGlyphStartIndex().findNextStart(band, x));
+   }
+
+   /**
+    * @param glyphsOnLine as in {@code skipUnknownGlyph}.
+    */
+   protected UnknownGlyph createUnknownGlyph(List<FontGlyph> glyphsOnLine, LineBand band, int x, int endX) {
+      UnknownGlyph unknownGlyph = createUnknownGlyph(band, x, endX);
+      int last = glyphsOnLine.size() - 1;
+      if (last >= 0 && glyphsOnLine.get(last) instanceof UnknownGlyph)
+         unknownGlyph = UnknownGlyph.merge((UnknownGlyph) glyphsOnLine.remove(last), unknownGlyph);
+      return unknownGlyph;
+   }
+
+   /**
+    * The pixels of the band from {@code x} to {@code endX} as an UnknownGlyph.
+    */
+   protected UnknownGlyph createUnknownGlyph(LineBand band, int x, int endX) {
+      List<Point> pixels = new ArrayList<>();
+      for (int ix = x; ix < endX; ix++) {
+         long columnMask = band.getColumnMask(ix);
+         for (int iy = 0; iy < band.getHeight(); iy++)
+            if ((columnMask & (1L << iy)) != 0)
+               pixels.add(new Point(ix - x, iy));
+      }
+      return new UnknownGlyph(unknownGlyphSymbol, font, new Dimension(endX - x, band.getHeight()), pixels);
+   }
+
+   /**
+    * Built on first use, from the {@code fontGlyphs}.
+    */
+   protected GlyphStartIndex getGlyphStartIndex() {
+      GlyphStartIndex index = glyphStartIndex;
+      if (index == null) {
+         index = new GlyphStartIndex(fontGlyphs);
+         glyphStartIndex = index;
+      }
+      return index;
+   }
+
    /**
     * @return null if detected nothing.
     */
@@ -57,10 +196,93 @@ public abstract class SearchTreeOCR {
       return stringBuilder.toString();
    }
 
+   /**
+    * Same as {@code detectGlyphsOnOneLine}, with the position, the source and the alternative
+    * symbols of each glyph (see RecognizedLine). The glyphs sharing their pixels are grouped once
+    * for all the glyphs the engine searches, so each glyph only costs one more lookup.
+    *
+    * @return null if detected nothing.
+    */
+   public RecognizedLine recognizeOneLine(BufferedImage image, Color fontColor, Point topLeft) {
+      List<FontGlyph> glyphsOnLine = detectGlyphsOnOneLine(image, fontColor, new Point(topLeft));
+      if (glyphsOnLine == null)
+         return null;
+      Map<Glyph, List<FontGlyph>> patterns = getGlyphsPerPattern();
+      List<RecognizedLine.Match> matches = new ArrayList<>(glyphsOnLine.size());
+      int x = topLeft.x;
+      for (FontGlyph glyph : glyphsOnLine) {
+         int width = glyph.getDimension().width;
+         matches.add(new RecognizedLine.Match(glyph, new Rectangle(x, topLeft.y, width, glyphHeight),
+                 findAlternatives(patterns, glyph), getSource(glyph)));
+         x += width;
+      }
+      return new RecognizedLine(matches);
+   }
+
+   /**
+    * The glyphs searched by the engine, grouped by pixels. Built on first use.
+    */
+   protected Map<Glyph, List<FontGlyph>> getGlyphsPerPattern() {
+      Map<Glyph, List<FontGlyph>> patterns = glyphsPerPattern;
+      if (patterns == null) {
+         patterns = groupByPattern(getSearchedGlyphs());
+         glyphsPerPattern = patterns;
+      }
+      return patterns;
+   }
+
+   protected static Map<Glyph, List<FontGlyph>> groupByPattern(Collection<FontGlyph> glyphs) {
+      Map<Glyph, List<FontGlyph>> patterns = new HashMap<>();
+      for (FontGlyph glyph : glyphs) {
+         if (!patterns.containsKey(glyph))
+            patterns.put(glyph, new ArrayList<FontGlyph>(1));
+         patterns.get(glyph).add(glyph);
+      }
+      return patterns;
+   }
+
+   /**
+    * All the glyphs which {@code detectGlyphsOnOneLine} can return, or glyphs with the same pixels.
+    */
+   protected Collection<FontGlyph> getSearchedGlyphs() {
+      return fontGlyphs;
+   }
+
+   /**
+    * @return {@code glyph}, then one glyph with the same dimension and pixels for each other symbol.
+    */
+   protected static List<FontGlyph> findAlternatives(Map<Glyph, List<FontGlyph>> patterns, FontGlyph glyph) {
+      List<FontGlyph> sameGlyphs = patterns.get(glyph);
+      if (sameGlyphs == null || sameGlyphs.size() == 1)
+         return Collections.singletonList(glyph);
+      List<FontGlyph> alternatives = new ArrayList<>();
+      alternatives.add(glyph);
+      Set<String> symbols = new HashSet<>();
+      symbols.add(glyph.getGeneratingString());
+      for (FontGlyph sameGlyph : sameGlyphs)
+         if (sameGlyph.getDimension().equals(glyph.getDimension()) && symbols.add(sameGlyph.getGeneratingString()))
+            alternatives.add(sameGlyph);
+      return alternatives;
+   }
+
+   protected RecognizedLine.Source getSource(FontGlyph glyph) {
+      if (glyph instanceof ApproximateGlyph)
+         return RecognizedLine.Source.APPROXIMATE;
+      if (glyph instanceof FontGlyphWithLeakedPixels)
+         return RecognizedLine.Source.CONTEXTUAL;
+      if (glyph instanceof FontGlyphShiftedLeft)
+         return RecognizedLine.Source.SHIFTED_LEFT;
+      if (glyph instanceof UnknownGlyph)
+         return RecognizedLine.Source.UNKNOWN;
+      return RecognizedLine.Source.PLAIN;
+   }
+
    /**
     * @param topLeft must take the {@code lineHeight} into account: the top left corner of the 
     * actionable image includes the full height for the first line too.
-    * @return null if no match is found.
+    * @return null if no match is found. The lines stop at the first line where nothing is
+    * detected, unless {@code unknownGlyphSymbol} is set: such lines are then empty and only the
+    * trailing ones are dropped.
     */
    public List<String> detectCharactersOnMultipleLines(BufferedImage image, Color fontColor,
            int lineHeight, Point topLeft) {
@@ -71,14 +293,62 @@ public abstract class SearchTreeOCR {
       while (currentHeight + lineHeight <= image.getHeight()) {
          Point topLeftCopy = new Point(topLeft.x, currentHeight + nEmptyRowsBetweenLines);
          String line = detectCharactersOnOneLine(image, fontColor, topLeftCopy);
-         if (line == null)
+         if (line == null && unknownGlyphSymbol == null)
             break;
-         lines.add(line);
+         lines.add(line == null ? "" : line);
          currentHeight += lineHeight;
       }
-      return lines;
+      return removeTrailingEmptyLines(lines);
    }
    
+   /**
+    * Same as above, but the {@code topLeft} and the {@code lineHeight} can be wrong by up to
+    * {@code maxVerticalOffset} rows: the top of each line is found by a LineAligner, from where the
+    * previous line was found, before decoding the line once.
+    */
+   public List<String> detectCharactersOnMultipleLines(BufferedImage image, Color fontColor,
+           int lineHeight, Point topLeft, int maxVerticalOffset) {
+      List<String> lines = new ArrayList<>();
+      LineAligner aligner = getLineAligner();
+      int approximateTop = topLeft.y + lineHeight - glyphHeight;
+      while (approximateTop + glyphHeight <= image.getHeight() + maxVerticalOffset) {
+         int top = aligner.findTop(image, fontColor, new Point(topLeft.x, approximateTop), maxVerticalOffset);
+         if (top + glyphHeight > image.getHeight())
+            break;
+         String line = detectCharactersOnOneLine(image, fontColor, new Point(topLeft.x, top));
+         if (line == null && unknownGlyphSymbol == null)
+            break;
+         lines.add(line == null ? "" : line);
+         approximateTop = top + lineHeight;
+      }
+      return removeTrailingEmptyLines(lines);
+   }
+
+   /**
+    * The lines where nothing was detected at the end of a block, when {@code unknownGlyphSymbol}
+    * is set.
+    */
+   protected List<String> removeTrailingEmptyLines(List<String> lines) {
+      if (unknownGlyphSymbol == null)
+         return lines;
+      int nLines = lines.size();
+      while (nLines > 0 && lines.get(nLines - 1).isEmpty())
+         nLines--;
+      return new ArrayList<>(lines.subList(0, nLines));
+   }
+
+   /**
+    * Created on first use. Two threads may both create one, but each uses a complete aligner.
+    */
+   public LineAligner getLineAligner() {
+      LineAligner aligner = lineAligner;
+      if (aligner == null) {
+         aligner = new LineAligner(this);
+         lineAligner = aligner;
+      }
+      return aligner;
+   }
+
    /**
     * Uses the default glyph height for the line height.
     */
@@ -111,9 +381,10 @@ public abstract class SearchTreeOCR {
    public boolean checkIfAllSymbolsCanBeRecognized(Collection<String> alphabet) {
       boolean success = true;
       for (String symbol : alphabet) {
-         BufferedImage symbolImage = FontGlyph.makeImage(symbol, font);
-         String matchString = detectCharactersOnOneLine(symbolImage, Glyph.DEFAULT_FOREGROUND_COLOR, new Point(0, 0));
-         if (!matchString.equals(symbol)) {
+         BufferedImage symbolImage = font != null ? FontGlyph.makeImage(symbol, font) : drawGlyph(symbol);
+         String matchString = symbolImage == null
+                 ? null : detectCharactersOnOneLine(symbolImage, Glyph.DEFAULT_FOREGROUND_COLOR, new Point(0, 0));
+         if (!symbol.equals(matchString)) {
             success = false;
             //throw new AssertionError("Failed at matching " + symbol + " to its glyph.");
             System.out.println("Failed at matching " + symbol + " to its glyph. Likely due to many symbols having the same glyph.");
@@ -123,6 +394,31 @@ public abstract class SearchTreeOCR {
       return success;
    }
 
+   /**
+    * Draws the first glyph of {@code symbol}, for the engines without a font to draw it with.
+    *
+    * @return null if no glyph of the engine draws {@code symbol}.
+    */
+   protected BufferedImage drawGlyph(String symbol) {
+      for (FontGlyph glyph : getGlyphs()) {
+         Dimension dimension = glyph.getDimension();
+         if (!glyph.getGeneratingString().equals(symbol) || dimension.width == 0)
+            continue;
+         BufferedImage image = new BufferedImage(dimension.width, dimension.height, Glyph.IMAGE_TYPE);
+         Graphics2D g = image.createGraphics();
+         g.setColor(Glyph.DEFAULT_BACKGROUND_COLOR);
+         g.fillRect(0, 0, dimension.width, dimension.height);
+         g.dispose();
+         for (Point pixel : glyph.getActivePixels())
+            image.setRGB(pixel.x, pixel.y, Glyph.DEFAULT_FOREGROUND_COLOR.getRGB());
+         return image;
+      }
+      return null;
+   }
+
+   /**
+    * @return null for the glyphs of a bitmap font.
+    */
    public Font getFont() {
       return font;
    }
@@ -135,6 +431,69 @@ public abstract class SearchTreeOCR {
       return glyphHeight;
    }
 
+   public int getMaxMismatchedPixels() {
+      return maxMismatchedPixels;
+   }
+
+   /**
+    * If more than 0, where no glyph matches exactly, the glyph with the fewest mismatched pixels is
+    * matched if it has at most {@code maxMismatchedPixels} of them (see ApproximateGlyphIndex),
+    * instead of ending the line. The exact matches are always tried first, so the lines without
+    * noise are read as fast as before. Only the glyphs of the alphabet are matched approximately,
+    * and the lines must fit in a LineBand. They are returned as ApproximateGlyphs, with their
+    * number of mismatched pixels. 0 by default.
+    */
+   public void setMaxMismatchedPixels(int maxMismatchedPixels) {
+      if (maxMismatchedPixels < 0)
+         throw new IllegalArgumentException("The number of mismatched pixels cannot be negative.");
+      this.maxMismatchedPixels = maxMismatchedPixels;
+      incrementVersion();
+   }
+
+   public String getUnknownGlyphSymbol() {
+      return unknownGlyphSymbol;
+   }
+
+   /**
+    * If not null, where nothing matches on a line, the span up to the next column where a glyph of
+    * the alphabet can start is decoded as an UnknownGlyph with this symbol, instead of ending the
+    * line, so one icon does not hide the rest of the line. The lines where nothing is detected do
+    * not end the blocks of {@code detectCharactersOnMultipleLines} either. Unknown glyphs are only
+    * found on lines which fit in a LineBand. Null by default.
+    */
+   public void setUnknownGlyphSymbol(String unknownGlyphSymbol) {
+      if (unknownGlyphSymbol != null && unknownGlyphSymbol.isEmpty())
+         throw new IllegalArgumentException("The symbol of the unknown glyphs cannot be empty.");
+      this.unknownGlyphSymbol = unknownGlyphSymbol;
+      incrementVersion();
+   }
+
+   public boolean isEndLineOnTrailingBlank() {
+      return endLineOnTrailingBlank;
+   }
+
+   /**
+    * If true, a line ends as soon as there are only blank columns left to the right of the image,
+    * instead of being filled with spaces: {@code Utilities.removeTrailingSpaces} is then not needed.
+    * False by default.
+    */
+   public void setEndLineOnTrailingBlank(boolean endLineOnTrailingBlank) {
+      this.endLineOnTrailingBlank = endLineOnTrailingBlank;
+      incrementVersion();
+   }
+
+   /**
+    * Changes whenever a setting or the glyphs of the engine change, such that the lines detected
+    * before can be told apart (see LineCache).
+    */
+   public int getVersion() {
+      return version;
+   }
+
+   protected synchronized void incrementVersion() {
+      version++;
+   }
+
    /**
     * @return an unmodifiable list of the {@code FontGlyph}s.
     */
@@ -154,25 +513,102 @@ public abstract class SearchTreeOCR {
    public static class Basic extends SearchTreeOCR {
 
       protected SearchNode headNode;
+      protected BlankGlyphs blankGlyphs;
 
       public Basic(List<String> alphabet, Font font) {
          this(FontGlyph.buildGlyphsFromAlphabet(alphabet, font));
       }
 
       public Basic(List<FontGlyph> fontGlyphs) {
+         this(fontGlyphs, new SearchTreeBuilder());
+      }
+
+      public Basic(List<FontGlyph> fontGlyphs, SearchTreeBuilder builder) {
          super(fontGlyphs);
-         this.headNode = new SearchNode(fontGlyphs);
+         this.headNode = builder.build(fontGlyphs);
+         this.blankGlyphs = new BlankGlyphs(fontGlyphs);
       }
 
       @Override
       public List<FontGlyph> detectGlyphsOnOneLine(BufferedImage image, Color fontColor, Point topLeft) {
          List<FontGlyph> glyphsList = new ArrayList<>();
+         LineBand band = createLineBand(image, fontColor, topLeft);
          FontGlyph match;
-         while ((match = headNode.findLongestMatch(image, fontColor, topLeft)) != null) {
+         while (!isBlankToEndOfLine(band, topLeft.x)) {
+            match = band == null ? null : blankGlyphs.findLongestMatch(band, topLeft.x);
+            if (match == null)
+               match = headNode.findLongestMatch(image, fontColor, topLeft);
+            if (match == null)
+               match = findApproximateMatch(band, topLeft.x);
+            if (match == null)
+               match = skipUnknownGlyph(glyphsList, band, topLeft.x);
+            if (match == null)
+               break;
             glyphsList.add(match);
             topLeft.x += match.getDimension().width;
          }
          return glyphsList;
       }
    }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Same as Basic, but the search tree is flattened into a CompiledSearchTree, which uses much
+    * less memory and can be saved to disk and read back.
+    */
+   public static class Compiled extends SearchTreeOCR {
+
+      protected CompiledSearchTree compiledTree;
+      protected BlankGlyphs blankGlyphs;
+
+      public Compiled(List<String> alphabet, Font font) {
+         this(FontGlyph.buildGlyphsFromAlphabet(alphabet, font));
+      }
+
+      public Compiled(List<FontGlyph> fontGlyphs) {
+         this(fontGlyphs, new SearchTreeBuilder());
+      }
+
+      public Compiled(List<FontGlyph> fontGlyphs, SearchTreeBuilder builder) {
+         this(fontGlyphs, CompiledSearchTree.compile(builder.build(fontGlyphs), fontGlyphs, builder));
+      }
+
+      /**
+       * @param compiledTree must have been compiled for {@code fontGlyphs}.
+       */
+      public Compiled(List<FontGlyph> fontGlyphs, CompiledSearchTree compiledTree) {
+         super(fontGlyphs);
+         this.compiledTree = compiledTree;
+         this.blankGlyphs = new BlankGlyphs(fontGlyphs);
+      }
+
+      @Override
+      public List<FontGlyph> detectGlyphsOnOneLine(BufferedImage image, Color fontColor, Point topLeft) {
+         List<FontGlyph> glyphsList = new ArrayList<>();
+         LineBand band = createLineBand(image, fontColor, topLeft);
+         // The band already holds the column masks of the line, else the tree reads the image.
+         boolean isWalkingBand = band != null && band.getHeight() == compiledTree.getLineHeight();
+         int fontRGB = fontColor.getRGB();
+         int x = topLeft.x;
+         while (!isBlankToEndOfLine(band, x)) {
+            FontGlyph match = band == null ? null : blankGlyphs.findLongestMatch(band, x);
+            if (match == null) {
+               int glyphIndex = isWalkingBand ? compiledTree.findLongestMatchIndex(band, x)
+                       : compiledTree.findLongestMatchIndex(image, fontRGB, x, topLeft.y);
+               match = glyphIndex < 0 ? findApproximateMatch(band, x) : fontGlyphs.get(glyphIndex);
+               if (match == null)
+                  match = skipUnknownGlyph(glyphsList, band, x);
+               if (match == null)
+                  break;
+            }
+            glyphsList.add(match);
+            x += match.getDimension().width;
+         }
+         return glyphsList;
+      }
+
+      public CompiledSearchTree getCompiledTree() {
+         return compiledTree;
+      }
+   }
 }
@@ -1,102 +1,751 @@
 package fixedfontocr;
 
+import fixedfontocr.glyph.ApproximateGlyph;
 import fixedfontocr.glyph.FontGlyph;
 import fixedfontocr.glyph.FontGlyphShiftedLeft;
 import fixedfontocr.glyph.FontGlyphWithLeakedPixels;
+import fixedfontocr.glyph.Glyph;
+import fixedfontocr.glyph.UnknownGlyph;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Point;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Some glyphs are recognized as ContextualFontGlyphs, which mean that those cannot appear anywhere
  * on a line, but must have some specific adjacent FontGlyph on the right, or left, or both.
+ *
+ * <p> The glyphs of the alphabet, and everything built from them, are held by an AlphabetState
+ * which is replaced as a whole when the alphabet changes. Each line is decoded with the state read
+ * when its decoding starts.
  */
 public class SearchTreeOCRWithLeakedPixels extends SearchTreeOCR {
 
-   protected Set<FontGlyph> standardStartAlphabet;
-   protected Set<FontGlyph> startOfLineAlphabet;
-   protected Map<Set<FontGlyph>, SearchNode> nodesCache = new HashMap<>();
+   /**
+    * The most glyph sets restricted by line constraints which are kept with their search trees.
+    */
+   public static final int MAX_RESTRICTED_GLYPH_SETS = 1024;
+   protected SearchTreeBuilder builder;
+   /**
+    * Builds the trees of the glyph sets restricted by constraints, without sharing their subtrees,
+    * such that the trees are freed with their sets.
+    */
+   protected SearchTreeBuilder restrictedBuilder;
+   protected boolean doAddLeftShiftedFontGlyphs;
+   /**
+    * Only used by the thread changing the alphabet.
+    */
+   protected GeneratorOfFontGlyphsWithLeakedPixels generator;
+   protected volatile AlphabetState alphabetState;
 
    public SearchTreeOCRWithLeakedPixels(List<String> alphabet, Font font) {
       this(alphabet, font, true);
    }
 
    /**
-    * 
+    *
     * @param doAddLeftShiftedFontGlyphs if true, will also include the FontGlyphShiftedLeft for each letter
     * in the alphabet.  The basic FontGlyph for each letter is always included.
     */
    public SearchTreeOCRWithLeakedPixels(List<String> alphabet, Font font, boolean doAddLeftShiftedFontGlyphs) {
+      this(alphabet, font, doAddLeftShiftedFontGlyphs, createSharingBuilder());
+   }
+
+   /**
+    * @param builder used for all the search trees, for example to pick adaptive probe widths. It
+    * should share subtrees (see {@code SearchTreeBuilder.setSharingSubtrees}), otherwise each set of
+    * glyphs reached gets a full tree of its own.
+    */
+   public SearchTreeOCRWithLeakedPixels(List<String> alphabet, Font font, boolean doAddLeftShiftedFontGlyphs,
+           SearchTreeBuilder builder) {
       super(alphabet, font);
+      this.builder = builder;
+      this.restrictedBuilder = builder.withoutSharing();
+      this.doAddLeftShiftedFontGlyphs = doAddLeftShiftedFontGlyphs;
       List<FontGlyph> originalGlyphs = FontGlyph.buildGlyphsFromAlphabet(alphabet, font);
       if (doAddLeftShiftedFontGlyphs) {
          List<FontGlyphShiftedLeft> shiftedGlyphs = FontGlyphShiftedLeft.shiftAlphabetLeft(originalGlyphs);
          for (FontGlyphShiftedLeft shiftedGlyph : shiftedGlyphs)
             originalGlyphs.add(shiftedGlyph);
       }
-      GeneratorOfFontGlyphsWithLeakedPixels classifier = new GeneratorOfFontGlyphsWithLeakedPixels(originalGlyphs);
-      standardStartAlphabet = classifier.getAllGlyphsNotRequiringPrecedingGlyph();
-      startOfLineAlphabet = classifier.getAllGlyphsWhichCanStartALine();
+      generator = new GeneratorOfFontGlyphsWithLeakedPixels(originalGlyphs);
+      alphabetState = new AlphabetState(fontGlyphs, originalGlyphs);
+   }
+
+   /**
+    * Adds the glyphs of {@code symbols}, in the font of the engine, to the alphabet.
+    */
+   public void addSymbols(List<String> symbols) {
+      addGlyphs(FontGlyph.buildGlyphsFromAlphabet(symbols, font));
+   }
+
+   /**
+    * Adds glyphs to the alphabet without building the engine again: the leak analysis and the
+    * compound glyphs are only computed for the new glyphs (see
+    * {@code GeneratorOfFontGlyphsWithLeakedPixels.update}), and the contextual glyphs whose
+    * neighbors did not change are kept. The search trees are built again on use, but when the
+    * builder shares subtrees, only the paths leading to the new or changed glyphs are built: the
+    * subtrees of the glyphs which did not change are reused.
+    *
+    * <p> Lines can be detected meanwhile: the lines whose decoding already started are decoded
+    * with the previous alphabet.
+    */
+   public synchronized void addGlyphs(List<FontGlyph> glyphs) {
+      checkGlyphs(glyphs);
+      AlphabetState state = alphabetState;
+      List<FontGlyph> newFontGlyphs = new ArrayList<>(state.fontGlyphs);
+      newFontGlyphs.addAll(glyphs);
+      List<FontGlyph> newOriginalGlyphs = new ArrayList<>(state.originalGlyphs);
+      newOriginalGlyphs.addAll(glyphs);
+      if (doAddLeftShiftedFontGlyphs)
+         newOriginalGlyphs.addAll(FontGlyphShiftedLeft.shiftAlphabetLeft(glyphs));
+      updateGlyphs(newFontGlyphs, newOriginalGlyphs);
+   }
+
+   /**
+    * Removes all the glyphs of {@code symbols} from the alphabet, in the same way as
+    * {@code addGlyphs} adds some.
+    */
+   public synchronized void removeSymbols(Collection<String> symbols) {
+      Set<String> removedSymbols = new HashSet<>(symbols);
+      AlphabetState state = alphabetState;
+      List<FontGlyph> remainingGlyphs = new ArrayList<>();
+      for (FontGlyph glyph : state.fontGlyphs)
+         if (!removedSymbols.contains(glyph.getGeneratingString()))
+            remainingGlyphs.add(glyph);
+      if (remainingGlyphs.isEmpty())
+         throw new IllegalArgumentException("Must have some glyphs.");
+      List<FontGlyph> remainingOriginalGlyphs = new ArrayList<>();
+      for (FontGlyph glyph : state.originalGlyphs)
+         if (!removedSymbols.contains(glyph.getGeneratingString()))
+            remainingOriginalGlyphs.add(glyph);
+      updateGlyphs(remainingGlyphs, remainingOriginalGlyphs);
+   }
+
+   /**
+    * Generates the glyphs again from {@code originalGlyphs} and replaces the AlphabetState, whose
+    * caches start empty. The previous state is not modified. The builder forgets the subtrees of
+    * the glyphs which are gone (see {@code SearchTreeBuilder.retainGlyphs}), so the engine does not
+    * grow with each update.
+    */
+   protected void updateGlyphs(List<FontGlyph> fontGlyphs, List<FontGlyph> originalGlyphs) {
+      generator.update(originalGlyphs);
+      this.fontGlyphs = fontGlyphs;
+      AlphabetState state = new AlphabetState(fontGlyphs, originalGlyphs);
+      alphabetState = state;
+      lineAligner = null;
+      incrementVersion();
+      builder.retainGlyphs(state.getSearchedGlyphs());
+   }
+
+   @Override
+   public List<FontGlyph> getGlyphs() {
+      return Collections.unmodifiableList(alphabetState.fontGlyphs);
+   }
+
+   @Override
+   protected Collection<FontGlyph> getSearchedGlyphs() {
+      return alphabetState.getSearchedGlyphs();
+   }
+
+   @Override
+   protected Map<Glyph, List<FontGlyph>> getGlyphsPerPattern() {
+      return alphabetState.getGlyphsPerPattern();
+   }
+
+   @Override
+   protected ApproximateGlyphIndex getApproximateGlyphIndex() {
+      return alphabetState.getApproximateGlyphIndex();
+   }
+
+   @Override
+   protected GlyphStartIndex getGlyphStartIndex() {
+      return alphabetState.getGlyphStartIndex();
+   }
+
+   /**
+    * The glyphs of the successor sets which received pixels from their left neighbor are plain
+    * FontGlyphs, but they are contextual too.
+    */
+   @Override
+   protected RecognizedLine.Source getSource(FontGlyph glyph) {
+      RecognizedLine.Source source = super.getSource(glyph);
+      if (source != RecognizedLine.Source.CONTEXTUAL && source != RecognizedLine.Source.UNKNOWN
+              && source != RecognizedLine.Source.APPROXIMATE && !alphabetState.nonContextualGlyphs.contains(glyph))
+         return RecognizedLine.Source.CONTEXTUAL;
+      return source;
+   }
+
+   protected static SearchTreeBuilder createSharingBuilder() {
+      SearchTreeBuilder builder = new SearchTreeBuilder();
+      builder.setSharingSubtrees(true);
+      return builder;
    }
 
    @Override
    public List<FontGlyph> detectGlyphsOnOneLine(BufferedImage image, Color fontColor, Point topLeft) {
-      Point topLeftCopy = new Point(topLeft.x, topLeft.y);
-      return detectGlyphsOnOneLineRecursive(image, fontColor, topLeftCopy,
-              getSearchNode(startOfLineAlphabet), true);
+      LineBand band = createLineBand(image, fontColor, topLeft);
+      LineDecoding decoding = new LineDecoding(image, fontColor, topLeft, band);
+      return toGlyphList(decoding.decodeLine(), band, topLeft.x);
    }
 
    /**
-    * @return null if no glyph is recognized, or if a glyph is recognized, but it is a
-    * FontGlyphWithLeakedPixels and it does not respect its conditions (cannot start a line, or must
-    * be followed by some specified glyphs).
+    * Same as {@code detectGlyphsOnOneLine}, but the text of the line must follow {@code constraint}.
+    * At each position, only the glyphs of the symbols which the constraint allows there are
+    * searched, so the search trees are smaller. A matched glyph whose symbol is not allowed is
+    * replaced by an allowed glyph drawn the same, if any (for example 'O' and '0' in some fonts, for
+    * a number).
+    *
+    * @param constraint null for no constraint.
+    * @return null if no decoding of the line follows the constraint.
     */
-   protected List<FontGlyph> detectGlyphsOnOneLineRecursive(BufferedImage image, Color fontColor,
-           Point topLeft, SearchNode startNode, boolean isStartOfLine) {
+   public List<FontGlyph> detectGlyphsOnOneLine(BufferedImage image, Color fontColor, Point topLeft,
+           LineConstraint constraint) {
+      LineBand band = createLineBand(image, fontColor, topLeft);
+      LineDecoding decoding = new LineDecoding(image, fontColor, topLeft, band, constraint);
+      return toGlyphList(decoding.decodeLine(), band, topLeft.x);
+   }
 
-      FontGlyph detectedGlyph = startNode.findLongestMatch(image, fontColor, topLeft);
-      if (detectedGlyph == null)
+   /**
+    * @return null if nothing was decoded from {@code x}, except on a line which is blank from
+    * {@code x} when {@code endLineOnTrailingBlank} is set: the line is then empty, as with the
+    * other engines, unless a constraint does not accept an empty line.
+    */
+   protected List<FontGlyph> toGlyphList(DecodedGlyphs decodedGlyphs, LineBand band, int x) {
+      if (!decodedGlyphs.isEmpty())
+         return decodedGlyphs.toList();
+      if (decodedGlyphs.getEndX() == x && isBlankToEndOfLine(band, x))
+         return new ArrayList<>();
+      return null;
+   }
+
+   /**
+    * Same as {@code detectCharactersOnOneLine}, but the text of the line must follow
+    * {@code constraint} (see {@code detectGlyphsOnOneLine}).
+    *
+    * @return null if no decoding of the line follows the constraint.
+    */
+   public String detectCharactersOnOneLine(BufferedImage image, Color fontColor, Point topLeft,
+           LineConstraint constraint) {
+      List<FontGlyph> glyphsOnLine = detectGlyphsOnOneLine(image, fontColor, topLeft, constraint);
+      if (glyphsOnLine == null)
          return null;
+      StringBuilder stringBuilder = new StringBuilder();
+      for (FontGlyph glyph : glyphsOnLine)
+         stringBuilder.append(glyph.getGeneratingString());
+      return stringBuilder.toString();
+   }
+
+   protected static boolean requiresSuccessorGlyph(FontGlyph glyph) {
+      return (glyph instanceof FontGlyphWithLeakedPixels)
+              && ((FontGlyphWithLeakedPixels) glyph).requiresSuccessorGlyph();
+   }
 
-      List<FontGlyph> followingGlyphs;
-      if (detectedGlyph instanceof FontGlyphWithLeakedPixels) {
-         FontGlyphWithLeakedPixels contextualGlyph = (FontGlyphWithLeakedPixels) detectedGlyph;
-         Set<FontGlyph> successorGlyphs = new HashSet<>();
-         successorGlyphs.addAll(contextualGlyph.getPossibleSuccessorGlyphs());
-         if (!contextualGlyph.requiresSuccessorGlyph())  // TODO useless since always true
-            successorGlyphs.addAll(standardStartAlphabet);
+   /**
+    * Builds the search paths of the {@code hotGlyphs} in the trees used at the start of a line and
+    * after a plain glyph. Useful with a lazy SearchTreeBuilder (see {@code SearchNode.prewarm}).
+    */
+   public void prewarm(Collection<FontGlyph> hotGlyphs) {
+      AlphabetState state = alphabetState;
+      state.getSearchNode(state.startOfLineAlphabet).prewarm(hotGlyphs);
+      state.getSearchNode(state.standardStartAlphabet).prewarm(hotGlyphs);
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * The glyphs of one alphabet, with the search trees and indexes built from them on use. The
+    * glyphs are never modified once the state is built, and the caches can be read and filled by
+    * several threads, without locking.
+    */
+   protected class AlphabetState {
+
+      protected final List<FontGlyph> fontGlyphs;
+      protected final List<FontGlyph> originalGlyphs;
+      protected final Set<FontGlyph> allGlyphs;
+      protected final Set<FontGlyph> standardStartAlphabet;
+      protected final Set<FontGlyph> startOfLineAlphabet;
+      protected final Set<FontGlyph> nonContextualGlyphs;
+      protected final Map<Set<FontGlyph>, SearchNode> nodesCache = new ConcurrentHashMap<>();
+      protected final Map<Set<FontGlyph>, BlankGlyphs> blankGlyphsCache = new ConcurrentHashMap<>();
+      protected final Map<GlyphIdentity, Set<FontGlyph>> successorGlyphsCache = new ConcurrentHashMap<>();
+      protected final Map<Set<FontGlyph>, Set<FontGlyph>> canonicalSuccessorGlyphs = new ConcurrentHashMap<>();
+      protected final Map<RestrictionKey, RestrictedGlyphs> restrictedGlyphsCache = new ConcurrentHashMap<>();
+      protected volatile Map<Glyph, List<FontGlyph>> glyphsPerPattern;
+      protected volatile ApproximateGlyphIndex approximateGlyphIndex;
+      protected volatile GlyphStartIndex glyphStartIndex;
 
-         topLeft.x += detectedGlyph.getDimension().width;
-         followingGlyphs = detectGlyphsOnOneLineRecursive(image, fontColor, topLeft, getSearchNode(successorGlyphs), false);
+      /**
+       * Takes the glyphs which the {@code generator} generated last, from {@code originalGlyphs}.
+       */
+      protected AlphabetState(List<FontGlyph> fontGlyphs, List<FontGlyph> originalGlyphs) {
+         this.fontGlyphs = fontGlyphs;
+         this.originalGlyphs = originalGlyphs;
+         allGlyphs = generator.getAllGlyphs();
+         standardStartAlphabet = generator.getAllGlyphsNotRequiringPrecedingGlyph();
+         startOfLineAlphabet = generator.getAllGlyphsWhichCanStartALine();
+         nonContextualGlyphs = Collections.newSetFromMap(new IdentityHashMap<FontGlyph, Boolean>());
+         nonContextualGlyphs.addAll(generator.getNonContextualGlyphs());
+      }
+
+      /**
+       * The sets of the generator hold one glyph per pixel pattern, so the original glyphs are added
+       * for the symbols drawn the same.
+       */
+      protected Collection<FontGlyph> getSearchedGlyphs() {
+         List<FontGlyph> glyphs = new ArrayList<>(allGlyphs);
+         glyphs.addAll(originalGlyphs);
+         return glyphs;
+      }
+
+      protected Map<Glyph, List<FontGlyph>> getGlyphsPerPattern() {
+         Map<Glyph, List<FontGlyph>> patterns = glyphsPerPattern;
+         if (patterns == null) {
+            patterns = groupByPattern(getSearchedGlyphs());
+            glyphsPerPattern = patterns;
+         }
+         return patterns;
+      }
+
+      protected ApproximateGlyphIndex getApproximateGlyphIndex() {
+         ApproximateGlyphIndex index = approximateGlyphIndex;
+         if (index == null) {
+            index = new ApproximateGlyphIndex(fontGlyphs);
+            approximateGlyphIndex = index;
+         }
+         return index;
+      }
+
+      protected GlyphStartIndex getGlyphStartIndex() {
+         GlyphStartIndex index = glyphStartIndex;
+         if (index == null) {
+            index = new GlyphStartIndex(fontGlyphs);
+            glyphStartIndex = index;
+         }
+         return index;
+      }
+
+      /**
+       * Same as {@code SearchTreeOCR.findApproximateMatch}, among the glyphs of this state.
+       */
+      protected ApproximateGlyph findApproximateMatch(LineBand band, int x) {
+         if (maxMismatchedPixels == 0 || band == null || x >= band.getRight())
+            return null;
+         return SearchTreeOCR.findApproximateMatch(getApproximateGlyphIndex(), band, x, maxMismatchedPixels);
+      }
 
-         if (contextualGlyph.requiresSuccessorGlyph() && (followingGlyphs == null || followingGlyphs.isEmpty()))
+      /**
+       * The glyphs of {@code glyphs} whose symbol, or the symbol of a glyph drawn the same, is one
+       * of {@code allowedSymbols}, with their search tree. The restricted sets are shared like
+       * {@code glyphs}, such that their search trees are only built once, but only the last
+       * {@code MAX_RESTRICTED_GLYPH_SETS} or so are kept: the cache is emptied when it is full, so
+       * the engine does not grow with each constraint it is used with. It is read without locking.
+       *
+       * @param allowedSymbols null to allow all the symbols.
+       * @return null if all the {@code glyphs} are allowed.
+       */
+      protected RestrictedGlyphs restrictGlyphs(Set<FontGlyph> glyphs, Set<String> allowedSymbols) {
+         if (allowedSymbols == null)
             return null;
-      } else {
-         topLeft.x += detectedGlyph.getDimension().width;
-         followingGlyphs = detectGlyphsOnOneLineRecursive(image, fontColor, topLeft, getSearchNode(standardStartAlphabet), false);
+         RestrictedGlyphs restrictedGlyphs = restrictedGlyphsCache.get(new RestrictionKey(glyphs, allowedSymbols));
+         if (restrictedGlyphs == null) {
+            Map<Glyph, List<FontGlyph>> patterns = getGlyphsPerPattern();
+            Set<FontGlyph> allowedGlyphs = new HashSet<>();
+            for (FontGlyph glyph : glyphs)
+               for (FontGlyph sameGlyph : findAlternatives(patterns, glyph))
+                  if (allowedSymbols.contains(sameGlyph.getGeneratingString())) {
+                     allowedGlyphs.add(glyph);
+                     break;
+                  }
+            restrictedGlyphs = new RestrictedGlyphs(allowedGlyphs.size() == glyphs.size() ? null : allowedGlyphs);
+            if (restrictedGlyphsCache.size() >= MAX_RESTRICTED_GLYPH_SETS)
+               restrictedGlyphsCache.clear();
+            RestrictedGlyphs concurrentGlyphs = restrictedGlyphsCache.putIfAbsent(
+                    new RestrictionKey(glyphs, new HashSet<>(allowedSymbols)), restrictedGlyphs);
+            if (concurrentGlyphs != null)
+               restrictedGlyphs = concurrentGlyphs;
+         }
+         return restrictedGlyphs.glyphs == null ? null : restrictedGlyphs;
+      }
+
+      /**
+       * The glyphs which can follow {@code glyph} on a line. The returned sets are shared, such
+       * that the same set is returned for all glyphs with equal successors. Called for each glyph
+       * tried by the decoding of each line, so it does not lock: two threads may build the
+       * successors of the same glyph at the same time, but they then get the same set.
+       */
+      protected Set<FontGlyph> getSuccessorGlyphs(FontGlyph glyph) {
+         if (!(glyph instanceof FontGlyphWithLeakedPixels))
+            return standardStartAlphabet;
+         GlyphIdentity key = new GlyphIdentity(glyph);
+         Set<FontGlyph> successorGlyphs = successorGlyphsCache.get(key);
+         if (successorGlyphs == null) {
+            FontGlyphWithLeakedPixels contextualGlyph = (FontGlyphWithLeakedPixels) glyph;
+            successorGlyphs = new HashSet<>();
+            successorGlyphs.addAll(contextualGlyph.getPossibleSuccessorGlyphs());
+            if (!contextualGlyph.requiresSuccessorGlyph())  // TODO useless since always true
+               successorGlyphs.addAll(standardStartAlphabet);
+            Set<FontGlyph> canonicalGlyphs = canonicalSuccessorGlyphs.putIfAbsent(successorGlyphs, successorGlyphs);
+            if (canonicalGlyphs != null)
+               successorGlyphs = canonicalGlyphs;
+            successorGlyphsCache.put(key, successorGlyphs);
+         }
+         return successorGlyphs;
+      }
+
+      /**
+       * Can be called by several threads at the same time. If two threads build the node of the
+       * same set, only one of them is kept.
+       */
+      protected SearchNode getSearchNode(Set<FontGlyph> successorGlyphs) {
+         SearchNode node = nodesCache.get(successorGlyphs);
+         if (node == null) {
+            node = builder.build(successorGlyphs);
+            SearchNode concurrentNode = nodesCache.putIfAbsent(successorGlyphs, node);
+            if (concurrentNode != null)
+               node = concurrentNode;
+         }
+         return node;
+      }
+
+      protected BlankGlyphs getBlankGlyphs(Set<FontGlyph> startGlyphs) {
+         BlankGlyphs blankGlyphs = blankGlyphsCache.get(startGlyphs);
+         if (blankGlyphs == null) {
+            blankGlyphs = new BlankGlyphs(startGlyphs);
+            blankGlyphsCache.put(startGlyphs, blankGlyphs);
+         }
+         return blankGlyphs;
+      }
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Decodes one line by dynamic programming over (x position, set of possible glyphs at x). Each
+    * pair is evaluated at most once and its result is memoized, so the time is linear in the width
+    * of the line even when the contextual glyphs lead to many dead ends.
+    *
+    * <p> At each position, all the glyphs matching there are tried (see
+    * {@code SearchNode.findAllMatches}), from the longest to the shortest. The one leading to the
+    * decoding which goes furthest to the right is kept; the longest glyph wins the ties, so the
+    * result is the same as a greedy longest-match decoding whenever that one reaches as far. Once a
+    * decoding reaches the end of the line, the shorter glyphs are not tried, so a line which the
+    * greedy decoding reads completely costs no more than before. A
+    * FontGlyphWithLeakedPixels which requires a successor glyph is only valid if it is followed by
+    * at least one glyph.
+    *
+    * <p> Runs of blank columns are matched with BlankGlyphs when possible, without going through
+    * the SearchNode. Where no glyph leads anywhere, a glyph of the alphabet can be matched
+    * approximately (see {@code setMaxMismatchedPixels}), and otherwise the columns up to the next
+    * possible start of a glyph can be skipped as an UnknownGlyph (see
+    * {@code setUnknownGlyphSymbol}).
+    *
+    * <p> The whole line is decoded with the AlphabetState of the engine when the decoding is
+    * created, even if the alphabet changes meanwhile.
+    */
+   protected class LineDecoding {
+
+      protected BufferedImage image;
+      protected Color fontColor;
+      protected int left;
+      protected int top;
+      protected LineBand band;
+      protected LineConstraint constraint;
+      protected AlphabetState alphabet = alphabetState;
+      protected Map<Set<FontGlyph>, Map<Object, DecodedGlyphs[]>> memos = new IdentityHashMap<>();
+
+      /**
+       * @param band can be null.
+       */
+      protected LineDecoding(BufferedImage image, Color fontColor, Point topLeft, LineBand band) {
+         this(image, fontColor, topLeft, band, null);
+      }
+
+      /**
+       * @param band can be null.
+       * @param constraint null for no constraint.
+       */
+      protected LineDecoding(BufferedImage image, Color fontColor, Point topLeft, LineBand band,
+              LineConstraint constraint) {
+         this.image = image;
+         this.fontColor = fontColor;
+         this.left = topLeft.x;
+         this.top = topLeft.y;
+         this.band = band;
+         this.constraint = constraint;
+      }
+
+      /**
+       * @return the best decoding of the whole line.
+       */
+      protected DecodedGlyphs decodeLine() {
+         return decode(left, alphabet.startOfLineAlphabet);
+      }
+
+      /**
+       * @param startGlyphs must be one of the shared sets of the {@code alphabet} (start of line,
+       * standard start, or from {@code getSuccessorGlyphs}).
+       * @return the best decoding from {@code x}, which is empty if nothing is recognized at x.
+       */
+      protected DecodedGlyphs decode(int x, Set<FontGlyph> startGlyphs) {
+         return decode(x, startGlyphs, constraint == null ? null : constraint.getStartState());
+      }
+
+      /**
+       * The memoization is per (x, set of glyphs, state of the constraint). A decoding ending in a
+       * state which is not accepting is a dead end, whose end is before any position.
+       *
+       * @param state null if there is no constraint.
+       */
+      protected DecodedGlyphs decode(int x, Set<FontGlyph> startGlyphs, Object state) {
+         DecodedGlyphs[] memo = getMemo(startGlyphs, state);
+         if (memo[x - left] != null)
+            return memo[x - left];
+         DecodedGlyphs best = constraint == null || constraint.isAccepting(state)
+                 ? new DecodedGlyphs(x) : new DecodedGlyphs(Integer.MIN_VALUE);
+         RestrictedGlyphs restrictedGlyphs = constraint == null
+                 ? null : alphabet.restrictGlyphs(startGlyphs, constraint.getAllowedSymbols(state));
+         Set<FontGlyph> glyphs = restrictedGlyphs == null ? startGlyphs : restrictedGlyphs.glyphs;
+         if (!glyphs.isEmpty() && !isBlankToEndOfLine(band, x)) {
+            List<FontGlyph> candidates = restrictedGlyphs == null
+                    ? findCandidates(x, startGlyphs) : restrictedGlyphs.findCandidates(this, x);
+            best = decodeCandidates(x, candidates, state, best);
+            if (best.getEndX() <= x) {
+               FontGlyph approximateGlyph = alphabet.findApproximateMatch(band, x);
+               if (approximateGlyph != null)
+                  best = decodeCandidates(x, Collections.singletonList(approximateGlyph), state, best);
+            }
+            if (best.getEndX() <= x && unknownGlyphSymbol != null && band != null && !band.isBlankToTheRight(x)) {
+               FontGlyph unknownGlyph = createUnknownGlyph(band, x, alphabet.getGlyphStartIndex().findNextStart(band, x));
+               best = decodeCandidates(x, Collections.singletonList(unknownGlyph), state, best);
+            }
+         }
+         memo[x - left] = best;
+         return best;
+      }
+
+      /**
+       * @return the decoding going furthest among {@code best} and those starting with one of the
+       * {@code candidates}, tried in order.
+       */
+      protected DecodedGlyphs decodeCandidates(int x, List<FontGlyph> candidates, Object state, DecodedGlyphs best) {
+         for (FontGlyph glyph : candidates) {
+            if (glyph.getDimension().width == 0)
+               continue;
+            // The glyph of the alphabet, which the successors depend on.
+            FontGlyph alphabetGlyph = glyph instanceof ApproximateGlyph ? ((ApproximateGlyph) glyph).getMatchedGlyph() : glyph;
+            FontGlyph decodedGlyph = glyph;
+            Object followingState = null;
+            if (constraint != null) {
+               decodedGlyph = findAllowedGlyph(glyph, state);
+               if (decodedGlyph == null)
+                  continue;
+               if (glyph instanceof ApproximateGlyph && decodedGlyph != glyph)
+                  decodedGlyph = new ApproximateGlyph(decodedGlyph, ((ApproximateGlyph) glyph).getMismatchedPixelCount());
+               followingState = constraint.next(state, decodedGlyph.getGeneratingString());
+            }
+            DecodedGlyphs following = decode(x + glyph.getDimension().width, alphabet.getSuccessorGlyphs(alphabetGlyph),
+                    followingState);
+            if (requiresSuccessorGlyph(alphabetGlyph) && following.isEmpty())
+               continue;
+            if (following.getEndX() > best.getEndX())
+               best = new DecodedGlyphs(decodedGlyph, following);
+            if (isEndOfLine(best.getEndX()))
+               break;
+         }
+         return best;
+      }
+
+      protected DecodedGlyphs[] getMemo(Set<FontGlyph> startGlyphs, Object state) {
+         Map<Object, DecodedGlyphs[]> memosPerState = memos.get(startGlyphs);
+         if (memosPerState == null) {
+            memosPerState = new HashMap<>();
+            memos.put(startGlyphs, memosPerState);
+         }
+         DecodedGlyphs[] memo = memosPerState.get(state);
+         if (memo == null) {
+            memo = new DecodedGlyphs[Math.max(0, image.getWidth() - left) + 1];
+            memosPerState.put(state, memo);
+         }
+         return memo;
+      }
+
+      /**
+       * @return {@code glyph} if the constraint allows its symbol in {@code state}, otherwise the
+       * first allowed glyph with the same dimension and pixels, or null if there is none.
+       */
+      protected FontGlyph findAllowedGlyph(FontGlyph glyph, Object state) {
+         for (FontGlyph sameGlyph : findAlternatives(alphabet.getGlyphsPerPattern(), glyph))
+            if (constraint.next(state, sameGlyph.getGeneratingString()) != null)
+               return sameGlyph;
+         return null;
+      }
+
+      /**
+       * No decoding can go further than x.
+       */
+      protected boolean isEndOfLine(int x) {
+         return x >= image.getWidth() || isBlankToEndOfLine(band, x);
+      }
+
+      /**
+       * @return the glyphs matching at {@code x}, from the longest to the shortest.
+       */
+      protected List<FontGlyph> findCandidates(int x, Set<FontGlyph> startGlyphs) {
+         return findCandidates(x, alphabet.getBlankGlyphs(startGlyphs), alphabet.getSearchNode(startGlyphs));
+      }
+
+      protected List<FontGlyph> findCandidates(int x, BlankGlyphs blankGlyphs, SearchNode node) {
+         if (band != null) {
+            FontGlyph blankGlyph = blankGlyphs.findLongestMatch(band, x);
+            if (blankGlyph != null)
+               return Collections.singletonList(blankGlyph);
+         }
+         return node.findAllMatches(image, fontColor, new Point(x, top));
+      }
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * A set of glyphs, compared by identity like the sets of the decoding, and some allowed symbols.
+    */
+   protected static class RestrictionKey {
+
+      protected Set<FontGlyph> glyphs;
+      protected Set<String> allowedSymbols;
+
+      protected RestrictionKey(Set<FontGlyph> glyphs, Set<String> allowedSymbols) {
+         this.glyphs = glyphs;
+         this.allowedSymbols = allowedSymbols;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         if (!(obj instanceof RestrictionKey))
+            return false;
+         RestrictionKey other = (RestrictionKey) obj;
+         return glyphs == other.glyphs && allowedSymbols.equals(other.allowedSymbols);
+      }
+
+      @Override
+      public int hashCode() {
+         return 31 * System.identityHashCode(glyphs) + allowedSymbols.hashCode();
       }
-      List<FontGlyph> matchedGlyphs = new ArrayList<>();
-      matchedGlyphs.add(detectedGlyph);
-      if (followingGlyphs != null)
-         matchedGlyphs.addAll(followingGlyphs);
-      return matchedGlyphs;
    }
 
-   protected SearchNode getSearchNode(Set<FontGlyph> successorGlyphs) {
-      if (!nodesCache.containsKey(successorGlyphs))
-         createNodeAndAddToCache(successorGlyphs);
-      return nodesCache.get(successorGlyphs);
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * The glyphs of a set allowed by a constraint, and their search tree, built on first use. The
+    * tree belongs to the restricted set instead of being cached by the engine, and its nodes are not
+    * shared with the other trees (see {@code restrictedBuilder}), so it goes away with it.
+    */
+   protected class RestrictedGlyphs {
+
+      /**
+       * Null if all the glyphs of the set are allowed.
+       */
+      protected Set<FontGlyph> glyphs;
+      protected volatile SearchNode node;
+      protected volatile BlankGlyphs blankGlyphs;
+
+      protected RestrictedGlyphs(Set<FontGlyph> glyphs) {
+         this.glyphs = glyphs;
+      }
+
+      protected List<FontGlyph> findCandidates(LineDecoding decoding, int x) {
+         SearchNode searchNode = node;
+         if (searchNode == null) {
+            searchNode = restrictedBuilder.build(glyphs);
+            node = searchNode;
+         }
+         BlankGlyphs blanks = blankGlyphs;
+         if (blanks == null) {
+            blanks = new BlankGlyphs(glyphs);
+            blankGlyphs = blanks;
+         }
+         return decoding.findCandidates(x, blanks, searchNode);
+      }
+   }
+
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * A glyph as a key compared by identity, since distinct glyphs can have the same pixels.
+    */
+   protected static class GlyphIdentity {
+
+      protected FontGlyph glyph;
+
+      protected GlyphIdentity(FontGlyph glyph) {
+         this.glyph = glyph;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         return obj instanceof GlyphIdentity && ((GlyphIdentity) obj).glyph == glyph;
+      }
+
+      @Override
+      public int hashCode() {
+         return System.identityHashCode(glyph);
+      }
    }
 
-   private void createNodeAndAddToCache(Set<FontGlyph> successorGlyphs) {
-      SearchNode node = new SearchNode(successorGlyphs);
-      nodesCache.put(successorGlyphs, node);
+   /////////////////////////////////////////////////////////////////////////////////////////////
+   /**
+    * A decoded line, or the end of it, as an immutable linked list which can be shared by several
+    * decodings.
+    */
+   protected static class DecodedGlyphs {
+
+      protected FontGlyph glyph;
+      protected DecodedGlyphs following;
+      protected int endX;
+
+      /**
+       * The empty decoding, ending at {@code x}.
+       */
+      protected DecodedGlyphs(int x) {
+         this.endX = x;
+      }
+
+      protected DecodedGlyphs(FontGlyph glyph, DecodedGlyphs following) {
+         this.glyph = glyph;
+         this.following = following;
+         this.endX = following.endX;
+      }
+
+      protected boolean isEmpty() {
+         return glyph == null;
+      }
+
+      /**
+       * The x coordinate just after the last decoded glyph.
+       */
+      protected int getEndX() {
+         return endX;
+      }
+
+      /**
+       * Consecutive UnknownGlyphs are merged into one.
+       */
+      protected List<FontGlyph> toList() {
+         List<FontGlyph> glyphs = new ArrayList<>();
+         for (DecodedGlyphs decoded = this; !decoded.isEmpty(); decoded = decoded.following) {
+            int last = glyphs.size() - 1;
+            if (decoded.glyph instanceof UnknownGlyph && last >= 0 && glyphs.get(last) instanceof UnknownGlyph)
+               glyphs.set(last, UnknownGlyph.merge((UnknownGlyph) glyphs.get(last), (UnknownGlyph) decoded.glyph));
+            else
+               glyphs.add(decoded.glyph);
+         }
+         return glyphs;
+      }
    }
 }
@@ -0,0 +1,32 @@
+package fixedfontocr.glyph;
+
+/**
+ * A glyph of the alphabet matched where no glyph matched exactly, with some pixels differing from
+ * the image (see {@code SearchTreeOCR.setMaxMismatchedPixels}). It has the symbol, the dimension
+ * and the pixels of the matched glyph, not those of the image.
+ */
+public class ApproximateGlyph extends FontGlyph {
+
+   protected FontGlyph matchedGlyph;
+   protected int mismatchedPixelCount;
+
+   public ApproximateGlyph(FontGlyph matchedGlyph, int mismatchedPixelCount) {
+      super(matchedGlyph);
+      this.matchedGlyph = matchedGlyph;
+      this.mismatchedPixelCount = mismatchedPixelCount;
+   }
+
+   /**
+    * The glyph of the alphabet, for example to find the glyphs which may follow it.
+    */
+   public FontGlyph getMatchedGlyph() {
+      return matchedGlyph;
+   }
+
+   /**
+    * The number of pixels of the image differing from those of the glyph.
+    */
+   public int getMismatchedPixelCount() {
+      return mismatchedPixelCount;
+   }
+}
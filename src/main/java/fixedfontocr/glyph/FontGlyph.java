@@ -42,6 +42,7 @@ public class FontGlyph extends Glyph {
       this.dimension = tempGlyph.dimension;
       this.activePixels = tempGlyph.activePixels;
       this.cachedHashCode = tempGlyph.cachedHashCode;
+      internActivePixels();
    }
 
    public FontGlyph(FontGlyph fGlyph) {
@@ -62,6 +63,14 @@ public class FontGlyph extends Glyph {
       this(generatingString, null);
    }
 
+   /**
+    * Without a font, for the subclasses which have none.
+    */
+   protected FontGlyph(String generatingString, Dimension dimension, List<Point> activePixels) {
+      super(dimension, activePixels);
+      this.generatingString = generatingString;
+   }
+
    protected FontGlyph() {
    }
 
@@ -90,6 +99,16 @@ public class FontGlyph extends Glyph {
       return lineMetrics;
    }
 
+   /**
+    * The row of the baseline in the images made by {@code makeImage}, which is also the number of
+    * rows of the glyphs above the baseline.
+    */
+   public static int getBaseline(Font font) {
+      LineMetrics lineMetrics = getLineMetrics(font);
+      int descent = Math.round(lineMetrics.getDescent());
+      return Math.round(lineMetrics.getHeight()) - 2 * descent;
+   }
+
    public static RenderingHints getRenderingHints() {
       return renderingHints;
    }
@@ -226,6 +245,15 @@ public class FontGlyph extends Glyph {
          this.dimension = tempGlyph.dimension;
          this.activePixels = tempGlyph.activePixels;
          this.cachedHashCode = tempGlyph.cachedHashCode;
+         internActivePixels();
+      }
+
+      /**
+       * For the glyphs read from a whole font at once (see {@code BitmapFontPack}).
+       */
+      public Bitmap(String generatingString, String fontName, Dimension dimension, List<Point> activePixels) {
+         super(generatingString, dimension, activePixels);
+         this.fontName = fontName;
       }
 
       public String getFontName() {
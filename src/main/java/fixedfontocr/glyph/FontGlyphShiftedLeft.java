@@ -3,7 +3,6 @@ package fixedfontocr.glyph;
 import java.awt.Dimension;
 import java.awt.Point;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -22,7 +21,7 @@ public class FontGlyphShiftedLeft extends FontGlyph {
       List<Point> tempPixels = new ArrayList<>(this.activePixels.size());
       for (Point point : this.activePixels)
          tempPixels.add(new Point(point.x - nColumnsToRemove, point.y));
-      this.activePixels = Collections.unmodifiableList(tempPixels);
+      this.activePixels = PixelPatternPool.intern(tempPixels);
       this.cachedHashCode = precomputeHashCode();
    }
    
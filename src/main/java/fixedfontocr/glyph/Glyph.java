@@ -17,12 +17,22 @@ import java.util.Objects;
  * be ordered increasingly in x, and the pixels in each column are ordered increasingly in y.
  *
  * <p> The hash code is computed during construction and cached.
+ *
+ * <p> The pixels of the glyphs built from a list of pixels, and of all the FontGlyphs, come from the
+ * PixelPatternPool, so equal glyphs usually share the same list. The glyphs read from an image with
+ * {@code Glyph(image, activeColor, start, dimension)}, which are built for every lookup, are not
+ * pooled.
  */
 public class Glyph {
 
    public static final int IMAGE_TYPE = BufferedImage.TYPE_INT_RGB;
    public static final Color DEFAULT_FOREGROUND_COLOR = Color.BLACK;
    public static final Color DEFAULT_BACKGROUND_COLOR = Color.WHITE;
+   /**
+    * Column masks store one bit per row in a long, so they are only defined for glyphs that are at
+    * most this tall.
+    */
+   public static final int MAX_COLUMN_MASK_HEIGHT = Long.SIZE;
    protected Dimension dimension;
    protected List<Point> activePixels;
    protected int cachedHashCode;
@@ -35,7 +45,7 @@ public class Glyph {
       List<Point> tempPixels = new ArrayList<>();
       tempPixels.addAll(activePixels);
       sortPixelsInYThenInX(tempPixels);
-      this.activePixels = Collections.unmodifiableList(tempPixels);
+      this.activePixels = PixelPatternPool.intern(tempPixels);
       this.cachedHashCode = precomputeHashCode();
    }
 
@@ -78,6 +88,13 @@ public class Glyph {
       return Collections.unmodifiableList(activePixels);
    }
 
+   /**
+    * Replaces the active pixels by those of the PixelPatternPool.
+    */
+   protected void internActivePixels() {
+      activePixels = PixelPatternPool.intern(activePixels);
+   }
+
    public BufferedImage asImage() {
       int width = dimension.width;
       int height = dimension.height;
@@ -106,6 +123,32 @@ public class Glyph {
       }
       return new Glyph(new Dimension(width, this.getDimension().height), chosenPixels);
    }
+
+   /**
+    * One long per column, in which bit {@code iy} is set if the pixel at row {@code iy} of that
+    * column is active.
+    */
+   public long[] getColumnMasks() {
+      if (dimension.height > MAX_COLUMN_MASK_HEIGHT)
+         throw new IllegalStateException("Column masks are limited to glyphs of height "
+                 + MAX_COLUMN_MASK_HEIGHT + ".");
+      long[] masks = new long[dimension.width];
+      for (Point pixel : activePixels)
+         masks[pixel.x] |= 1L << pixel.y;
+      return masks;
+   }
+
+   /**
+    * The column mask (see {@code getColumnMasks}) of the {@code height} pixels of the image starting
+    * at ({@code x}, {@code y}) and going down.
+    */
+   public static long columnMask(BufferedImage image, int activeRGB, int x, int y, int height) {
+      long mask = 0L;
+      for (int iy = 0; iy < height; iy++)
+         if (image.getRGB(x, y + iy) == activeRGB)
+            mask |= 1L << iy;
+      return mask;
+   }
    protected static Comparator<Point> comparatorX = new Comparator<Point>() {
 
       @Override
@@ -133,6 +176,10 @@ public class Glyph {
       if (!(obj instanceof Glyph))
          return false;
       final Glyph other = (Glyph) obj;
+      if (this.activePixels == other.activePixels)
+         return true;
+      if (this.cachedHashCode != other.cachedHashCode)
+         return false;
       if (!Objects.equals(this.activePixels, other.activePixels))
          return false;
       return true;
@@ -0,0 +1,46 @@
+package fixedfontocr.glyph;
+
+import java.awt.Point;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A pool of canonical lists of active pixels, shared by all the glyphs of all the fonts. The glyphs
+ * with the same pixels then share the same immutable list, so they take less memory and their
+ * {@code equals} can stop at the identity of the lists.
+ *
+ * <p> The pool only holds weak references: a pattern which is no longer used by any glyph is
+ * removed from it. The Points of a pooled list must never be modified.
+ */
+public class PixelPatternPool {
+
+   protected static final Map<List<Point>, WeakReference<List<Point>>> pool = new WeakHashMap<>();
+
+   private PixelPatternPool() {
+   }
+
+   /**
+    * @param activePixels must be ordered as in a Glyph.
+    * @return the canonical unmodifiable list equal to {@code activePixels}.
+    */
+   public static synchronized List<Point> intern(List<Point> activePixels) {
+      WeakReference<List<Point>> reference = pool.get(activePixels);
+      List<Point> pattern = reference == null ? null : reference.get();
+      if (pattern == null) {
+         pattern = Collections.unmodifiableList(new ArrayList<>(activePixels));
+         pool.put(pattern, new WeakReference<>(pattern));
+      }
+      return pattern;
+   }
+
+   /**
+    * The number of distinct patterns in the pool.
+    */
+   public static synchronized int size() {
+      return pool.size();
+   }
+}
@@ -0,0 +1,36 @@
+package fixedfontocr.glyph;
+
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The pixels of a span of a line where no glyph of the alphabet was recognized (an icon, a symbol
+ * of another font...), with a placeholder as generating string. See
+ * {@code SearchTreeOCR.setUnknownGlyphSymbol}.
+ */
+public class UnknownGlyph extends FontGlyph {
+
+   /**
+    * @param font null for the engines of bitmap fonts.
+    */
+   public UnknownGlyph(String placeholder, Font font, Dimension dimension, List<Point> activePixels) {
+      super(placeholder, dimension, activePixels);
+      this.font = font;
+   }
+
+   /**
+    * @return one UnknownGlyph spanning {@code left} and then {@code right}.
+    */
+   public static UnknownGlyph merge(UnknownGlyph left, UnknownGlyph right) {
+      List<Point> pixels = new ArrayList<>(left.activePixels.size() + right.activePixels.size());
+      pixels.addAll(left.activePixels);
+      int offset = left.dimension.width;
+      for (Point point : right.activePixels)
+         pixels.add(new Point(point.x + offset, point.y));
+      Dimension dimension = new Dimension(offset + right.dimension.width, left.dimension.height);
+      return new UnknownGlyph(left.generatingString, left.font, dimension, pixels);
+   }
+}
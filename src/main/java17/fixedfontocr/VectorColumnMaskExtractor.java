@@ -0,0 +1,34 @@
+package fixedfontocr;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Compares {@code SPECIES.length()} pixels of a row to the font color at once (8 with AVX2), and
+ * only sets the bits of the columns where some pixels matched, which are few in text. Only
+ * compiled for Java 17 or later (see ColumnMaskExtractor).
+ */
+public class VectorColumnMaskExtractor extends ColumnMaskExtractor {
+
+   protected static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+   @Override
+   public void extract(int[] pixels, int width, int height, int fontRGB, long[] columnMasks) {
+      int upperBound = SPECIES.loopBound(width);
+      for (int iy = 0; iy < height; iy++) {
+         long bit = 1L << iy;
+         int rowStart = iy * width;
+         int ix = 0;
+         for (; ix < upperBound; ix += SPECIES.length()) {
+            long matchingLanes = IntVector.fromArray(SPECIES, pixels, rowStart + ix).eq(fontRGB).toLong();
+            while (matchingLanes != 0) {
+               columnMasks[ix + Long.numberOfTrailingZeros(matchingLanes)] |= bit;
+               matchingLanes &= matchingLanes - 1;
+            }
+         }
+         for (; ix < width; ix++)
+            if (pixels[rowStart + ix] == fontRGB)
+               columnMasks[ix] |= bit;
+      }
+   }
+}
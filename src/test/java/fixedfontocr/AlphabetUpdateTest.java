@@ -0,0 +1,111 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.FontGlyphWithLeakedPixels;
+import fixedfontocr.glyph.Glyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Symbols added to and removed from a SearchTreeOCRWithLeakedPixels after it is built.
+ */
+public class AlphabetUpdateTest {
+    private final Font font = new Font("Monospaced", Font.PLAIN, 10);
+    private final Color fontColor = Glyph.DEFAULT_FOREGROUND_COLOR;
+    private final List<String> lines = Arrays.asList("The jolly fox, far off; jumps: f(j) = [y/x] {quick}",
+            "ffjj fjfj jjff", "\"left\" 'right' /j/ (f)");
+
+    @Test
+    public void testAddSymbols() {
+        List<String> alphabet = new ArrayList<>(SearchTreeOCR.getDefaultAlphabet());
+        List<String> addedSymbols = Arrays.asList("f", "j", "x");
+        alphabet.removeAll(addedSymbols);
+        SearchTreeOCRWithLeakedPixels searchTree = new SearchTreeOCRWithLeakedPixels(alphabet, font);
+        for (String line : lines)
+            Assert.assertFalse(line.equals(detect(searchTree, line)));
+
+        Set<FontGlyphWithLeakedPixels> contextualGlyphs = Collections.newSetFromMap(
+                new IdentityHashMap<FontGlyphWithLeakedPixels, Boolean>());
+        contextualGlyphs.addAll(searchTree.generator.getContextualGlyphs());
+        searchTree.addSymbols(addedSymbols);
+        for (String line : lines)
+            Assert.assertEquals(line, detect(searchTree, line));
+        Assert.assertEquals(SearchTreeOCR.getDefaultAlphabet().size(), searchTree.getGlyphs().size());
+
+        int nKept = 0;
+        for (FontGlyphWithLeakedPixels glyph : searchTree.generator.getContextualGlyphs())
+            if (contextualGlyphs.contains(glyph))
+                nKept++;
+        Assert.assertTrue(nKept > 0);
+    }
+
+    @Test
+    public void testRemoveSymbols() {
+        SearchTreeOCRWithLeakedPixels searchTree = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font);
+        Assert.assertEquals("fox", detect(searchTree, "fox"));
+        searchTree.removeSymbols(Collections.singleton("x"));
+        Assert.assertFalse("fox".equals(detect(searchTree, "fox")));
+        Assert.assertEquals("jolly", detect(searchTree, "jolly"));
+        searchTree.addSymbols(Collections.singletonList("x"));
+        Assert.assertEquals("fox", detect(searchTree, "fox"));
+    }
+
+    /**
+     * Lines detected while a symbol which is not on them is added and removed are not affected.
+     */
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final SearchTreeOCRWithLeakedPixels searchTree = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font);
+        final AtomicBoolean updating = new AtomicBoolean(true);
+        ExecutorService threads = Executors.newFixedThreadPool(3);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (final String line : lines)
+            results.add(threads.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() {
+                    int nDetected = 0;
+                    do {
+                        Assert.assertEquals(line, detect(searchTree, line));
+                        nDetected++;
+                    } while (updating.get());
+                    return nDetected;
+                }
+            }));
+        for (int i = 0; i < 10; i++) {
+            searchTree.removeSymbols(Collections.singleton("%"));
+            searchTree.addSymbols(Collections.singletonList("%"));
+        }
+        updating.set(false);
+        for (Future<Integer> result : results)
+            Assert.assertTrue(result.get() > 0);
+        threads.shutdown();
+        Assert.assertEquals("50%", detect(searchTree, "50%"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOtherFont() {
+        SearchTreeOCRWithLeakedPixels searchTree = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font);
+        searchTree.addGlyphs(FontGlyph.buildGlyphsFromAlphabet(Collections.singletonList("x"), new Font("Monospaced", Font.PLAIN, 12)));
+    }
+
+    private String detect(SearchTreeOCR searchTree, String line) {
+        BufferedImage image = FontGlyph.makeImage(line, font);
+        return searchTree.detectCharactersOnOneLine(image, fontColor, new Point(0, 0));
+    }
+}
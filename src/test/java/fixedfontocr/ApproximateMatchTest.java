@@ -0,0 +1,95 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Glyphs matched with a few mismatched pixels where no glyph matches exactly.
+ */
+public class ApproximateMatchTest {
+    private final Font font = new Font("Monospaced", Font.PLAIN, 10);
+    private final Color fontColor = Glyph.DEFAULT_FOREGROUND_COLOR;
+
+    /**
+     * "hello world" with a stray pixel in the 'e' and a missing pixel in the 'w'.
+     */
+    private BufferedImage makeNoisyImage(List<FontGlyph> glyphs) {
+        BufferedImage image = FontGlyph.makeImage("hello world", font);
+        int width = glyphs.get(0).getDimension().width;
+        image.setRGB(width, 0, fontColor.getRGB());
+        FontGlyph glyphW = glyphs.get(SearchTreeOCR.getDefaultAlphabet().indexOf("w"));
+        Point pixel = glyphW.getActivePixels().get(0);
+        image.setRGB(6 * width + pixel.x, pixel.y, Glyph.DEFAULT_BACKGROUND_COLOR.getRGB());
+        return image;
+    }
+
+    private void checkEngine(SearchTreeOCR engine) {
+        BufferedImage image = makeNoisyImage(engine.getGlyphs());
+        Assert.assertFalse("hello world".equals(detect(engine, image)));
+        engine.setMaxMismatchedPixels(1);
+        Assert.assertEquals("hello world", detect(engine, image));
+        // The lines without noise are read the same.
+        Assert.assertEquals("hello world", detect(engine, FontGlyph.makeImage("hello world", font)));
+    }
+
+    private static String detect(SearchTreeOCR engine, BufferedImage image) {
+        String line = engine.detectCharactersOnOneLine(image, Glyph.DEFAULT_FOREGROUND_COLOR, new Point(0, 0));
+        return line == null ? null : line.trim();
+    }
+
+    @Test
+    public void testEngines() {
+        checkEngine(new SearchTreeOCR.Basic(SearchTreeOCR.getDefaultAlphabet(), font));
+        checkEngine(new SearchTreeOCR.Compiled(SearchTreeOCR.getDefaultAlphabet(), font));
+        checkEngine(new FixedPitchOCR(SearchTreeOCR.getDefaultAlphabet(), font));
+        checkEngine(new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font));
+    }
+
+    /**
+     * The glyphs matched approximately are told apart from the exact ones, and are less certain.
+     */
+    @Test
+    public void testRecognizedLine() {
+        for (SearchTreeOCR engine : new SearchTreeOCR[]{new SearchTreeOCR.Basic(SearchTreeOCR.getDefaultAlphabet(), font),
+            new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font)}) {
+            engine.setMaxMismatchedPixels(1);
+            RecognizedLine line = engine.recognizeOneLine(makeNoisyImage(engine.getGlyphs()), fontColor, new Point(0, 0));
+            Assert.assertEquals("hello world", line.getText().trim());
+            RecognizedLine.Match matchH = line.getMatches().get(0);
+            Assert.assertEquals(RecognizedLine.Source.PLAIN, matchH.getSource());
+            Assert.assertEquals(0, matchH.getMismatchedPixelCount());
+            Assert.assertEquals(1, matchH.getConfidence(), 1e-9);
+            RecognizedLine.Match matchE = line.getMatches().get(1);
+            Assert.assertEquals(RecognizedLine.Source.APPROXIMATE, matchE.getSource());
+            Assert.assertEquals(1, matchE.getMismatchedPixelCount());
+            Assert.assertTrue(matchE.getConfidence() < 1);
+            Assert.assertTrue(matchE.getConfidence() > 0.5);
+            RecognizedLine.Match matchW = line.getMatches().get(6);
+            Assert.assertEquals(RecognizedLine.Source.APPROXIMATE, matchW.getSource());
+            Assert.assertEquals(Math.min(matchE.getConfidence(), matchW.getConfidence()), line.getConfidence(), 1e-9);
+        }
+    }
+
+    @Test
+    public void testIndex() {
+        List<FontGlyph> glyphs = FontGlyph.buildGlyphsFromAlphabet(SearchTreeOCR.getDefaultAlphabet(), font);
+        ApproximateGlyphIndex index = new ApproximateGlyphIndex(glyphs);
+        BufferedImage image = makeNoisyImage(glyphs);
+        LineBand band = new LineBand(image, fontColor, 0, 0, image.getHeight());
+        int width = glyphs.get(0).getDimension().width;
+        FontGlyph glyphE = glyphs.get(SearchTreeOCR.getDefaultAlphabet().indexOf("e"));
+        Assert.assertEquals(1, ApproximateGlyphIndex.countMismatchedPixels(glyphE, band, width));
+        Assert.assertNull(index.findBestMatch(band, width, 0));
+        Assert.assertSame(glyphE, index.findBestMatch(band, width, 1));
+        // An exact match is the closest one.
+        Assert.assertEquals("h", index.findBestMatch(band, 0, 3).getGeneratingString());
+        Assert.assertNull(index.findBestMatch(band, image.getWidth() - 1, 3));
+    }
+}
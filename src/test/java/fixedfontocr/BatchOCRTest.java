@@ -0,0 +1,109 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import java.awt.Font;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import javax.imageio.ImageIO;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reading a directory of images from the command line.
+ */
+public class BatchOCRTest {
+    private final Font font = new Font("Monospaced", Font.PLAIN, 10);
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File writeImages() throws IOException {
+        File directory = folder.newFolder("captures");
+        int glyphHeight = new FontGlyph("a", font).getDimension().height;
+        ImageIO.write(FontGlyph.makeMultiLineImage(Arrays.asList("first line", "second \"line\""), font, glyphHeight + 2),
+                "png", new File(directory, "a.png"));
+        ImageIO.write(FontGlyph.makeMultiLineImage(Arrays.asList("one line"), font, glyphHeight + 2),
+                "png", new File(directory, "b.png"));
+        File subdirectory = new File(directory, "old");
+        subdirectory.mkdir();
+        ImageIO.write(FontGlyph.makeImage("older", font), "png", new File(subdirectory, "c.png"));
+        Files.write(new File(directory, "notes.txt").toPath(), Arrays.asList("not an image"));
+        Files.write(new File(directory, "broken.png").toPath(), Arrays.asList("not an image"));
+        return directory;
+    }
+
+    @Test
+    public void testDirectory() throws IOException {
+        File directory = writeImages();
+        int glyphHeight = new FontGlyph("a", font).getDimension().height;
+        BatchOCR batch = BatchOCR.parseArguments("--font", "Monospaced,plain,10", "--line-height",
+                Integer.toString(glyphHeight + 2), "--threads", "3", directory.getPath());
+        StringWriter output = new StringWriter();
+        BatchOCR.Stats stats = batch.run(output);
+        List<String> jsonLines = Arrays.asList(output.toString().split("\n"));
+
+        Assert.assertEquals(3, jsonLines.size());
+        Assert.assertTrue(jsonLines.get(0), jsonLines.get(0).contains("\"lines\":[\"first line\",\"second \\\"line\\\"\"]"));
+        Assert.assertTrue(jsonLines.get(1), jsonLines.get(1).startsWith("{\"file\":") && jsonLines.get(1).contains("b.png"));
+        Assert.assertTrue(jsonLines.get(2).contains("broken.png") && jsonLines.get(2).contains("\"error\":"));
+        Assert.assertEquals(3, stats.getFileCount());
+        Assert.assertEquals(1, stats.getFailedFileCount());
+        Assert.assertEquals(3, stats.getLineCount());
+        Assert.assertTrue(stats.getFilesPerSecond() > 0);
+    }
+
+    /**
+     * The lines end on trailing blanks, and a blank line does not end the image.
+     */
+    @Test
+    public void testBlankLine() throws IOException {
+        File directory = folder.newFolder("blank");
+        int glyphHeight = new FontGlyph("a", font).getDimension().height;
+        ImageIO.write(FontGlyph.makeMultiLineImage(Arrays.asList("first line", " ", "third line"), font, glyphHeight + 2),
+                "png", new File(directory, "a.png"));
+        BatchOCR batch = BatchOCR.parseArguments("--font", "Monospaced,plain,10", "--line-height",
+                Integer.toString(glyphHeight + 2), directory.getPath());
+        StringWriter output = new StringWriter();
+        BatchOCR.Stats stats = batch.run(output);
+
+        Assert.assertTrue(output.toString(), output.toString().contains("\"lines\":[\"first line\",\"\",\"third line\"]"));
+        Assert.assertEquals(3, stats.getLineCount());
+    }
+
+    @Test
+    public void testGlob() throws IOException {
+        File directory = writeImages();
+        String pattern = directory.getPath() + File.separator + "**.png";
+        List<Path> images = BatchOCR.parseArguments("--font", "Monospaced,plain,10", pattern).findImages();
+        Assert.assertEquals(4, images.size());
+        pattern = directory.getPath() + File.separator + "[ab].png";
+        images = BatchOCR.parseArguments("--font", "Monospaced,plain,10", pattern).findImages();
+        Assert.assertEquals(Arrays.asList("a.png", "b.png"),
+                Arrays.asList(images.get(0).getFileName().toString(), images.get(1).getFileName().toString()));
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        for (String[] args : new String[][]{{"images"}, {"--font", "Monospaced,plain,10"},
+                {"--font", "Monospaced,10", "images"}, {"--font", "Monospaced,plain,10", "--threads", "0", "images"},
+                {"--font", "Monospaced,plain,10", "--color", "black", "images"}, {"--font", "Monospaced,plain,10", "--verbose", "images"}}) {
+            try {
+                BatchOCR.parseArguments(args).createEngine();
+                Assert.fail("Accepted " + Arrays.toString(args));
+            } catch (IllegalArgumentException | IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testJsonString() {
+        Assert.assertEquals("\"a\\\"b\\\\c\\nd\\u0001\"", BatchOCR.toJsonString("a\"b\\c\nd\u0001"));
+    }
+}
@@ -0,0 +1,221 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Bitmap fonts read from an atlas, a BDF file and a PSF file.
+ */
+public class BitmapFontPackTest {
+    private final Color fontColor = Glyph.DEFAULT_FOREGROUND_COLOR;
+
+    // A 4x6 font: 'H', 'I' and 'L', plus a control character which is skipped.
+    private final String bdf = "STARTFONT 2.1\n"
+            + "FONT -test-tiny-medium-r-normal--6-60-75-75-c-40-iso10646-1\n"
+            + "SIZE 6 75 75\n"
+            + "FONTBOUNDINGBOX 4 6 0 -1\n"
+            + "STARTPROPERTIES 2\nFONT_ASCENT 5\nFONT_DESCENT 1\nENDPROPERTIES\n"
+            + "CHARS 4\n"
+            + "STARTCHAR H\nENCODING 72\nSWIDTH 666 0\nDWIDTH 4 0\nBBX 3 5 0 0\nBITMAP\nA0\nA0\nE0\nA0\nA0\nENDCHAR\n"
+            + "STARTCHAR I\nENCODING 73\nSWIDTH 666 0\nDWIDTH 4 0\nBBX 1 5 1 0\nBITMAP\n80\n80\n80\n80\n80\nENDCHAR\n"
+            + "STARTCHAR L\nENCODING 76\nSWIDTH 666 0\nDWIDTH 4 0\nBBX 3 5 0 0\nBITMAP\n80\n80\n80\n80\nE0\nENDCHAR\n"
+            + "STARTCHAR control\nENCODING 7\nSWIDTH 666 0\nDWIDTH 4 0\nBBX 3 5 0 0\nBITMAP\nE0\nE0\nE0\nE0\nE0\nENDCHAR\n"
+            + "ENDFONT\n";
+
+    @Test
+    public void testAtlas() {
+        Font font = new Font("Monospaced", Font.PLAIN, 10);
+        List<String> symbols = new ArrayList<>();
+        for (char c = ' '; c <= '~'; c++)
+            symbols.add(Character.toString(c));
+        List<FontGlyph> fontGlyphs = FontGlyph.buildGlyphsFromAlphabet(symbols, font);
+        int cellWidth = fontGlyphs.get(0).getDimension().width;
+        int cellHeight = fontGlyphs.get(0).getDimension().height;
+        int nColumns = 16;
+        BufferedImage atlas = new BufferedImage(nColumns * cellWidth, (symbols.size() / nColumns + 1) * cellHeight, Glyph.IMAGE_TYPE);
+        Graphics2D graphics = atlas.createGraphics();
+        graphics.setColor(Glyph.DEFAULT_BACKGROUND_COLOR);
+        graphics.fillRect(0, 0, atlas.getWidth(), atlas.getHeight());
+        for (int i = 0; i < symbols.size(); i++)
+            graphics.drawImage(FontGlyph.makeImage(symbols.get(i), font), null, (i % nColumns) * cellWidth, (i / nColumns) * cellHeight);
+        graphics.dispose();
+
+        BitmapFontPack pack = BitmapFontPack.fromAtlas("Monospaced-10", atlas, fontColor, cellWidth, cellHeight, symbols);
+        Assert.assertEquals(symbols.size(), pack.getGlyphs().size());
+        for (int i = 0; i < symbols.size(); i++) {
+            Assert.assertEquals(symbols.get(i), pack.getGlyphs().get(i).getGeneratingString());
+            Assert.assertEquals(fontGlyphs.get(i), pack.getGlyphs().get(i));
+        }
+        SearchTreeOCR searchTree = pack.retainSymbols(Arrays.asList("h", "e", "l", "o", "w", "r", "d", " ")).createSearchTreeOCR();
+        Assert.assertNull(searchTree.getFont());
+        BufferedImage image = FontGlyph.makeImage("hello world", font);
+        Assert.assertEquals("hello world", searchTree.detectCharactersOnOneLine(image, fontColor, new Point(0, 0)));
+    }
+
+    @Test
+    public void testAtlasRows() {
+        BufferedImage atlas = new BufferedImage(8, 12, Glyph.IMAGE_TYPE);
+        Graphics2D graphics = atlas.createGraphics();
+        graphics.drawImage(drawLine(bdfGlyphs("HI")), null, 0, 0);
+        graphics.drawImage(drawLine(bdfGlyphs("LH")), null, 0, 6);
+        graphics.dispose();
+        BitmapFontPack pack = BitmapFontPack.fromAtlas("test", atlas, fontColor, 4, 6, "HI", "L");
+        Assert.assertEquals(bdfGlyphs("HIL"), pack.getGlyphs());
+    }
+
+    @Test
+    public void testBdf() throws IOException {
+        BitmapFontPack pack = BitmapFontPack.readBdf(new ByteArrayInputStream(bdf.getBytes(StandardCharsets.US_ASCII)));
+        Assert.assertEquals("-test-tiny-medium-r-normal--6-60-75-75-c-40-iso10646-1", pack.getFontName());
+        Assert.assertEquals(3, pack.getGlyphs().size());
+        FontGlyph glyphI = pack.getGlyphs().get(1);
+        Assert.assertEquals("I", glyphI.getGeneratingString());
+        Assert.assertEquals(4, glyphI.getDimension().width);
+        Assert.assertEquals(6, glyphI.getDimension().height);
+        Assert.assertEquals(Arrays.asList(new Point(1, 0), new Point(1, 1), new Point(1, 2), new Point(1, 3), new Point(1, 4)),
+                glyphI.getActivePixels());
+
+        SearchTreeOCR searchTree = pack.createSearchTreeOCR();
+        BufferedImage image = drawLine(bdfGlyphs("HILLIH"));
+        Assert.assertEquals("HILLIH", searchTree.detectCharactersOnOneLine(image, fontColor, new Point(0, 0)));
+        Assert.assertTrue(searchTree.checkIfAllSymbolsCanBeRecognized(Arrays.asList("H", "I", "L")));
+        Assert.assertFalse(searchTree.checkIfAllSymbolsCanBeRecognized(Arrays.asList("X")));
+    }
+
+    @Test
+    public void testTruncatedBdf() {
+        String truncatedBdf = bdf.substring(0, bdf.indexOf("80\nE0\nENDCHAR"));
+        try {
+            BitmapFontPack.readBdf(new ByteArrayInputStream(truncatedBdf.getBytes(StandardCharsets.US_ASCII)));
+            Assert.fail("Read a truncated BDF file.");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("character L"));
+        }
+    }
+
+    @Test
+    public void testPsf2() throws IOException {
+        List<FontGlyph> glyphs = bdfGlyphs("HIL");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writeLittleEndianInts(output, 0x864ab572, 0, 32, 1, glyphs.size(), 6, 6, 4);
+        for (FontGlyph glyph : glyphs)
+            output.write(toRows(glyph));
+        // 'H' also draws the Cyrillic En and a sequence, 'I' the Roman numeral one.
+        for (String symbols : new String[]{"H\u041d|HH", "I\u2160", "L"}) {
+            String[] parts = symbols.split("\\|");
+            output.write(parts[0].getBytes(StandardCharsets.UTF_8));
+            if (parts.length > 1) {
+                output.write(0xFE);
+                output.write(parts[1].getBytes(StandardCharsets.UTF_8));
+            }
+            output.write(0xFF);
+        }
+        BitmapFontPack pack = BitmapFontPack.readPsf(new ByteArrayInputStream(output.toByteArray()), "tiny");
+        Assert.assertEquals(glyphs, pack.getGlyphs());
+        Assert.assertEquals("HIL", pack.createSearchTreeOCR().detectCharactersOnOneLine(drawLine(glyphs), fontColor, new Point(0, 0)));
+    }
+
+    @Test
+    public void testInvalidPsf2Header() {
+        // Header size, number of glyphs, bytes per glyph, height and width.
+        int[][] invalidHeaders = {{31, 1, 6, 6, 4}, {64, 1, 6, 6, 4}, {32, 0, 6, 6, 4}, {32, -1, 6, 6, 4},
+            {32, Integer.MAX_VALUE, 6, 6, 4}, {32, 1, 6, 0, 4}, {32, 1, 6, 6, -1}, {32, 1, 6, 6, Integer.MAX_VALUE},
+            {32, 1, 7, 6, 4}, {32, 65536, 256 * 32, 256, 256}};
+        for (int[] header : invalidHeaders) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            writeLittleEndianInts(output, 0x864ab572, 0, header[0], 0, header[1], header[2], header[3], header[4]);
+            output.write(new byte[6], 0, 6);
+            try {
+                BitmapFontPack.readPsf(new ByteArrayInputStream(output.toByteArray()), "tiny");
+                Assert.fail("Read the header " + Arrays.toString(header) + ".");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testPsf1() throws IOException {
+        Map<Integer, FontGlyph> glyphsPerCode = new HashMap<>();
+        for (FontGlyph glyph : bdfGlyphs("HIL"))
+            glyphsPerCode.put((int) glyph.getGeneratingString().charAt(0), glyph);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(new byte[]{0x36, 0x04, 0, 6});
+        for (int code = 0; code < 256; code++) {
+            if (glyphsPerCode.containsKey(code))
+                output.write(toRows(glyphsPerCode.get(code)));
+            else
+                output.write(new byte[6]);
+        }
+        BitmapFontPack pack = BitmapFontPack.readPsf(new ByteArrayInputStream(output.toByteArray()), "tiny");
+        // The blank glyphs are all the same: only the space is kept, then H, I and L.
+        Assert.assertEquals(4, pack.getGlyphs().size());
+        Assert.assertEquals(" ", pack.getGlyphs().get(0).getGeneratingString());
+        BitmapFontPack letters = pack.retainSymbols(Arrays.asList("H", "I", "L"));
+        Assert.assertEquals(8, letters.getGlyphs().get(0).getDimension().width);
+        Assert.assertEquals("HIL", letters.createSearchTreeOCR().detectCharactersOnOneLine(drawLine(letters.getGlyphs()),
+                fontColor, new Point(0, 0)));
+    }
+
+    private List<FontGlyph> bdfGlyphs(String line) {
+        BitmapFontPack pack;
+        try {
+            pack = BitmapFontPack.readBdf(new ByteArrayInputStream(bdf.getBytes(StandardCharsets.US_ASCII)));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        List<FontGlyph> glyphs = new ArrayList<>();
+        for (char c : line.toCharArray())
+            for (FontGlyph glyph : pack.getGlyphs())
+                if (glyph.getGeneratingString().equals(Character.toString(c)))
+                    glyphs.add(glyph);
+        return glyphs;
+    }
+
+    private static BufferedImage drawLine(List<FontGlyph> glyphs) {
+        int width = 0;
+        for (FontGlyph glyph : glyphs)
+            width += glyph.getDimension().width;
+        BufferedImage image = new BufferedImage(width, glyphs.get(0).getDimension().height, Glyph.IMAGE_TYPE);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Glyph.DEFAULT_BACKGROUND_COLOR);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.dispose();
+        int x = 0;
+        for (FontGlyph glyph : glyphs) {
+            for (Point pixel : glyph.getActivePixels())
+                image.setRGB(x + pixel.x, pixel.y, Glyph.DEFAULT_FOREGROUND_COLOR.getRGB());
+            x += glyph.getDimension().width;
+        }
+        return image;
+    }
+
+    private static byte[] toRows(FontGlyph glyph) {
+        byte[] rows = new byte[glyph.getDimension().height];
+        for (Point pixel : glyph.getActivePixels())
+            rows[pixel.y] |= 0x80 >> pixel.x;
+        return rows;
+    }
+
+    private static void writeLittleEndianInts(ByteArrayOutputStream output, int... values) {
+        for (int value : values)
+            for (int i = 0; i < 4; i++)
+                output.write(value >>> (8 * i));
+    }
+}
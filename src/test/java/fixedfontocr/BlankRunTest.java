@@ -0,0 +1,61 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Lines with long runs of spaces, which are matched without going through the SearchNodes.
+ */
+public class BlankRunTest {
+    private final Font font = new Font("Dialog", Font.PLAIN, 10);
+    private final Color fontColor = Glyph.DEFAULT_FOREGROUND_COLOR;
+    private final List<String> alphabet = SearchTreeOCR.getDefaultAlphabet();
+    private final String line = "  a     table   with spaces      ";
+
+    @Test
+    public void testSpacesWithLeakedPixels() {
+        SearchTreeOCR searchTree = new SearchTreeOCRWithLeakedPixels(alphabet, font);
+        Assert.assertEquals(line, createAndParseImage(searchTree));
+        searchTree.setEndLineOnTrailingBlank(true);
+        Assert.assertEquals(line.replaceFirst(" +$", ""), createAndParseImage(searchTree));
+    }
+
+    @Test
+    public void testSpacesBasic() {
+        SearchTreeOCR searchTree = new SearchTreeOCR.Basic(alphabet, font);
+        Assert.assertEquals(line, createAndParseImage(searchTree));
+        searchTree.setEndLineOnTrailingBlank(true);
+        Assert.assertEquals(line.replaceFirst(" +$", ""), createAndParseImage(searchTree));
+    }
+
+    /**
+     * A blank line in the middle of a block is an empty line, not the end of the block.
+     */
+    @Test
+    public void testBlankLineBetweenLines() {
+        Font monospaced = new Font("Monospaced", Font.PLAIN, 10);
+        List<String> lines = Arrays.asList("first line", " ", "third line");
+        SearchTreeOCR[] searchTrees = {new SearchTreeOCRWithLeakedPixels(alphabet, monospaced),
+            new SearchTreeOCR.Basic(alphabet, monospaced)};
+        for (SearchTreeOCR searchTree : searchTrees) {
+            searchTree.setEndLineOnTrailingBlank(true);
+            int lineHeight = searchTree.getGlyphHeight() + 2;
+            BufferedImage image = FontGlyph.makeMultiLineImage(lines, monospaced, lineHeight);
+            Assert.assertEquals(Arrays.asList("first line", "", "third line"),
+                    searchTree.detectCharactersOnMultipleLines(image, fontColor, lineHeight, new Point(0, 0)));
+        }
+    }
+
+    private String createAndParseImage(SearchTreeOCR searchTree) {
+        BufferedImage image = FontGlyph.makeImage(line, font);
+        return searchTree.detectCharactersOnOneLine(image, fontColor, new Point(0, 0));
+    }
+}
@@ -0,0 +1,57 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The column masks built with the Vector API are the same as the scalar ones.
+ */
+public class ColumnMaskExtractorTest {
+    private static final int FONT_RGB = 0xFF000000;
+
+    private static long[] extract(ColumnMaskExtractor extractor, int[] pixels, int width, int height) {
+        long[] columnMasks = new long[width];
+        extractor.extract(pixels, width, height, FONT_RGB, columnMasks);
+        return columnMasks;
+    }
+
+    @Test
+    public void testSameAsScalar() {
+        ColumnMaskExtractor vectorExtractor = ColumnMaskExtractor.createVectorExtractor();
+        if (vectorExtractor == null) {
+            // Before Java 17, or without the incubator module: the fallback is used.
+            Assert.assertFalse(ColumnMaskExtractor.isVectorized());
+            return;
+        }
+        Assert.assertTrue(ColumnMaskExtractor.isVectorized());
+        ColumnMaskExtractor scalarExtractor = new ColumnMaskExtractor.Scalar();
+        Random random = new Random(7);
+        for (int width = 0; width < 70; width++) {
+            for (int height : new int[]{1, 13, 64}) {
+                int[] pixels = new int[width * height];
+                for (int i = 0; i < pixels.length; i++)
+                    pixels[i] = random.nextInt(4) == 0 ? FONT_RGB : 0xFFFFFFFF;
+                Assert.assertArrayEquals(extract(scalarExtractor, pixels, width, height),
+                        extract(vectorExtractor, pixels, width, height));
+            }
+        }
+    }
+
+    @Test
+    public void testLineBand() {
+        Font font = new Font("Monospaced", Font.PLAIN, 10);
+        FontGlyph glyph = new FontGlyph("W", font);
+        BufferedImage image = FontGlyph.makeImage("W", font);
+        LineBand band = new LineBand(image, Glyph.DEFAULT_FOREGROUND_COLOR, 0, 0, image.getHeight());
+        long[] columnMasks = new long[glyph.getDimension().width];
+        for (int ix = 0; ix < columnMasks.length; ix++)
+            columnMasks[ix] = band.getColumnMask(ix);
+        Assert.assertTrue(Arrays.equals(glyph.getColumnMasks(), columnMasks));
+    }
+}
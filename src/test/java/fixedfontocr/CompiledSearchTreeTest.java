@@ -0,0 +1,78 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the flattened tree finds the same glyphs as the SearchNode tree it was compiled from.
+ */
+public class CompiledSearchTreeTest {
+    private final Font font = new Font("Monospaced", Font.PLAIN, 10);
+    private final Color fontColor = Glyph.DEFAULT_FOREGROUND_COLOR;
+    private final List<FontGlyph> glyphs = FontGlyph.buildGlyphsFromAlphabet(SearchTreeOCR.getDefaultAlphabet(), font);
+    private final SearchNode headNode = new SearchNode(glyphs);
+    private final CompiledSearchTree compiledTree = CompiledSearchTree.compile(headNode, glyphs);
+
+    @Test
+    public void testSameMatchesAsSearchNode() {
+        for (FontGlyph glyph : glyphs) {
+            BufferedImage image = FontGlyph.makeImage(glyph.getGeneratingString() + "x", font);
+            Assert.assertSame(headNode.findLongestMatch(image, fontColor, new Point(0, 0)),
+                    compiledTree.findLongestMatch(image, fontColor, new Point(0, 0)));
+        }
+    }
+
+    @Test
+    public void testSameLineAsBasic() {
+        BufferedImage image = FontGlyph.makeImage("Some line... and another", font);
+        SearchTreeOCR basic = new SearchTreeOCR.Basic(glyphs);
+        SearchTreeOCR compiled = new SearchTreeOCR.Compiled(glyphs, compiledTree);
+        Assert.assertEquals(basic.detectCharactersOnOneLine(image, fontColor, new Point(0, 0)),
+                compiled.detectCharactersOnOneLine(image, fontColor, new Point(0, 0)));
+    }
+
+    @Test
+    public void testWriteAndReadBack() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        compiledTree.writeTo(output);
+        CompiledSearchTree readTree = CompiledSearchTree.readFrom(new ByteArrayInputStream(output.toByteArray()), glyphs);
+        Assert.assertEquals(compiledTree.getNodeCount(), readTree.getNodeCount());
+        BufferedImage image = FontGlyph.makeImage("The quick brown fox", font);
+        SearchTreeOCR compiled = new SearchTreeOCR.Compiled(glyphs, readTree);
+        Assert.assertEquals("The quick brown fox", compiled.detectCharactersOnOneLine(image, fontColor, new Point(0, 0)));
+    }
+
+    /**
+     * A header whose counts do not match the rest of the input is rejected before allocating.
+     */
+    @Test
+    public void testInvalidCounts() {
+        for (int nNodes : new int[]{-1, Integer.MAX_VALUE, compiledTree.getNodeCount() + 1}) {
+            ByteBuffer buffer = compiledTree.toByteBuffer();
+            buffer.putInt(4 * Integer.BYTES, nNodes);
+            try {
+                CompiledSearchTree.readFrom(new ByteArrayInputStream(buffer.array()), glyphs);
+                Assert.fail("Read " + nNodes + " nodes.");
+            } catch (IOException e) {
+                // expected
+            }
+            try {
+                CompiledSearchTree.fromByteBuffer(buffer, glyphs);
+                Assert.fail("Read " + nNodes + " nodes.");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class FixedPitchOCRTest {
+    private final Font font = new Font("Monospaced", Font.PLAIN, 10);
+    private final Color fontColor = Glyph.DEFAULT_FOREGROUND_COLOR;
+    private final List<String> alphabet = SearchTreeOCR.getDefaultAlphabet();
+    private final FixedPitchOCR searchTree = new FixedPitchOCR(alphabet, font);
+
+    @Test
+    public void testAllSymbolsRecognized() {
+        Assert.assertTrue(searchTree.checkIfAllSymbolsCanBeRecognized(alphabet));
+    }
+
+    @Test
+    public void testSameLineAsWithLeakedPixels() {
+        String line = "$ grep -rn 'foo(bar)' src/ | wc -l";
+        BufferedImage image = FontGlyph.makeImage(line, font);
+        Assert.assertEquals(line, searchTree.detectCharactersOnOneLine(image, fontColor, new Point(0, 0)));
+        SearchTreeOCR withLeakedPixels = new SearchTreeOCRWithLeakedPixels(alphabet, font, false);
+        Assert.assertEquals(withLeakedPixels.detectCharactersOnOneLine(image, fontColor, new Point(0, 0)),
+                searchTree.detectCharactersOnOneLine(image, fontColor, new Point(0, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testProportionalFontRejected() {
+        new FixedPitchOCR(alphabet, new Font("Dialog", Font.PLAIN, 10));
+    }
+}
@@ -0,0 +1,38 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Lines of unknown size, among several sizes of the same font.
+ */
+public class FontFamilyOCRTest {
+    private final Font font = new Font("Monospaced", Font.PLAIN, 10);
+    private final Color fontColor = Glyph.DEFAULT_FOREGROUND_COLOR;
+    private final float[] sizes = {10f, 12f, 13f, 15f, 18f};
+    private final String line = "The quick brown fox jumps over the lazy dog.";
+
+    @Test
+    public void testPicksTheSize() {
+        FontFamilyOCR familyOCR = new FontFamilyOCR(SearchTreeOCR.getDefaultAlphabet(), font, sizes);
+        for (float size : sizes) {
+            Font sizedFont = font.deriveFont(size);
+            BufferedImage image = FontGlyph.makeImage(line, sizedFont, 0, 5, false);
+            int baseline = 5 + FontGlyph.getBaseline(sizedFont);
+            Assert.assertEquals(size, familyOCR.findEngine(image, fontColor, 0, baseline).getFont().getSize2D(), 0f);
+            Assert.assertEquals(line, familyOCR.detectCharactersOnOneLine(image, fontColor, 0, baseline));
+        }
+    }
+
+    @Test
+    public void testNoMatchingSize() {
+        FontFamilyOCR familyOCR = new FontFamilyOCR(SearchTreeOCR.getDefaultAlphabet(), font, 10f, 12f);
+        BufferedImage image = FontGlyph.makeImage(line, font.deriveFont(24f));
+        Assert.assertNull(familyOCR.detectCharactersOnOneLine(image, fontColor, 0, FontGlyph.getBaseline(font.deriveFont(24f))));
+    }
+}
@@ -0,0 +1,98 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Identifying the font of an image among a few fonts and sizes.
+ */
+public class FontIndexTest {
+    private final Color fontColor = Glyph.DEFAULT_FOREGROUND_COLOR;
+    private final String line = "The quick brown fox jumps over the lazy dog 0123456789";
+
+    private List<Font> createFonts() {
+        List<Font> fonts = new ArrayList<>();
+        for (String family : new String[]{"Serif", "Monospaced"})
+            for (float size : new float[]{10f, 12f, 14f})
+                fonts.add(new Font(family, Font.PLAIN, 1).deriveFont(size));
+        return fonts;
+    }
+
+    @Test
+    public void testFindsTheFont() {
+        List<Font> fonts = createFonts();
+        FontIndex index = FontIndex.build(fonts, SearchTreeOCR.getDefaultAlphabet());
+        for (Font font : fonts) {
+            BufferedImage image = FontGlyph.makeImage(line, font);
+            Assert.assertEquals(font, index.findCandidates(image, fontColor, 1).get(0).getFont());
+        }
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        List<Font> fonts = createFonts();
+        FontIndex index = FontIndex.build(fonts, SearchTreeOCR.getDefaultAlphabet());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        index.writeTo(output);
+        FontIndex readIndex = FontIndex.readFrom(new ByteArrayInputStream(output.toByteArray()));
+        Assert.assertEquals(fonts, readIndex.getFonts());
+        Assert.assertEquals(index.getSignatureCount(), readIndex.getSignatureCount());
+        BufferedImage image = FontGlyph.makeImage(line, fonts.get(1));
+        Assert.assertEquals(index.findCandidates(image, fontColor).toString(),
+                readIndex.findCandidates(image, fontColor).toString());
+    }
+
+    /**
+     * An index of one font and one signature, whose counts and font indices may be wrong.
+     */
+    private byte[] writeIndex(int nFonts, int nSignatures, int... fontIndices) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DataOutputStream dataOutput = new DataOutputStream(output);
+        dataOutput.writeInt(FontIndex.MAGIC_NUMBER);
+        dataOutput.writeInt(FontIndex.FORMAT_VERSION);
+        dataOutput.writeInt(nFonts);
+        dataOutput.writeInt(nSignatures);
+        dataOutput.writeUTF("Serif");
+        dataOutput.writeInt(Font.PLAIN);
+        dataOutput.writeFloat(12f);
+        dataOutput.writeLong(42);
+        dataOutput.writeInt(fontIndices.length);
+        for (int iFont : fontIndices)
+            dataOutput.writeInt(iFont);
+        return output.toByteArray();
+    }
+
+    @Test
+    public void testInvalidIndex() throws IOException {
+        Assert.assertEquals(1, FontIndex.readFrom(new ByteArrayInputStream(writeIndex(1, 1, 0))).getSignatureCount());
+        List<byte[]> invalidIndices = new ArrayList<>();
+        invalidIndices.add(writeIndex(-1, 1, 0));
+        invalidIndices.add(writeIndex(Integer.MAX_VALUE, 1, 0));
+        invalidIndices.add(writeIndex(1, -1, 0));
+        invalidIndices.add(writeIndex(1, Integer.MAX_VALUE, 0));
+        invalidIndices.add(writeIndex(1, 1, 0, 0));
+        invalidIndices.add(writeIndex(1, 1, -1));
+        invalidIndices.add(writeIndex(1, 1, 1));
+        byte[] negativeLength = writeIndex(1, 1, 0);
+        negativeLength[negativeLength.length - 2 * Integer.BYTES] = -1;
+        invalidIndices.add(negativeLength);
+        for (byte[] invalidIndex : invalidIndices)
+            try {
+                FontIndex.readFrom(new ByteArrayInputStream(invalidIndex));
+                Assert.fail("Read an invalid font index.");
+            } catch (IOException e) {
+                // expected
+            }
+    }
+}
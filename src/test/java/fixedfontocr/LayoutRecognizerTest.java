@@ -0,0 +1,110 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The fields of a fixed layout, in two colors, read from one frame.
+ */
+public class LayoutRecognizerTest {
+    private final Font font = new Font("Monospaced", Font.PLAIN, 10);
+    private final Color background = new Color(30, 30, 40);
+
+    @Test
+    public void testFields() {
+        SearchTreeOCR engine = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font);
+        engine.setEndLineOnTrailingBlank(true);
+        int glyphHeight = engine.getGlyphHeight();
+        BufferedImage frame = new BufferedImage(300, 120, BufferedImage.TYPE_3BYTE_BGR);
+        for (int ix = 0; ix < frame.getWidth(); ix++)
+            for (int iy = 0; iy < frame.getHeight(); iy++)
+                frame.setRGB(ix, iy, background.getRGB());
+        paint(frame, FontGlyph.makeImage("CPU: 42%", font), 10, 5, Color.GREEN);
+        paint(frame, FontGlyph.makeImage("Disk full", font), 150, 5, Color.RED);
+        paint(frame, FontGlyph.makeImage("jobs (f)", font), 10, 30, Color.GREEN);
+        paint(frame, FontGlyph.makeMultiLineImage(Arrays.asList("first", "second"), font, glyphHeight + 3), 150, 40, Color.GREEN);
+
+        LayoutTemplate template = new LayoutTemplate()
+                .addField("cpu", new Rectangle(10, 5, 100, glyphHeight), engine, Color.GREEN)
+                .addField("alert", new Rectangle(150, 5, 100, glyphHeight), engine, Color.RED)
+                .addField("jobs", new Rectangle(10, 30, 100, glyphHeight), engine, Color.GREEN)
+                .addField("log", new Rectangle(150, 40, 100, 2 * (glyphHeight + 3)), engine, Color.GREEN, glyphHeight + 3)
+                .addField("empty", new Rectangle(10, 80, 100, glyphHeight), engine, Color.GREEN)
+                // The text in red is not seen in green.
+                .addField("other color", new Rectangle(150, 5, 100, glyphHeight), engine, Color.GREEN);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (LayoutRecognizer recognizer : new LayoutRecognizer[]{template.compile(), template.compile(executor)}) {
+                Map<String, String> texts = recognizer.recognize(frame);
+                Assert.assertEquals(Arrays.asList("cpu", "alert", "jobs", "log", "empty", "other color"),
+                        Arrays.asList(texts.keySet().toArray()));
+                Assert.assertEquals("CPU: 42%", texts.get("cpu"));
+                Assert.assertEquals("Disk full", texts.get("alert"));
+                Assert.assertEquals("jobs (f)", texts.get("jobs"));
+                Assert.assertEquals("first\nsecond", texts.get("log"));
+                Assert.assertEquals("", texts.get("empty"));
+                Assert.assertEquals("", texts.get("other color"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testLineCaches() {
+        SearchTreeOCR engine = new SearchTreeOCR.Basic(SearchTreeOCR.getDefaultAlphabet(), font);
+        int glyphHeight = engine.getGlyphHeight();
+        BufferedImage frame = new BufferedImage(200, 2 * glyphHeight, Glyph.IMAGE_TYPE);
+        paint(frame, FontGlyph.makeImage("static", font), 0, 0, Color.WHITE);
+        LayoutRecognizer recognizer = new LayoutTemplate()
+                .addField("static", new Rectangle(0, 0, 100, glyphHeight), engine, Color.WHITE)
+                .addField("counter", new Rectangle(0, glyphHeight, 100, glyphHeight), engine, Color.WHITE).compile();
+        recognizer.setLineCacheSize(4);
+        for (int i = 0; i < 3; i++) {
+            BufferedImage counterFrame = new BufferedImage(200, 2 * glyphHeight, Glyph.IMAGE_TYPE);
+            counterFrame.setData(frame.getData());
+            paint(counterFrame, FontGlyph.makeImage("n=" + i, font), 0, glyphHeight, Color.WHITE);
+            Map<String, String> texts = recognizer.recognize(counterFrame);
+            Assert.assertEquals("static", texts.get("static").trim());
+            Assert.assertEquals("n=" + i, texts.get("counter").trim());
+        }
+        Assert.assertEquals(2, recognizer.getLineCache("static").getHitCount());
+        Assert.assertEquals(1, recognizer.getLineCache("static").getMissCount());
+        Assert.assertEquals(0, recognizer.getLineCache("counter").getHitCount());
+        recognizer.setLineCacheSize(0);
+        Assert.assertNull(recognizer.getLineCache("static"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateName() {
+        SearchTreeOCR engine = new SearchTreeOCR.Basic(SearchTreeOCR.getDefaultAlphabet(), font);
+        new LayoutTemplate().addField("a", new Rectangle(0, 0, 10, 20), engine, Color.BLACK)
+                .addField("a", new Rectangle(20, 0, 10, 20), engine, Color.BLACK);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFieldOutsideFrame() {
+        SearchTreeOCR engine = new SearchTreeOCR.Basic(SearchTreeOCR.getDefaultAlphabet(), font);
+        LayoutRecognizer recognizer = new LayoutTemplate()
+                .addField("a", new Rectangle(50, 0, 100, engine.getGlyphHeight()), engine, Color.BLACK).compile();
+        recognizer.recognize(new BufferedImage(100, 100, Glyph.IMAGE_TYPE));
+    }
+
+    private static void paint(BufferedImage frame, BufferedImage text, int left, int top, Color color) {
+        for (int ix = 0; ix < text.getWidth(); ix++)
+            for (int iy = 0; iy < text.getHeight(); iy++)
+                if (text.getRGB(ix, iy) == Glyph.DEFAULT_FOREGROUND_COLOR.getRGB())
+                    frame.setRGB(left + ix, top + iy, color.getRGB());
+    }
+}
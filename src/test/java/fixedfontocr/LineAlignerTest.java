@@ -0,0 +1,61 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import fixedfontocr.utilities.Utilities;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Lines given at a slightly wrong position.
+ */
+public class LineAlignerTest {
+    private final Font font = new Font("Dialog", Font.PLAIN, 10);
+    private final Color fontColor = Glyph.DEFAULT_FOREGROUND_COLOR;
+    private final SearchTreeOCR searchTree = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font);
+
+    @Test
+    public void testFindTop() {
+        BufferedImage image = FontGlyph.makeImage("The quick brown fox (j)", font, 0, 4, false);
+        for (int offset = -3; offset <= 3; offset++)
+            Assert.assertEquals(4, searchTree.getLineAligner().findTop(image, fontColor, new Point(0, 4 + offset), 3));
+    }
+
+    @Test
+    public void testMultipleLinesWithWrongTop() {
+        List<String> lines = Arrays.asList("The quick brown fox", "jumps over the lazy dog.", "0123456789 (f) [j]");
+        int lineHeight = searchTree.getGlyphHeight() + 4;
+        BufferedImage image = FontGlyph.makeMultiLineImage(lines, font, lineHeight);
+        for (int offset = -3; offset <= 3; offset++) {
+            List<String> parsedLines = new ArrayList<>();
+            for (String line : searchTree.detectCharactersOnMultipleLines(image, fontColor, lineHeight, new Point(0, offset), 3))
+                parsedLines.add(Utilities.removeTrailingSpaces(line));
+            Assert.assertEquals(lines, parsedLines);
+        }
+    }
+
+    @Test
+    public void testFindLeft() {
+        for (String line : new String[]{"The quick brown fox", "(f) [j] 0123", "jumps over the lazy dog."}) {
+            BufferedImage image = FontGlyph.makeImage(line, font, 6, 0, false);
+            for (int offset = -4; offset <= 4; offset++)
+                Assert.assertEquals(6, searchTree.getLineAligner().findLeft(image, fontColor, new Point(6 + offset, 0), 5));
+        }
+    }
+
+    @Test
+    public void testFindTopLeft() {
+        String line = "The quick brown fox (j)";
+        BufferedImage image = FontGlyph.makeImage(line, font, 5, 4, false);
+        Point topLeft = searchTree.getLineAligner().findTopLeft(image, fontColor, new Point(3, 6), 3, 3);
+        Assert.assertEquals(new Point(5, 4), topLeft);
+        Assert.assertEquals(line, Utilities.removeTrailingSpaces(searchTree.detectCharactersOnOneLine(image, fontColor, topLeft)));
+    }
+}
@@ -0,0 +1,90 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Lines read again from the LineCache.
+ */
+public class LineCacheTest {
+    private final Font font = new Font("Monospaced", Font.PLAIN, 10);
+    private final Color fontColor = Glyph.DEFAULT_FOREGROUND_COLOR;
+
+    @Test
+    public void testHitsAndMisses() {
+        SearchTreeOCR engine = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font);
+        LineCache cache = new LineCache(10);
+        BufferedImage image = FontGlyph.makeImage("fox jumps", font);
+        Assert.assertEquals("fox jumps", cache.detectCharactersOnOneLine(engine, image, fontColor, new Point(0, 0)));
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(1, cache.getMissCount());
+        // The same pixels in another image.
+        Assert.assertEquals("fox jumps", cache.detectCharactersOnOneLine(engine, FontGlyph.makeImage("fox jumps", font), fontColor, new Point(0, 0)));
+        Assert.assertEquals(1, cache.getHitCount());
+        // The same pixels elsewhere in an image.
+        BufferedImage twoLines = FontGlyph.makeMultiLineImage(Arrays.asList("fox jumps", "fox jumps"), font, image.getHeight() + 2);
+        Assert.assertEquals("fox jumps", cache.detectCharactersOnOneLine(engine, twoLines, fontColor, new Point(0, image.getHeight() * 2 + 4 - image.getHeight())));
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals("fox jumpy", cache.detectCharactersOnOneLine(engine, FontGlyph.makeImage("fox jumpy", font), fontColor, new Point(0, 0)));
+        Assert.assertEquals(2, cache.getMissCount());
+        // Another engine does not share the lines.
+        SearchTreeOCR otherEngine = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font);
+        Assert.assertEquals("fox jumps", cache.detectCharactersOnOneLine(otherEngine, image, fontColor, new Point(0, 0)));
+        Assert.assertEquals(3, cache.getMissCount());
+        Assert.assertEquals(0.4, cache.getHitRate(), 1e-9);
+        // Nothing recognized is cached too.
+        BufferedImage other = FontGlyph.makeImage("abc", new Font("Serif", Font.BOLD, 10));
+        Assert.assertNull(cache.detectCharactersOnOneLine(engine, other, fontColor, new Point(0, 0)));
+        Assert.assertNull(cache.detectCharactersOnOneLine(engine, other, fontColor, new Point(0, 0)));
+        Assert.assertEquals(3, cache.getHitCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        SearchTreeOCR engine = new SearchTreeOCR.Basic(SearchTreeOCR.getDefaultAlphabet(), font);
+        LineCache cache = new LineCache(2);
+        for (String line : new String[]{"one", "two", "one", "three", "one", "two"})
+            Assert.assertEquals(line, cache.detectCharactersOnOneLine(engine, FontGlyph.makeImage(line, font), fontColor, new Point(0, 0)));
+        // "two" is evicted by "three", then "three" by "two".
+        Assert.assertEquals(2, cache.size());
+        Assert.assertEquals(2, cache.getHitCount());
+        Assert.assertEquals(4, cache.getMissCount());
+        Assert.assertEquals(2, cache.getEvictionCount());
+    }
+
+    /**
+     * The lines decoded before a setting or the alphabet of the engine changed are decoded again.
+     */
+    @Test
+    public void testEngineChanges() {
+        SearchTreeOCRWithLeakedPixels engine = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font);
+        LineCache cache = new LineCache(10);
+        BufferedImage image = FontGlyph.makeImage("fox  ", font);
+        Assert.assertEquals("fox  ", cache.detectCharactersOnOneLine(engine, image, fontColor, new Point(0, 0)));
+        engine.setEndLineOnTrailingBlank(true);
+        Assert.assertEquals("fox", cache.detectCharactersOnOneLine(engine, image, fontColor, new Point(0, 0)));
+        engine.removeSymbols(Arrays.asList("x"));
+        Assert.assertFalse("fox".equals(cache.detectCharactersOnOneLine(engine, image, fontColor, new Point(0, 0))));
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testBandEquality() {
+        BufferedImage image = FontGlyph.makeImage("ab ab", font);
+        int width = FontGlyph.makeImage("ab ", font).getWidth();
+        LineBand band = new LineBand(image, fontColor, width, 0, image.getHeight());
+        LineBand sameBand = new LineBand(FontGlyph.makeImage("ab", font), fontColor, 0, 0, image.getHeight());
+        Assert.assertEquals(band, sameBand);
+        Assert.assertEquals(band.hashCode(), sameBand.hashCode());
+        Assert.assertFalse(band.equals(new LineBand(image, fontColor, 0, 0, image.getHeight())));
+        Assert.assertFalse(band.equals(new LineBand(image, fontColor, width, 0, image.getHeight() - 1)));
+    }
+}
@@ -0,0 +1,79 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Decoding lines whose text must follow a LineConstraint.
+ */
+public class LineConstraintTest {
+    private static final String DIGITS = "0123456789";
+    private final Font font = new Font("Monospaced", Font.PLAIN, 10);
+    private final Color fontColor = Glyph.DEFAULT_FOREGROUND_COLOR;
+
+    private String detect(SearchTreeOCRWithLeakedPixels searchTree, String text, LineConstraint constraint) {
+        return searchTree.detectCharactersOnOneLine(FontGlyph.makeImage(text, font), fontColor, new Point(0, 0), constraint);
+    }
+
+    @Test
+    public void testAccepts() {
+        Assert.assertTrue(LineConstraint.matching("\\d+:\\d\\d").accepts("12:34"));
+        Assert.assertFalse(LineConstraint.matching("\\d+:\\d\\d").accepts("12:3"));
+        Assert.assertTrue(LineConstraint.perPosition(DIGITS, ":").accepts("7:"));
+        Assert.assertFalse(LineConstraint.perPosition(DIGITS, ":").accepts("7"));
+        Assert.assertTrue(LineConstraint.oneOf("ON", "OFF").accepts("OFF"));
+        Assert.assertFalse(LineConstraint.oneOf("ON", "OFF").accepts("OF"));
+    }
+
+    @Test
+    public void testConstraints() {
+        SearchTreeOCRWithLeakedPixels searchTree = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font);
+        Assert.assertEquals("12:34", detect(searchTree, "12:34",
+                LineConstraint.perPosition(DIGITS, DIGITS, ":", DIGITS, DIGITS)));
+        Assert.assertEquals("12:34", detect(searchTree, "12:34", LineConstraint.matching("\\d\\d:\\d\\d")));
+        Assert.assertEquals("OFF", detect(searchTree, "OFF", LineConstraint.oneOf("ON", "OFF")));
+        // The decoding stops where the constraint can end.
+        Assert.assertEquals("123", detect(searchTree, "123 abc", LineConstraint.matching("\\d+")));
+        Assert.assertEquals("ON", detect(searchTree, "ONE", LineConstraint.oneOf("ON", "OFF")));
+        Assert.assertNull(detect(searchTree, "12", LineConstraint.oneOf("ON", "OFF")));
+        Assert.assertNull(detect(searchTree, "12", LineConstraint.perPosition(DIGITS, DIGITS, DIGITS)));
+        Assert.assertEquals("12:34", detect(searchTree, "12:34", null));
+    }
+
+    @Test
+    public void testSameGlyphs() {
+        SearchTreeOCRWithLeakedPixels searchTree = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font);
+        FontGlyph glyphO = searchTree.getGlyphs().get(SearchTreeOCR.getDefaultAlphabet().indexOf("O"));
+        // A symbol drawn exactly as 'O'.
+        searchTree.addGlyphs(Arrays.asList(new FontGlyph("\u00d8", font, glyphO.getDimension(), new ArrayList<>(glyphO.getActivePixels()))));
+        Assert.assertEquals("NO", detect(searchTree, "NO", LineConstraint.matching("[A-Z]+")));
+        Assert.assertEquals("N\u00d8", detect(searchTree, "NO", LineConstraint.perPosition("N", "\u00d8")));
+        Assert.assertEquals("NO", detect(searchTree, "NO", LineConstraint.oneOf("NO", "YES")));
+    }
+
+    /**
+     * The trees of the restricted glyph sets are not kept by the builder of the engine, so the
+     * engine does not grow with the number of distinct constraints.
+     */
+    @Test
+    public void testManyConstraints() {
+        SearchTreeOCRWithLeakedPixels searchTree = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font);
+        Assert.assertEquals("7", detect(searchTree, "7", null));
+        int nSharedNodes = searchTree.builder.getSharedNodeCount();
+        String letters = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+        int nConstraints = 0;
+        for (int i = 0; i < letters.length() && nConstraints <= SearchTreeOCRWithLeakedPixels.MAX_RESTRICTED_GLYPH_SETS; i++)
+            for (int j = i + 1; j < letters.length(); j++, nConstraints++)
+                Assert.assertEquals("7", detect(searchTree, "7",
+                        LineConstraint.perPosition(DIGITS + letters.charAt(i) + letters.charAt(j))));
+        Assert.assertTrue(nConstraints > SearchTreeOCRWithLeakedPixels.MAX_RESTRICTED_GLYPH_SETS);
+        Assert.assertEquals(nSharedNodes, searchTree.builder.getSharedNodeCount());
+    }
+}
@@ -0,0 +1,55 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The memoized decoding of SearchTreeOCRWithLeakedPixels, on lines with many glyphs leaking pixels.
+ */
+public class LineDecodingTest {
+    private final Font font = new Font("Monospaced", Font.PLAIN, 10);
+    private final Color fontColor = Glyph.DEFAULT_FOREGROUND_COLOR;
+    private final List<String> alphabet = SearchTreeOCR.getDefaultAlphabet();
+
+    @Test
+    public void testLeakingGlyphs() {
+        SearchTreeOCR searchTree = new SearchTreeOCRWithLeakedPixels(alphabet, font);
+        for (String line : new String[]{"The jolly fox, far off; jumps: f(j) = [y/x] {quick}",
+                    "ffjj fjfj jjff", "\"left\" 'right' /j/ (f)", "j"}) {
+            BufferedImage image = FontGlyph.makeImage(line, font);
+            Assert.assertEquals(line, searchTree.detectCharactersOnOneLine(image, fontColor, new Point(0, 0)));
+        }
+    }
+
+    @Test
+    public void testAllMatchesFromLongestToShortest() {
+        List<FontGlyph> glyphs = FontGlyph.buildGlyphsFromAlphabet(alphabet, font);
+        SearchNode headNode = new SearchNode(glyphs);
+        BufferedImage image = FontGlyph.makeImage("fj (x)", font);
+        for (int x = 0; x < image.getWidth(); x++) {
+            Point topLeft = new Point(x, 0);
+            List<FontGlyph> matches = headNode.findAllMatches(image, fontColor, topLeft);
+            if (matches.isEmpty()) {
+                Assert.assertNull(headNode.findLongestMatch(image, fontColor, topLeft));
+                continue;
+            }
+            Assert.assertSame(headNode.findLongestMatch(image, fontColor, topLeft), matches.get(0));
+            for (int i = 1; i < matches.size(); i++)
+                Assert.assertTrue(matches.get(i - 1).getDimension().width > matches.get(i).getDimension().width);
+        }
+    }
+
+    @Test
+    public void testNothingRecognized() {
+        SearchTreeOCR searchTree = new SearchTreeOCRWithLeakedPixels(alphabet, font);
+        BufferedImage image = FontGlyph.makeImage("abc", new Font("Serif", Font.BOLD, 10));
+        Assert.assertNull(searchTree.detectCharactersOnOneLine(image, fontColor, new Point(0, 0)));
+    }
+}
@@ -0,0 +1,229 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import java.awt.Font;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import javax.imageio.ImageIO;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Requests sent at the same time to a local OCRServer.
+ */
+public class OCRServerTest {
+    private final Font font = new Font("Monospaced", Font.PLAIN, 10);
+
+    private static String send(String url, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (body != null) {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body);
+            }
+        }
+        int status = connection.getResponseCode();
+        try (InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            return status + " " + new String(OCRServer.readAll(input), StandardCharsets.UTF_8);
+        }
+    }
+
+    private byte[] makePng(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(FontGlyph.makeImage(text, font), "png", bytes);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        final OCRServer server = new OCRServer(0, 2, 8, 20);
+        server.start();
+        try {
+            server.getEngine("Monospaced,plain,10");
+            final String url = "http://localhost:" + server.getPort();
+            ExecutorService clients = Executors.newFixedThreadPool(12);
+            List<Future<String>> responses = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                final byte[] png = makePng("request " + i);
+                responses.add(clients.submit(new Callable<String>() {
+
+                    @Override
+                    public String call() throws IOException {
+                        return send(url + "/ocr?font=Monospaced,plain,10&color=000000", png);
+                    }
+                }));
+            }
+            for (int i = 0; i < 12; i++) {
+                String response = responses.get(i).get();
+                Assert.assertTrue(response, response.startsWith("200 {\"lines\":[\"request " + i + "\"]"));
+            }
+            clients.shutdown();
+
+            Assert.assertEquals(12, server.getStats().getRequestCount());
+            Assert.assertTrue(server.getStats().getBatchCount() <= 12);
+            Assert.assertEquals(12, server.getStats().getMeanBatchSize() * server.getStats().getBatchCount(), 1e-9);
+            Assert.assertTrue(server.getStats().getLatencyMillis(50) > 0);
+            Assert.assertTrue(server.getStats().getLatencyMillis(50) <= server.getStats().getLatencyMillis(99));
+            Assert.assertEquals(0, server.getQueueDepth());
+            String stats = send(url + "/stats", null);
+            Assert.assertTrue(stats, stats.startsWith("200 {\"queueDepth\":0,") && stats.contains("\"requests\":12,"));
+
+            // A region of the image, and invalid requests.
+            Assert.assertEquals("200 {\"lines\":[\"request\"]", send(url + "/ocr?font=Monospaced,plain,10&region=0,0,"
+                    + 7 * new FontGlyph("r", font).getDimension().width + "," + new FontGlyph("r", font).getDimension().height,
+                    makePng("request 12")).replaceFirst(",\"millis\".*", ""));
+            Assert.assertTrue(send(url + "/ocr", makePng("no font")).startsWith("400 "));
+            Assert.assertTrue(send(url + "/ocr?font=Monospaced,plain,10", new byte[]{1, 2, 3}).startsWith("400 "));
+            Assert.assertTrue(send(url + "/ocr?font=Monospaced,plain,10", null).startsWith("405 "));
+            // A small body of too many pixels is rejected before it is decoded.
+            ByteArrayOutputStream largePng = new ByteArrayOutputStream();
+            ImageIO.write(new BufferedImage(8192, OCRServer.MAX_IMAGE_PIXELS / 8192 + 1, BufferedImage.TYPE_BYTE_BINARY),
+                    "png", largePng);
+            Assert.assertTrue(largePng.size() < OCRServer.MAX_BODY_BYTES);
+            Assert.assertTrue(send(url + "/ocr?font=Monospaced,plain,10", largePng.toByteArray()).startsWith("413 "));
+            Assert.assertEquals(4, server.getStats().getFailedRequestCount());
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * The identical requests of a batch are read once, and all get the lines.
+     */
+    @Test
+    public void testDuplicateRequests() throws Exception {
+        final OCRServer server = new OCRServer(0, 1, 8, 500);
+        server.start();
+        try {
+            final Map<String, String> parameters = Collections.singletonMap("font", "Monospaced,plain,10");
+            server.getEngine(parameters.get("font"));
+            ExecutorService clients = Executors.newFixedThreadPool(8);
+            List<Future<List<String>>> responses = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                // Decoded apart, as the requests of different clients.
+                final BufferedImage image = FontGlyph.makeImage(i < 6 ? "same" : "other", font);
+                responses.add(clients.submit(new Callable<List<String>>() {
+
+                    @Override
+                    public List<String> call() throws IOException {
+                        return server.recognize(image, parameters);
+                    }
+                }));
+            }
+            for (int i = 0; i < 8; i++)
+                Assert.assertEquals(Collections.singletonList(i < 6 ? "same" : "other"), responses.get(i).get());
+            clients.shutdown();
+
+            Assert.assertEquals(8, server.getStats().getRequestCount());
+            Assert.assertTrue(server.getStats().getDuplicateRequestCount() > 0);
+            Assert.assertTrue(server.getStats().getDuplicateRequestCount() <= 8 - 2);
+        } finally {
+            server.stop();
+        }
+
+        // Same pixels and parameters only.
+        OCRServer.Job job = new OCRServer.Job(server.getEngine("Monospaced,plain,10"));
+        job.image = FontGlyph.makeImage("same", font);
+        OCRServer.Job sameJob = new OCRServer.Job(job.engine);
+        sameJob.image = FontGlyph.makeImage("same", font);
+        Assert.assertTrue(job.isSameRequest(sameJob));
+        sameJob.lineHeight = 20;
+        Assert.assertFalse(job.isSameRequest(sameJob));
+        OCRServer.Job otherJob = new OCRServer.Job(job.engine);
+        otherJob.image = FontGlyph.makeImage("sane", font);
+        Assert.assertFalse(job.isSameRequest(otherJob));
+    }
+
+    /**
+     * One engine per font, however the font is written, and no more than the maximum.
+     */
+    @Test
+    public void testEngines() throws IOException {
+        OCRServer server = new OCRServer(0, 1, 1, 0);
+        try {
+            server.setMaxEngines(2);
+            Assert.assertSame(server.getEngine("Monospaced,plain,10"), server.getEngine("Monospaced, plain ,10"));
+            server.getEngine("Monospaced,bold,10");
+            try {
+                server.getEngine("Monospaced,plain,12");
+                Assert.fail("Built more engines than allowed.");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            Assert.assertNotNull(server.getEngine("Monospaced,bold,10"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * A full queue rejects the requests, the requests abandoned by their client are not read, and
+     * the bodies are read up to a limit.
+     */
+    @Test
+    public void testLimits() throws Exception {
+        final OCRServer server = new OCRServer(0, 1, 1, 0, 1);
+        final BufferedImage image = FontGlyph.makeImage("queued", font);
+        final Map<String, String> parameters = Collections.singletonMap("font", "Monospaced,plain,10");
+        try {
+            // Without starting the server, the first request stays in the queue.
+            ExecutorService client = Executors.newSingleThreadExecutor();
+            Future<List<String>> queued = client.submit(new Callable<List<String>>() {
+
+                @Override
+                public List<String> call() throws IOException {
+                    return server.recognize(image, parameters);
+                }
+            });
+            while (server.getQueueDepth() == 0)
+                Thread.sleep(10);
+            try {
+                server.recognize(image, parameters);
+                Assert.fail("Queued more requests than allowed.");
+            } catch (RejectedExecutionException e) {
+                // expected
+            }
+            client.shutdown();
+        } finally {
+            server.stop();
+        }
+
+        OCRServer.Job job = new OCRServer.Job(server.getEngine("Monospaced,plain,10"));
+        job.image = image;
+        job.lineHeight = job.engine.getGlyphHeight();
+        job.result.cancel(false);
+        job.run(server.getStats());
+        Assert.assertEquals(0, server.getStats().getRequestCount());
+
+        Assert.assertNull(OCRServer.readAll(new ByteArrayInputStream(new byte[100]), 99));
+        Assert.assertEquals(100, OCRServer.readAll(new ByteArrayInputStream(new byte[100]), 100).length);
+    }
+
+    @Test
+    public void testPercentiles() {
+        OCRServer.Stats stats = new OCRServer.Stats();
+        Assert.assertEquals(0, stats.getLatencyMillis(50), 0);
+        for (int i = 1; i <= 100; i++)
+            stats.addLatency(i * 1000000L);
+        Assert.assertEquals(50, stats.getLatencyMillis(50), 1e-9);
+        Assert.assertEquals(99, stats.getLatencyMillis(99), 1e-9);
+        Assert.assertEquals(100, stats.getLatencyMillis(100), 1e-9);
+    }
+}
@@ -0,0 +1,44 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.FontGlyphShiftedLeft;
+import fixedfontocr.glyph.Glyph;
+import fixedfontocr.glyph.PixelPatternPool;
+import java.awt.Font;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Glyphs with the same pixels share one list from the PixelPatternPool.
+ */
+public class PixelPatternPoolTest {
+    private final Font font = new Font("Dialog", Font.PLAIN, 10);
+
+    @Test
+    public void testSameGlyphsShareThePixels() {
+        FontGlyph glyph = new FontGlyph("a", font);
+        FontGlyph sameGlyph = new FontGlyph("a", font);
+        Assert.assertSame(glyph.getActivePixels().get(0), sameGlyph.getActivePixels().get(0));
+        Assert.assertEquals(glyph, sameGlyph);
+
+        // A space shifted left is still a space, one column narrower.
+        FontGlyph space = new FontGlyph(" ", font);
+        FontGlyphShiftedLeft shiftedSpace = new FontGlyphShiftedLeft(space);
+        Assert.assertEquals(space, shiftedSpace);
+        Assert.assertSame(PixelPatternPool.intern(new ArrayList<Point>()), PixelPatternPool.intern(shiftedSpace.getActivePixels()));
+    }
+
+    @Test
+    public void testSubGlyphsShareThePixels() {
+        FontGlyph glyph = new FontGlyph("m", font);
+        Glyph subGlyph = glyph.getSubGlyph(0, 2);
+        Glyph sameSubGlyph = glyph.getSubGlyph(0, 2);
+        Assert.assertSame(subGlyph.getActivePixels().get(0), sameSubGlyph.getActivePixels().get(0));
+        List<Point> pixels = new ArrayList<>(subGlyph.getActivePixels());
+        Assert.assertEquals(pixels, PixelPatternPool.intern(pixels));
+        Assert.assertNotSame(pixels, PixelPatternPool.intern(pixels));
+    }
+}
@@ -0,0 +1,88 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The positions, sources and alternatives of the glyphs of a line.
+ */
+public class RecognizedLineTest {
+    private final Font font = new Font("Monospaced", Font.PLAIN, 10);
+    private final Color fontColor = Glyph.DEFAULT_FOREGROUND_COLOR;
+
+    @Test
+    public void testAlternatives() {
+        List<FontGlyph> glyphs = FontGlyph.buildGlyphsFromAlphabet(SearchTreeOCR.getDefaultAlphabet(), font);
+        // A symbol drawn exactly as 'O'.
+        FontGlyph glyphO = glyphs.get(SearchTreeOCR.getDefaultAlphabet().indexOf("O"));
+        glyphs.add(new FontGlyph("\u00d8", font, glyphO.getDimension(), new ArrayList<>(glyphO.getActivePixels())));
+        SearchTreeOCR searchTree = new SearchTreeOCR.Basic(glyphs);
+        BufferedImage image = FontGlyph.makeImage("NO 1", font);
+        RecognizedLine line = searchTree.recognizeOneLine(image, fontColor, new Point(0, 0));
+
+        Assert.assertEquals(4, line.getMatches().size());
+        Assert.assertEquals(1, line.getAmbiguousMatches().size());
+        RecognizedLine.Match match = line.getAmbiguousMatches().get(0);
+        Assert.assertSame(match, line.getMatches().get(1));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("O", "\u00d8")), new HashSet<>(match.getAlternativeSymbols()));
+        Assert.assertEquals(match.getSymbol(), match.getAlternativeSymbols().get(0));
+        Assert.assertEquals(0.5, match.getConfidence(), 1e-9);
+        Assert.assertEquals(0.5, line.getConfidence(), 1e-9);
+        Assert.assertEquals(1, line.getMatches().get(0).getConfidence(), 1e-9);
+        Assert.assertEquals(RecognizedLine.Source.PLAIN, match.getSource());
+
+        int width = glyphO.getDimension().width;
+        for (int i = 0; i < 4; i++)
+            Assert.assertEquals(new Rectangle(i * width, 0, width, image.getHeight()), line.getMatches().get(i).getBoundingBox());
+    }
+
+    @Test
+    public void testAlternativesWithLeakedPixels() {
+        SearchTreeOCRWithLeakedPixels searchTree = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font);
+        FontGlyph glyphO = searchTree.getGlyphs().get(SearchTreeOCR.getDefaultAlphabet().indexOf("O"));
+        searchTree.addGlyphs(Arrays.asList(new FontGlyph("\u00d8", font, glyphO.getDimension(), new ArrayList<>(glyphO.getActivePixels()))));
+        RecognizedLine line = searchTree.recognizeOneLine(FontGlyph.makeImage("NO", font), fontColor, new Point(0, 0));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("O", "\u00d8")), new HashSet<>(line.getMatches().get(1).getAlternativeSymbols()));
+    }
+
+    @Test
+    public void testContextualGlyphs() {
+        // The 'f' of Dialog leaks pixels into the 'j'.
+        Font dialog = new Font("Dialog", Font.PLAIN, 10);
+        SearchTreeOCR searchTree = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), dialog);
+        BufferedImage image = FontGlyph.makeImage("fj ab", dialog);
+        int top = 3;
+        BufferedImage shiftedImage = new BufferedImage(image.getWidth() + 5, image.getHeight() + top, Glyph.IMAGE_TYPE);
+        for (int ix = 0; ix < shiftedImage.getWidth(); ix++)
+            for (int iy = 0; iy < shiftedImage.getHeight(); iy++)
+                shiftedImage.setRGB(ix, iy, Glyph.DEFAULT_BACKGROUND_COLOR.getRGB());
+        shiftedImage.getGraphics().drawImage(image, 5, top, null);
+        RecognizedLine line = searchTree.recognizeOneLine(shiftedImage, fontColor, new Point(5, top));
+
+        Assert.assertEquals("fj ab", line.getText().trim());
+        Assert.assertEquals(RecognizedLine.Source.CONTEXTUAL, line.getMatches().get(0).getSource());
+        Assert.assertEquals(RecognizedLine.Source.CONTEXTUAL, line.getMatches().get(1).getSource());
+        Assert.assertEquals(RecognizedLine.Source.PLAIN, line.getMatches().get(3).getSource());
+        Assert.assertEquals(5, line.getMatches().get(0).getBoundingBox().x);
+        Assert.assertEquals(top, line.getMatches().get(3).getBoundingBox().y);
+        Assert.assertEquals(1, line.getConfidence(), 1e-9);
+    }
+
+    @Test
+    public void testNothingRecognized() {
+        SearchTreeOCR searchTree = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font);
+        BufferedImage image = FontGlyph.makeImage("abc", new Font("Serif", Font.BOLD, 10));
+        Assert.assertNull(searchTree.recognizeOneLine(image, fontColor, new Point(0, 0)));
+    }
+}
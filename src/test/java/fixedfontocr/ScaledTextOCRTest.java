@@ -0,0 +1,69 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import fixedfontocr.utilities.Utilities;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Text enlarged 1, 2 and 3 times, read with the glyphs of the original size.
+ */
+public class ScaledTextOCRTest {
+    private final Font font = new Font("Monospaced", Font.PLAIN, 10);
+    private final Color fontColor = Glyph.DEFAULT_FOREGROUND_COLOR;
+    private final SearchTreeOCR searchTree = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font);
+
+    @Test
+    public void testDetectedScale() {
+        String line = "The quick brown fox jumps (f) [j] 0123";
+        ScaledTextOCR scaledOCR = new ScaledTextOCR(searchTree);
+        for (int scale = 1; scale <= 3; scale++) {
+            BufferedImage image = Utilities.enlargeImage(FontGlyph.makeImage(line, font), scale);
+            Assert.assertEquals(scale, scaledOCR.detectScale(image, fontColor, new Point(0, 0)));
+            Assert.assertEquals(line, scaledOCR.detectCharactersOnOneLine(image, fontColor, new Point(0, 0)));
+        }
+    }
+
+    @Test
+    public void testMultipleLines() {
+        List<String> lines = Arrays.asList("abc def", "ghi (j)", "f;j    ");
+        int lineHeight = 14;
+        BufferedImage image = Utilities.enlargeImage(FontGlyph.makeMultiLineImage(lines, font, lineHeight), 2);
+        Assert.assertEquals(lines, new ScaledTextOCR(searchTree).detectCharactersOnMultipleLines(image, fontColor, lineHeight, new Point(0, 0)));
+        Assert.assertEquals(lines, new ScaledTextOCR(searchTree, 2).detectCharactersOnMultipleLines(image, fontColor, lineHeight, new Point(0, 0)));
+    }
+
+    /**
+     * Lines far apart, whose empty rows are scaled too.
+     */
+    @Test
+    public void testSpacedLines() {
+        List<String> lines = Arrays.asList("abc def", "ghi (j)");
+        int lineHeight = 5 * new FontGlyph("a", font).getDimension().height;
+        BufferedImage image = Utilities.enlargeImage(FontGlyph.makeMultiLineImage(lines, font, lineHeight), 3);
+        Assert.assertEquals(lines, new ScaledTextOCR(searchTree).detectCharactersOnMultipleLines(image, fontColor, lineHeight, new Point(0, 0)));
+    }
+
+    /**
+     * A block of pixels larger than the maximal scale is not enlarged text.
+     */
+    @Test
+    public void testScaleTooLarge() {
+        BufferedImage image = new BufferedImage(40, 40, Glyph.IMAGE_TYPE);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Glyph.DEFAULT_BACKGROUND_COLOR);
+        graphics.fillRect(0, 0, 40, 40);
+        graphics.setColor(fontColor);
+        graphics.fillRect(10, 10, ScaledTextOCR.MAX_SCALE + 1, ScaledTextOCR.MAX_SCALE + 1);
+        graphics.dispose();
+        Assert.assertEquals(1, new ScaledTextOCR(searchTree).detectScale(image, fontColor, new Point(0, 0)));
+    }
+}
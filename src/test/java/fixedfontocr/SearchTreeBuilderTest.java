@@ -0,0 +1,149 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class SearchTreeBuilderTest {
+    private final Font font = new Font("Dialog", Font.PLAIN, 10);
+    private final Color fontColor = Glyph.DEFAULT_FOREGROUND_COLOR;
+    private final List<FontGlyph> glyphs = FontGlyph.buildGlyphsFromAlphabet(SearchTreeOCR.getDefaultAlphabet(), font);
+
+    @Test
+    public void testAdaptiveProbeWidthFindsSameGlyphs() {
+        SearchNode narrowestNode = new SearchTreeBuilder().build(glyphs);
+        SearchNode adaptiveNode = new SearchTreeBuilder(true).build(glyphs);
+        for (FontGlyph glyph : glyphs) {
+            BufferedImage image = FontGlyph.makeImage(glyph.getGeneratingString() + "x", font);
+            Assert.assertSame(narrowestNode.findLongestMatch(image, fontColor, new Point(0, 0)),
+                    adaptiveNode.findLongestMatch(image, fontColor, new Point(0, 0)));
+        }
+    }
+
+    @Test
+    public void testAdaptiveProbeWidthNeedsFewerLookups() {
+        SearchTreeBuilder narrowestBuilder = new SearchTreeBuilder();
+        SearchTreeBuilder adaptiveBuilder = new SearchTreeBuilder(true);
+        double narrowestLookups = narrowestBuilder.averageLookupsPerGlyph(narrowestBuilder.build(glyphs), glyphs);
+        double adaptiveLookups = adaptiveBuilder.averageLookupsPerGlyph(adaptiveBuilder.build(glyphs), glyphs);
+        Assert.assertTrue(adaptiveLookups <= narrowestLookups);
+    }
+
+    @Test
+    public void testFrequenciesFromSampleText() {
+        CharacterFrequencies frequencies = CharacterFrequencies.fromSampleText("aab", SearchTreeOCR.getDefaultAlphabet());
+        Assert.assertEquals(3.0, frequencies.getFrequency("a"), 0.0);
+        Assert.assertEquals(2.0, frequencies.getFrequency("b"), 0.0);
+        Assert.assertEquals(1.0, frequencies.getFrequency("c"), 0.0);
+
+        SearchTreeBuilder narrowestBuilder = new SearchTreeBuilder(false, frequencies);
+        SearchTreeBuilder weightedBuilder = new SearchTreeBuilder(frequencies);
+        Assert.assertTrue(weightedBuilder.averageLookupsPerGlyph(weightedBuilder.build(glyphs), glyphs)
+                <= narrowestBuilder.averageLookupsPerGlyph(narrowestBuilder.build(glyphs), glyphs));
+    }
+
+    @Test
+    public void testSubtreeWeights() {
+        SearchTreeBuilder weightedBuilder = new SearchTreeBuilder(CharacterFrequencies.fromSampleText("aab", SearchTreeOCR.getDefaultAlphabet()));
+        SearchNode headNode = weightedBuilder.build(glyphs);
+        Map<SearchNode, Double> subtreeWeights = new IdentityHashMap<>();
+        double weight = weightedBuilder.subtreeWeight(headNode, subtreeWeights);
+        Assert.assertEquals(weightedBuilder.subtreeWeight(headNode), weight, 1e-9);
+        Assert.assertEquals(glyphs.size() + 3, weight, 1e-9);
+        // The weights of all the nodes were kept, and are reused.
+        Assert.assertEquals(weight, subtreeWeights.get(headNode), 0);
+        for (SearchNode subNode : headNode.getSubNodes().values())
+            Assert.assertEquals(weightedBuilder.subtreeWeight(subNode), subtreeWeights.get(subNode), 1e-9);
+    }
+
+    @Test
+    public void testLazyTreeFindsSameGlyphs() {
+        SearchNode eagerNode = new SearchTreeBuilder(true).build(glyphs);
+        SearchTreeBuilder lazyBuilder = new SearchTreeBuilder(true);
+        lazyBuilder.setLazy(true);
+        SearchNode lazyNode = lazyBuilder.build(glyphs);
+        Assert.assertFalse(lazyNode.isBuilt());
+        for (FontGlyph glyph : glyphs) {
+            BufferedImage image = FontGlyph.makeImage(glyph.getGeneratingString() + "x", font);
+            Assert.assertSame(eagerNode.findLongestMatch(image, fontColor, new Point(0, 0)),
+                    lazyNode.findLongestMatch(image, fontColor, new Point(0, 0)));
+        }
+        Assert.assertEquals(eagerNode.getSubNodes().size(), lazyNode.getSubNodes().size());
+        Assert.assertTrue(lazyNode.isBuilt());
+    }
+
+    @Test
+    public void testLazyTreeSharedByThreads() throws InterruptedException {
+        SearchTreeBuilder lazyBuilder = new SearchTreeBuilder();
+        lazyBuilder.setLazy(true);
+        final SearchTreeOCR searchTree = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font,
+                true, lazyBuilder);
+        final String line = "The quick brown fox jumps over the lazy dog 0123456789";
+        final BufferedImage image = FontGlyph.makeImage(line, font);
+        final String[] results = new String[8];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int iThread = i;
+            threads[i] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    results[iThread] = searchTree.detectCharactersOnOneLine(image, fontColor, new Point(0, 0));
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        for (String result : results)
+            Assert.assertEquals(line, result);
+    }
+
+    @Test
+    public void testPrewarm() {
+        SearchTreeBuilder lazyBuilder = new SearchTreeBuilder();
+        lazyBuilder.setLazy(true);
+        SearchNode lazyNode = lazyBuilder.build(glyphs);
+        FontGlyph hotGlyph = glyphs.get(SearchTreeOCR.getDefaultAlphabet().indexOf("e"));
+        lazyNode.prewarm(Collections.singletonList(hotGlyph));
+        Assert.assertEquals(1, lazyNode.mapToSubNodes.size());
+    }
+
+    @Test
+    public void testSharedSubtrees() {
+        SearchTreeBuilder sharingBuilder = new SearchTreeBuilder();
+        sharingBuilder.setSharingSubtrees(true);
+        SearchNode headNode = sharingBuilder.build(glyphs);
+        Assert.assertSame(headNode, sharingBuilder.build(new ArrayList<>(glyphs)));
+        int nSharedNodes = sharingBuilder.getSharedNodeCount();
+        List<FontGlyph> fewerGlyphs = new ArrayList<>(glyphs);
+        fewerGlyphs.remove(glyphs.get(SearchTreeOCR.getDefaultAlphabet().indexOf("e")));
+        SearchNode fewerGlyphsNode = sharingBuilder.build(fewerGlyphs);
+        Assert.assertNotSame(headNode, fewerGlyphsNode);
+        // Only the nodes on the path of the removed glyph are new.
+        Assert.assertTrue(sharingBuilder.getSharedNodeCount() - nSharedNodes < 10);
+        CompiledSearchTree compiledTree = CompiledSearchTree.compile(fewerGlyphsNode, fewerGlyphs);
+        for (FontGlyph glyph : fewerGlyphs) {
+            BufferedImage image = FontGlyph.makeImage(glyph.getGeneratingString() + "x", font);
+            Assert.assertSame(fewerGlyphsNode.findLongestMatch(image, fontColor, new Point(0, 0)),
+                    compiledTree.findLongestMatch(image, fontColor, new Point(0, 0)));
+        }
+        // The nodes of the removed glyph are forgotten, the others are still shared.
+        sharingBuilder.retainGlyphs(fewerGlyphs);
+        Assert.assertTrue(sharingBuilder.getSharedNodeCount() < nSharedNodes);
+        Assert.assertSame(fewerGlyphsNode, sharingBuilder.build(fewerGlyphs));
+    }
+}
@@ -0,0 +1,93 @@
+package fixedfontocr;
+
+import fixedfontocr.glyph.FontGlyph;
+import fixedfontocr.glyph.Glyph;
+import fixedfontocr.glyph.UnknownGlyph;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Lines decoded past spans where no glyph is recognized.
+ */
+public class UnknownGlyphTest {
+    private final Font font = new Font("Monospaced", Font.PLAIN, 10);
+    private final Color fontColor = Glyph.DEFAULT_FOREGROUND_COLOR;
+    private final int glyphWidth = new FontGlyph("a", font).getDimension().width;
+
+    /**
+     * Replaces the glyphs of {@code text} at {@code positions} by a checkerboard, which is not a
+     * glyph of the font.
+     */
+    private BufferedImage makeImageWithIcons(String text, int top, int... positions) {
+        BufferedImage image = FontGlyph.makeImage(text, font);
+        BufferedImage imageWithIcons = new BufferedImage(image.getWidth(), image.getHeight() + top, Glyph.IMAGE_TYPE);
+        for (int ix = 0; ix < imageWithIcons.getWidth(); ix++)
+            for (int iy = 0; iy < imageWithIcons.getHeight(); iy++)
+                imageWithIcons.setRGB(ix, iy, iy < top ? Glyph.DEFAULT_BACKGROUND_COLOR.getRGB() : image.getRGB(ix, iy - top));
+        for (int position : positions)
+            for (int ix = position * glyphWidth; ix < (position + 1) * glyphWidth; ix++)
+                for (int iy = 1; iy < image.getHeight() - 1; iy++)
+                    imageWithIcons.setRGB(ix, top + iy, (ix + iy) % 2 == 0 ? fontColor.getRGB() : Glyph.DEFAULT_BACKGROUND_COLOR.getRGB());
+        return imageWithIcons;
+    }
+
+    private String detect(SearchTreeOCR engine, BufferedImage image) {
+        String line = engine.detectCharactersOnOneLine(image, fontColor, new Point(0, 0));
+        return line == null ? null : line.trim();
+    }
+
+    private void checkEngine(SearchTreeOCR engine) {
+        BufferedImage image = makeImageWithIcons("ab#cd##ef", 0, 2, 5, 6);
+        String line = detect(engine, image);
+        Assert.assertTrue(line == null || line.equals("ab"));
+        engine.setUnknownGlyphSymbol("?");
+        Assert.assertEquals("ab?cd?ef", detect(engine, image));
+        Assert.assertEquals("?ab", detect(engine, makeImageWithIcons("#ab", 0, 0)));
+        Assert.assertEquals("hello", detect(engine, FontGlyph.makeImage("hello", font)));
+    }
+
+    @Test
+    public void testEngines() {
+        checkEngine(new SearchTreeOCR.Basic(SearchTreeOCR.getDefaultAlphabet(), font));
+        checkEngine(new SearchTreeOCR.Compiled(SearchTreeOCR.getDefaultAlphabet(), font));
+        checkEngine(new FixedPitchOCR(SearchTreeOCR.getDefaultAlphabet(), font));
+        checkEngine(new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font));
+    }
+
+    @Test
+    public void testUnknownGlyphs() {
+        SearchTreeOCR engine = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font);
+        engine.setUnknownGlyphSymbol("\ufffd");
+        RecognizedLine line = engine.recognizeOneLine(makeImageWithIcons("ab##cd", 0, 2, 3), fontColor, new Point(0, 0));
+        RecognizedLine.Match match = line.getMatches().get(2);
+        Assert.assertEquals("\ufffd", match.getSymbol());
+        Assert.assertTrue(match.getGlyph() instanceof UnknownGlyph);
+        Assert.assertEquals(RecognizedLine.Source.UNKNOWN, match.getSource());
+        Assert.assertEquals(2 * glyphWidth, match.getBoundingBox().x);
+        Assert.assertEquals(2 * glyphWidth, match.getBoundingBox().width);
+        Assert.assertEquals(RecognizedLine.Source.PLAIN, line.getMatches().get(3).getSource());
+        Assert.assertEquals(4 * glyphWidth, line.getMatches().get(3).getBoundingBox().x);
+    }
+
+    @Test
+    public void testMultipleLines() {
+        int glyphHeight = new FontGlyph("a", font).getDimension().height;
+        BufferedImage image = FontGlyph.makeMultiLineImage(Arrays.asList("ab", "#", "cd", " "), font, glyphHeight);
+        for (int ix = 0; ix < glyphWidth; ix++)
+            for (int iy = 1; iy < glyphHeight - 1; iy++)
+                image.setRGB(ix, glyphHeight + iy, (ix + iy) % 2 == 0 ? fontColor.getRGB() : Glyph.DEFAULT_BACKGROUND_COLOR.getRGB());
+        SearchTreeOCR engine = new SearchTreeOCRWithLeakedPixels(SearchTreeOCR.getDefaultAlphabet(), font);
+        engine.setEndLineOnTrailingBlank(true);
+        Assert.assertEquals(Arrays.asList("ab"), engine.detectCharactersOnMultipleLines(image, fontColor, new Point(0, 0)));
+        engine.setUnknownGlyphSymbol("?");
+        List<String> lines = engine.detectCharactersOnMultipleLines(image, fontColor, new Point(0, 0));
+        // The blank line at the end is dropped.
+        Assert.assertEquals(Arrays.asList("ab", "?", "cd"), lines);
+    }
+}